@@ -0,0 +1,221 @@
+package fplogn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A set which can answer "certainly not" or "maybe": every key sets k bits of
+ * a bit array, chosen from its hash, and a key whose k bits aren't all set was
+ * never added. There are no false negatives, and with n keys, m bits and
+ * k = m / n * ln(2) probes a key never added is taken as present with
+ * probability about (1 - e^(-k n / m))^k, the false positive rate.
+ *
+ * The filter is blocked: the bits are split in blocks of 512 bits (a cache
+ * line, 8 longs), the hash chooses one block and the k bits of a key are all
+ * in it, so a lookup touches one cache line instead of k scattered ones (two
+ * at most, the JVM doesn't align arrays to cache lines). The price is a
+ * higher false positive rate than an unblocked filter of the same size, as
+ * some blocks get more keys than others, made up with the few more bits per
+ * key the estimate of fpp() asks for.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class BloomFilter {
+
+    private static final int BLOCK = 8;
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK;
+
+    private final long[] bits;
+    private final int blocks;
+    private final int probes;
+    private final long capacity;
+    private long keys;
+
+    /**
+     * Builds a new empty BloomFilter sized for the given keys and rate.
+     *
+     * @param capacity The number of keys expected.
+     * @param fpp The false positive rate wanted, e.g. 0.01.
+     */
+    BloomFilter(long capacity, double fpp) {
+        long n = Math.max(1, capacity);
+        //the bits of an unblocked filter, and 2% more until the blocks make it
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int b = (int) Math.max(1, Math.min(MAX_BLOCKS, (m + 511) / 512));
+        int k = probes(n, b);
+
+        while (b < MAX_BLOCKS && expected(n, b, k) > fpp) {
+            b = Math.min(MAX_BLOCKS, b + Math.max(1, b / 50));
+            k = probes(n, b);
+        }
+
+        blocks = b;
+        bits = new long[blocks * BLOCK];
+        probes = k;
+        this.capacity = capacity;
+    }
+
+    private BloomFilter(long[] bits, int probes) {
+        this.bits = bits;
+        this.probes = probes;
+        blocks = bits.length / BLOCK;
+        capacity = 0;
+    }
+
+    /**
+     * A 64 bits hash of the given bytes, FNV-1a mixed with the finalizer of
+     * MurmurHash3. Strings are hashed with HyperLogLog.hash(String).
+     *
+     * @param key The bytes.
+     * @return Their hash.
+     */
+    static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * The first long of the block of a hash, chosen with its high 32 bits
+     * (multiplied instead of taken modulo the number of blocks).
+     */
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK;
+    }
+
+    /**
+     * Adds a key given its hash. The probes inside the block are the high 9
+     * bits of the hash multiplied again and again by an odd constant, so
+     * unlike double hashing in only 512 bits they're about independent.
+     *
+     * @param hash The hash of the key.
+     */
+    void put(long hash) {
+        int block = block(hash);
+        long x = hash;
+
+        for (int i = 0; i < probes; ++i) {
+            x *= MULTIPLIER;
+            int bit = (int) (x >>> 55);
+            bits[block + (bit >>> 6)] |= 1L << bit;
+        }
+
+        ++keys;
+    }
+
+    /**
+     * Checks a key given its hash.
+     *
+     * @param hash The hash of the key.
+     * @return false if the key was never added, true if it may have been.
+     */
+    boolean mightContain(long hash) {
+        int block = block(hash);
+        long x = hash;
+
+        for (int i = 0; i < probes; ++i) {
+            x *= MULTIPLIER;
+            int bit = (int) (x >>> 55);
+            if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether more keys than the filter was sized for were added, so its
+     * false positive rate is above the one asked for.
+     *
+     * @return true if it should be built again bigger.
+     */
+    boolean full() {
+        return keys > capacity;
+    }
+
+    /**
+     * The expected false positive rate with the keys added so far. The keys
+     * aren't spread evenly over the blocks: the number of keys in the block
+     * of a lookup is about Poisson with mean keys / blocks, so the rate of a
+     * block with i keys, (1 - (1 - 1/512)^(k i))^k, is averaged over it.
+     *
+     * @return The rate, between 0 and 1.
+     */
+    double fpp() {
+        return expected(keys, blocks, probes);
+    }
+
+    private static int probes(long keys, int blocks) {
+        return (int) Math.max(1, Math.min(16, Math.round((double) blocks * 512 / keys * Math.log(2))));
+    }
+
+    private static double expected(long keys, int blocks, int probes) {
+        double mean = (double) keys / blocks;
+        double unset = Math.log1p(-1.0 / 512) * probes;
+        long last = (long) Math.ceil(mean + 10 * Math.sqrt(mean) + 10);
+        double ret = 0;
+        //the log of the Poisson probability of i keys, to not underflow
+        double log = -mean;
+
+        for (long i = 0; i <= last; ++i) {
+            if (i > 0) {
+                log += Math.log(mean) - Math.log(i);
+            }
+            ret += Math.exp(log) * Math.pow(-Math.expm1(unset * i), probes);
+        }
+
+        return Math.min(1, ret);
+    }
+
+    /**
+     * The memory taken by the bits.
+     *
+     * @return The size in bytes.
+     */
+    long bytes() {
+        return (long) bits.length * 8;
+    }
+
+    /**
+     * Writes the filter, see read(DataInput).
+     *
+     * @param out Where it's written.
+     * @throws IOException if out throws it.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(probes);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads a filter written by write(DataOutput).
+     *
+     * @param in Where it's read.
+     * @return The filter.
+     * @throws IOException if in throws it.
+     */
+    static BloomFilter read(DataInput in) throws IOException {
+        int probes = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; ++i) {
+            bits[i] = in.readLong();
+        }
+
+        return new BloomFilter(bits, probes);
+    }
+}
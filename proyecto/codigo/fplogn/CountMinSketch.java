@@ -0,0 +1,85 @@
+package fplogn;
+
+/**
+ * Estimates how many times every value was added, in a fixed table of depth
+ * rows and width counters: each value increments one counter per row, chosen
+ * by a different hash, and its estimate is the smallest of them. An estimate
+ * is never below the true count and, with probability 1 - e^-depth, it's at
+ * most e / width * n above it (n being the number of values added). Adding a
+ * value and estimating one are O(depth).
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class CountMinSketch {
+
+    private final int width;
+    private final int mask;
+    private final long[][] counts;
+    private long added;
+
+    /**
+     * Builds a new empty CountMinSketch.
+     *
+     * @param width The counters per row, rounded up to a power of 2.
+     * @param depth The number of rows.
+     */
+    CountMinSketch(int width, int depth) {
+        this.width = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        mask = this.width - 1;
+        counts = new long[depth][this.width];
+    }
+
+    /**
+     * Adds a value given its hash, the rows take their hashes from it with
+     * double hashing (h1 + i * h2).
+     *
+     * @param hash A 64 bits hash of the value, see HyperLogLog.hash(String).
+     */
+    void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+
+        for (int i = 0; i < counts.length; ++i) {
+            ++counts[i][(h1 + i * h2) & mask];
+        }
+
+        ++added;
+    }
+
+    /**
+     * The estimated number of times a value was added.
+     *
+     * @param hash The hash of the value.
+     * @return The estimate, never less than the true count.
+     */
+    long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long ret = Long.MAX_VALUE;
+
+        for (int i = 0; i < counts.length; ++i) {
+            ret = Math.min(ret, counts[i][(h1 + i * h2) & mask]);
+        }
+
+        return ret;
+    }
+
+    /**
+     * How much an estimate may exceed the true count, e / width * n, which
+     * holds with probability 1 - e^-depth.
+     *
+     * @return The bound for the values added so far.
+     */
+    long error() {
+        return (long) Math.ceil(Math.E / width * added);
+    }
+
+    /**
+     * The probability that an estimate exceeds the bound of error().
+     *
+     * @return e^-depth.
+     */
+    double failure() {
+        return Math.exp(-counts.length);
+    }
+}
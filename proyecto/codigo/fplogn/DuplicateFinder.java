@@ -0,0 +1,237 @@
+package fplogn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Finds groups of Files which could be copies of each other. Two Files can
+ * only be equal if they have the same size, so the size index of a
+ * FileStructure already has all the candidates grouped, the finder only has to
+ * look at the sizes with more than one File and split them by a cheap
+ * heuristic. The sizes are independent, so they are processed in parallel, and
+ * no pairs are ever built, only the groups.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class DuplicateFinder {
+
+    /**
+     * How the Files with the same size are split into groups.
+     */
+    public enum Refinement {
+        /**
+         * Every File with the same size is in the same group.
+         */
+        SIZE,
+        /**
+         * Files with the same size and extension.
+         */
+        EXT,
+        /**
+         * Files with the same size and name, ignoring case and the usual marks
+         * of copies, e.g. "a (1).txt" and "Copy of a.txt" are taken as "a.txt".
+         */
+        NAME
+    }
+
+    /**
+     * A group of Files with the same size which are probably copies.
+     */
+    public static class Group {
+
+        private final long size;
+        private final List<File> files;
+
+        Group(long size, List<File> files) {
+            this.size = size;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        /**
+         * The size of every File of the group.
+         *
+         * @return The size in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * The Files of the group, at least two.
+         *
+         * @return An unmodifiable List with the Files.
+         */
+        public List<File> getFiles() {
+            return files;
+        }
+
+        /**
+         * The bytes freed if only one File of the group was kept.
+         *
+         * @return size * (number of Files - 1).
+         */
+        public long getReclaimable() {
+            return size * (files.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + getReclaimable() + " " + size + "x" + files.size() + "] " + files;
+        }
+    }
+
+    private static final Comparator<Group> BY_RECLAIMABLE = Comparator.comparingLong(Group::getReclaimable);
+
+    private final FileStructure files;
+    private final Refinement refinement;
+    private final long minSize;
+
+    /**
+     * Builds a new DuplicateFinder over the given FileStructure.
+     *
+     * @param files The FileStructure searched.
+     * @param refinement How the Files with the same size are split.
+     * @param minSize The minimum size of the Files considered, at least 1
+     * because empty Files are all the same.
+     */
+    public DuplicateFinder(FileStructure files, Refinement refinement, long minSize) {
+        this.files = files;
+        this.refinement = refinement;
+        this.minSize = Math.max(1L, minSize);
+    }
+
+    /**
+     * Streams every group of candidates, the sizes are processed in parallel
+     * and the groups are produced as they are found, in no particular order.
+     * The lists of the sizes with more than one File are taken first into an
+     * array, which splits in halves between the threads (a view of the size
+     * index only splits as its iterator goes). The FileStructure mustn't be
+     * changed while the Stream is used.
+     *
+     * @return A parallel Stream of Groups.
+     */
+    public Stream<Group> stream() {
+        return Arrays.stream(files.sameSize(minSize)).parallel()
+                .flatMap((List<File> same) -> refine(same).stream());
+    }
+
+    /**
+     * Searches the n groups which would free more bytes, keeping at most n
+     * groups in memory at any time.
+     *
+     * @param n The number of groups wanted.
+     * @return At most n Groups, from the one which frees more bytes.
+     */
+    public List<Group> top(int n) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+
+        PriorityQueue<Group> best = stream().collect(
+                () -> new PriorityQueue<>(BY_RECLAIMABLE),
+                (PriorityQueue<Group> heap, Group g) -> offer(heap, g, n),
+                (PriorityQueue<Group> a, PriorityQueue<Group> b) -> b.forEach((Group g) -> offer(a, g, n)));
+
+        ArrayList<Group> ret = new ArrayList<>(best);
+        ret.sort(BY_RECLAIMABLE.reversed());
+        return ret;
+    }
+
+    private static void offer(PriorityQueue<Group> heap, Group g, int n) {
+        if (heap.size() < n) {
+            heap.add(g);
+        } else if (heap.peek().getReclaimable() < g.getReclaimable()) {
+            heap.poll();
+            heap.add(g);
+        }
+    }
+
+    private List<Group> refine(List<File> same) {
+        HashMap<String, ArrayList<File>> groups = new HashMap<>();
+
+        for (File f : same) {
+            if (f instanceof Folder) {
+                continue;
+            }
+
+            String key;
+            switch (refinement) {
+                case EXT:
+                    key = FileStructure.extOf(f.getName());
+                    break;
+                case NAME:
+                    key = normalize(f.getName());
+                    break;
+                default:
+                    key = "";
+            }
+
+            ArrayList<File> curr = groups.get(key);
+            if (curr == null) {
+                curr = new ArrayList<>(2);
+                groups.put(key, curr);
+            }
+
+            curr.add(f);
+        }
+
+        ArrayList<Group> ret = new ArrayList<>();
+        for (ArrayList<File> g : groups.values()) {
+            if (g.size() > 1) {
+                ret.add(new Group(g.get(0).getSize(), g));
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Removes from a name the marks usually added to copies: a "copy of "
+     * prefix and a " (n)", " - copy" or "_copy" suffix before the extension.
+     *
+     * @param name The name of a File.
+     * @return The name in lower case and without those marks.
+     */
+    static String normalize(String name) {
+        String ret = name.toLowerCase();
+        String ext = FileStructure.extOf(ret);
+        String base = ext.length() == 0 ? ret : ret.substring(0, ret.length() - ext.length() - 1);
+
+        if (base.startsWith("copy of ")) {
+            base = base.substring("copy of ".length());
+        }
+
+        if (base.endsWith(" - copy")) {
+            base = base.substring(0, base.length() - " - copy".length());
+        } else if (base.endsWith("_copy")) {
+            base = base.substring(0, base.length() - "_copy".length());
+        } else if (base.endsWith(")")) {
+            int open = base.lastIndexOf(" (");
+            if (open >= 0 && isNumber(base, open + 2, base.length() - 1)) {
+                base = base.substring(0, open);
+            }
+        }
+
+        return ext.length() == 0 ? base : base + "." + ext;
+    }
+
+    private static boolean isNumber(String s, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+
+        for (int i = from; i < to; ++i) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,219 @@
+package fplogn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+
+/**
+ * Pre-order numbering of every File reachable from HOME. Every Folder gets the
+ * interval [from, to) of the positions its descendants take in the tour, so
+ * asking if a File is under a Folder is just comparing its position against
+ * that interval, and all the Files under a Folder are a contiguous range of
+ * the tour.
+ *
+ * The tour is a snapshot, it's built from the byFolder tree in O(n) and has to
+ * be built again after the structure changes.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class EulerTour {
+
+    private static final int[] EMPTY = {0, 0};
+
+    private final File[] order;
+    private final HashMap<String, int[]> intervals;
+    private final IdentityHashMap<File, Integer> positions;
+    private final IdentityHashMap<List<File>, int[]> postings;
+
+    /**
+     * Builds the tour walking the given byFolder tree from HOME, children are
+     * visited in the same order they have inside their TreeSet (by name).
+     *
+     * @param byFolder The tree of Files by their parent's path.
+     */
+    EulerTour(Map<String, TreeSet<File>> byFolder) {
+        ArrayList<File> visited = new ArrayList<>();
+        intervals = new HashMap<>();
+        positions = new IdentityHashMap<>();
+        postings = new IdentityHashMap<>();
+
+        //explicit stack instead of recursion, listings can be very deep
+        ArrayDeque<String> paths = new ArrayDeque<>();
+        ArrayDeque<Iterator<File>> pending = new ArrayDeque<>();
+        ArrayDeque<Integer> starts = new ArrayDeque<>();
+
+        open("", byFolder, paths, pending, starts, visited.size());
+
+        while (!pending.isEmpty()) {
+            Iterator<File> it = pending.peek();
+
+            if (!it.hasNext()) {
+                pending.pop();
+                intervals.put(paths.pop(), new int[]{starts.pop(), visited.size()});
+                continue;
+            }
+
+            File next = it.next();
+            positions.put(next, visited.size());
+            visited.add(next);
+
+            if (next instanceof Folder) {
+                open(next.getPath(), byFolder, paths, pending, starts, visited.size());
+            }
+        }
+
+        order = visited.toArray(new File[visited.size()]);
+    }
+
+    private static void open(String path, Map<String, TreeSet<File>> byFolder,
+            ArrayDeque<String> paths, ArrayDeque<Iterator<File>> pending,
+            ArrayDeque<Integer> starts, int start) {
+        TreeSet<File> childs = byFolder.get(path);
+        paths.push(path);
+        starts.push(start);
+        pending.push(childs == null ? Collections.emptyIterator() : childs.iterator());
+    }
+
+    /**
+     * The number of Files in the tour.
+     *
+     * @return How many Files are reachable from HOME.
+     */
+    int size() {
+        return order.length;
+    }
+
+    /**
+     * The File in the given position of the tour.
+     *
+     * @param position A position between 0 and size() - 1.
+     * @return The File visited in that position.
+     */
+    File get(int position) {
+        return order[position];
+    }
+
+    /**
+     * The range of the tour taken by the descendants of the Folder with the
+     * given path.
+     *
+     * @param path The path of the Folder.
+     * @return An array {from, to}, empty if the Folder has no descendants or
+     * doesn't exist.
+     */
+    int[] interval(String path) {
+        int[] ret = intervals.get(path);
+        return ret == null ? EMPTY : ret;
+    }
+
+    /**
+     * The position of the given File in the tour.
+     *
+     * @param file The File searched.
+     * @return Its position, or -1 if the File isn't reachable from HOME.
+     */
+    int position(File file) {
+        Integer ret = positions.get(file);
+        return ret == null ? -1 : ret;
+    }
+
+    /**
+     * Every File in the range of the tour taken by the given Folder.
+     *
+     * @param path The path of the Folder.
+     * @return An unmodifiable List with the Files in pre-order.
+     */
+    List<File> subtree(String path) {
+        int[] range = interval(path);
+        return Collections.unmodifiableList(Arrays.asList(order).subList(range[0], range[1]));
+    }
+
+    /**
+     * A Spliterator over the Files under the given Folder, see subtree(String).
+     *
+     * @param path The path of the Folder.
+     * @return A Spliterator which splits the range in halves.
+     */
+    Spliterator<File> spliterator(String path) {
+        int[] range = interval(path);
+        return Spliterators.spliterator(order, range[0], range[1], FileStructure.SPLITERATOR);
+    }
+
+    /**
+     * Restricts the given posting list (any of the lists of the indexes of a
+     * FileStructure) to the Files under the given Folder. The positions of the
+     * posting are sorted once and cached, so afterwards it only costs two
+     * binary searches plus the size of the result. It may be called by several
+     * threads at once, holding a read lock of the structure.
+     *
+     * @param posting The posting list, may be null.
+     * @param path The path of the Folder.
+     * @return The Files of the posting under the Folder, in pre-order.
+     */
+    List<File> restrict(List<File> posting, String path) {
+        if (posting == null) {
+            return Collections.emptyList();
+        }
+
+        int[] sorted;
+        synchronized (postings) {
+            sorted = postings.get(posting);
+        }
+
+        if (sorted == null) {
+            sorted = new int[posting.size()];
+            int n = 0;
+
+            for (File f : posting) {
+                int pos = position(f);
+
+                if (pos >= 0) {
+                    sorted[n++] = pos;
+                }
+            }
+
+            sorted = Arrays.copyOf(sorted, n);
+            Arrays.sort(sorted);
+            synchronized (postings) {
+                postings.put(posting, sorted);
+            }
+        }
+
+        int[] range = interval(path);
+        int from = lowerBound(sorted, range[0]);
+        int to = lowerBound(sorted, range[1]);
+        ArrayList<File> ret = new ArrayList<>(to - from);
+
+        for (int i = from; i < to; ++i) {
+            ret.add(order[sorted[i]]);
+        }
+
+        return ret;
+    }
+
+    private static int lowerBound(int[] sorted, int key) {
+        int lo = 0;
+        int hi = sorted.length;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (sorted[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+}
@@ -3,15 +3,32 @@ package fplogn;
 /**
  * Aproach for making a File, every File knows in which Folder it is located,
  * and it's name, also includes the size of the file and the user it belongs to.
+ * A File may also know when it was last modified, kept as the seconds since
+ * BASE_EPOCH in an int (from 1932 to 2068) instead of a long.
  *
  * @author anietog1, ditrefftzr
  */
 public class File {
 
+    /**
+     * The modification times are kept relative to 2000-01-01T00:00:00Z, in
+     * seconds since the Unix epoch.
+     */
+    public static final long BASE_EPOCH = 946684800L;
+    /**
+     * The modification time of the Files which don't know it.
+     */
+    public static final long NO_MTIME = Long.MIN_VALUE;
+    /**
+     * NO_MTIME as kept in the int.
+     */
+    static final int NONE = Integer.MIN_VALUE;
+
     private final String name;
     private final Folder parent;
     private final String user;
     private final long size;
+    private final int mtime;
 
     /**
      * Builds a new File with the characteristics.
@@ -22,10 +39,39 @@ public class File {
      * @param user The File's user.
      */
     public File(String name, Folder parent, long size, String user) {
+        this(name, parent, size, user, NO_MTIME);
+    }
+
+    /**
+     * Builds a new File with the characteristics and its modification time.
+     *
+     * @param name The name of the file.
+     * @param parent The folder inside which this file is.
+     * @param size The File's size in bytes.
+     * @param user The File's user.
+     * @param mtime The seconds since the Unix epoch when the File was last
+     * modified, NO_MTIME if unknown. Times out of the range kept are clamped.
+     */
+    public File(String name, Folder parent, long size, String user, long mtime) {
         this.name = name;
         this.parent = parent;
         this.size = size;
         this.user = user;
+        this.mtime = encode(mtime);
+    }
+
+    /**
+     * The int kept for a modification time.
+     *
+     * @param mtime Seconds since the Unix epoch, or NO_MTIME.
+     * @return The seconds since BASE_EPOCH, clamped, or NONE.
+     */
+    static int encode(long mtime) {
+        if (mtime == NO_MTIME) {
+            return NONE;
+        }
+
+        return (int) Math.max(NONE + 1, Math.min(Integer.MAX_VALUE, mtime - BASE_EPOCH));
     }
 
     /**
@@ -64,6 +110,24 @@ public class File {
         return user;
     }
 
+    /**
+     * Indicates when this File was last modified.
+     *
+     * @return The seconds since the Unix epoch, NO_MTIME if unknown.
+     */
+    public long getMtime() {
+        return mtime == NONE ? NO_MTIME : BASE_EPOCH + mtime;
+    }
+
+    /**
+     * The modification time as kept, for the indexes.
+     *
+     * @return The seconds since BASE_EPOCH, NONE if unknown.
+     */
+    int mtime() {
+        return mtime;
+    }
+
     @Override
     public String toString() {
         return "[" + user + " " + size + "] " + name;
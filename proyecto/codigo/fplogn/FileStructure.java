@@ -1,9 +1,25 @@
 package fplogn;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.TreeMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * FileStructure class allows the user to insert Files and search them by name,
@@ -14,50 +30,175 @@ import java.util.TreeSet;
  * that HOME's path is "" and every Folder with a null parent is always going to
  * be directly inside HOME.
  *
+ * The searches which return Lists, Sets or Maps are recorded by Flight
+ * Recorder as fplogn.Query events (see QueryEvent), with their key and
+ * number of results; the pages and Streams aren't.
+ *
  * @author anietog1, ditrefftzr
  */
 public class FileStructure {
 
-    private final TreeMap<String, LinkedList<File>> byName;
-    private final TreeMap<Long, LinkedList<File>> bySize;
-    private final TreeMap<String, LinkedList<File>> byExt;
-    private final TreeMap<String, LinkedList<File>> byUser;
+    /**
+     * A number of biggest Files to keep for every user, extension and Folder
+     * when they're wanted, see FileStructure(int). By default none are kept.
+     */
+    public static final int DEFAULT_TOP_K = 20;
+
+    /**
+     * Characteristics of the Spliterators of the Streams of this class, they
+     * are all over arrays which don't change, so SIZED and SUBSIZED are added
+     * too.
+     */
+    static final int SPLITERATOR = Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+
+    private final TreeMap<String, Postings> byName;
+    private final TreeMap<Long, Postings> bySize;
+    private final TreeMap<String, Postings> byExt;
+    private final TreeMap<String, Postings> byUser;
+    private final TreeMap<Integer, Postings> byTime;
     private final TreeMap<String, TreeSet<File>> byFolder;
+    private final int topK;
+    private final HashMap<String, TopK> topByUser;
+    private final HashMap<String, TopK> topByExt;
+    private final HashMap<String, TopK> topByFolder;
+    private final IdentityHashMap<Folder, TopK> topOfFolder;
+    private final HashMap<String, Usage> usageByUser;
+    private final HashMap<String, Usage> usageByExt;
     private long nFolders;
     private long nFiles;
+    private final ArrayList<MutationListener> listeners;
+    private final Snapshot<EulerTour> tour;
+    private final Snapshot<SizeOrder> sizeOrder;
+    private final Snapshot<String[]> names;
+    private final PathIndex paths;
+    private final Snapshot<TimeOrder> timeOrder;
+    private final Snapshot<FolderSizes> folderSizes;
+    private double bloomFpp;
+    private BloomFilter nameFilter;
+    private BloomFilter extFilter;
+    private BloomFilter userFilter;
+    private final LongAdder bloomSkips;
 
     /**
-     * Builds a new FileStructure.
+     * Builds a new FileStructure which keeps no biggest Files, getLargestByUser
+     * and the like scan the index.
      */
     public FileStructure() {
+        this(0);
+    }
+
+    /**
+     * Builds a new FileStructure, keeping the topK biggest Files of every
+     * user, extension and Folder. Asking for more Files than topK is still
+     * answered, but scanning the whole index.
+     *
+     * @param topK The number of biggest Files kept, 0 to keep none.
+     */
+    public FileStructure(int topK) {
+        if (topK < 0) {
+            throw new IllegalArgumentException("topK must not be negative: " + topK);
+        }
+
+        this.topK = topK;
+        topByUser = new HashMap<>();
+        topByExt = new HashMap<>();
+        topByFolder = new HashMap<>();
+        topOfFolder = new IdentityHashMap<>();
+        usageByUser = new HashMap<>();
+        usageByExt = new HashMap<>();
+        listeners = new ArrayList<>();
         byName = new TreeMap<>();
         bySize = new TreeMap<>();
         byExt = new TreeMap<>();
         byUser = new TreeMap<>();
+        byTime = new TreeMap<>();
         byFolder = new TreeMap<>();
         nFolders = 0;
         nFiles = 0;
+        bloomSkips = new LongAdder();
+        tour = new Snapshot<>(() -> new EulerTour(byFolder));
+        sizeOrder = new Snapshot<>(() -> new SizeOrder(bySize, (int) (nFiles + nFolders)));
+        names = new Snapshot<>(() -> byName.keySet().toArray(new String[0]));
+        paths = new PathIndex(byFolder);
+        timeOrder = new Snapshot<>(() -> new TimeOrder(tour.get()));
+        folderSizes = new Snapshot<>(() -> {
+            FolderSizes ret = new FolderSizes();
+            for (TreeSet<File> childs : byFolder.values()) {
+                for (File f : childs) {
+                    ret.add(f);
+                }
+            }
+            return ret;
+        });
     }
 
     /**
      * Searches for all Files with the given name.
      *
      * @param name The name of the File(s) searched.
-     * @return A LinkedList with all the Files with the given name, returns null
-     * if there isn't a file with that name.
+     * @return An unmodifiable List with all the Files with the given name,
+     * returns null if there isn't a file with that name.
      */
-    public LinkedList<File> getByName(String name) {
-        return byName.get(name);
+    public List<File> getByName(String name) {
+        return QueryEvent.start().finish("getByName", name, null, lookup(byName, nameFilter, name));
+    }
+
+    /**
+     * Searches for the names within an edit distance (insertions, deletions
+     * and substitutions of a char) of the given one, for misspelled searches.
+     * A Levenshtein automaton is walked along the sorted names, so only the
+     * prefixes some name within k can start with are visited (see
+     * LevenshteinAutomaton), which are a few thousand when k is small. The
+     * names are copied to an array in O(m) (m being the number of distinct
+     * names) when a search finds new ones, see Snapshot.get(long), and walked
+     * in the index meanwhile.
+     *
+     * @param name The name, maybe misspelled.
+     * @param k The maximum distance, 1 or 2 are the useful ones.
+     * @param limit The maximum number of names returned.
+     * @return The names found, closest first and, at the same distance, with
+     * more Files first.
+     */
+    public List<String> getSimilarNames(String name, int k, int limit) {
+        QueryEvent event = QueryEvent.start();
+
+        ArrayList<String> found = new ArrayList<>();
+        HashMap<String, Integer> distances = new HashMap<>();
+        ObjIntConsumer<String> add = (String n, int d) -> {
+            found.add(n);
+            distances.put(n, d);
+        };
+
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(name, k);
+        String[] sorted = names.get(byName.size());
+        if (sorted != null) {
+            automaton.search(sorted, add);
+        } else {
+            automaton.search(byName.navigableKeySet(), add);
+            //every prefix searched the index in O(log(m))
+            names.charge(automaton.visited() * (64 - Long.numberOfLeadingZeros(byName.size())));
+        }
+
+        found.sort((String a, String b) -> {
+            int cmp = Integer.compare(distances.get(a), distances.get(b));
+            if (cmp == 0) {
+                cmp = Integer.compare(byName.get(b).size(), byName.get(a).size());
+            }
+            return cmp == 0 ? a.compareTo(b) : cmp;
+        });
+
+        return event.finish("getSimilarNames", name, null,
+                found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found);
     }
 
     /**
      * Searches for all Files with the given size.
      *
      * @param size The searched size.
-     * @return A LinkedList with all the files with the given size.
+     * @return An unmodifiable List with all the files with the given size.
      */
-    public LinkedList<File> getBySize(Long size) {
-        return bySize.get(size);
+    public List<File> getBySize(Long size) {
+        return QueryEvent.start().finish("getBySize", size, null, bySize.get(size));
     }
 
     /**
@@ -65,13 +206,14 @@ public class FileStructure {
      * equal size than the given size.
      *
      * @param size The maximum size of files to be returned.
-     * @return A SortedMap with all the Files with sizes equal to or less than
-     * the given size.
+     * @return An unmodifiable SortedMap with all the Files with sizes equal to
+     * or less than the given size.
      *
      * For more information, see SortedMap.headMap(K, bool)
      */
-    public SortedMap<Long, LinkedList<File>> getLessThan(Long size) {
-        return bySize.headMap(size, true);
+    public SortedMap<Long, List<File>> getLessThan(Long size) {
+        return QueryEvent.start().finish("getLessThan", size,
+                Collections.unmodifiableSortedMap(bySize.headMap(size, true)));
     }
 
     /**
@@ -79,13 +221,14 @@ public class FileStructure {
      * than or equal to the given size.
      *
      * @param size The minimun size of all Files searched.
-     * @return A SortedMap with all the Files with sizes equal to or higher than
-     * the given size.
+     * @return An unmodifiable SortedMap with all the Files with sizes equal to
+     * or higher than the given size.
      *
      * For more information, see SortedMap.tailMap(K, bool)
      */
-    public SortedMap<Long, LinkedList<File>> getHigherThan(Long size) {
-        return bySize.tailMap(size, true);
+    public SortedMap<Long, List<File>> getHigherThan(Long size) {
+        return QueryEvent.start().finish("getHigherThan", size,
+                Collections.unmodifiableSortedMap(bySize.tailMap(size, true)));
     }
 
     /**
@@ -93,22 +236,109 @@ public class FileStructure {
      * be written without the dot, and it's found in Files as: [filename].[ext].
      *
      * @param ext The extension of the searched Files.
-     * @return A LinkedList with all Files with extension ext, returns null if
-     * there's no File with that extension.
+     * @return An unmodifiable List with all Files with extension ext, returns
+     * null if there's no File with that extension.
      */
-    public LinkedList<File> getByExt(String ext) {
-        return byExt.get(ext);
+    public List<File> getByExt(String ext) {
+        return QueryEvent.start().finish("getByExt", ext, null, lookup(byExt, extFilter, ext));
     }
 
     /**
      * Searches for all Files with the given user.
      *
      * @param user The file's username.
-     * @return A linked list with all the Files with the given user, returns
-     * null if the username doesn't exist.
+     * @return An unmodifiable List with all the Files with the given user,
+     * returns null if the username doesn't exist.
      */
-    public LinkedList<File> getByUser(String user) {
-        return byUser.get(user);
+    public List<File> getByUser(String user) {
+        return QueryEvent.start().finish("getByUser", user, null, lookup(byUser, userFilter, user));
+    }
+
+    /**
+     * Searches a key in a tree, unless its bloom filter says it isn't there.
+     */
+    private Postings lookup(TreeMap<String, Postings> index, BloomFilter filter, String key) {
+        if (filter != null && !filter.mightContain(HyperLogLog.hash(key))) {
+            bloomSkips.increment();
+            return null;
+        }
+
+        return index.get(key);
+    }
+
+    /**
+     * Puts a bloom filter in front of the names, extensions and users, so a
+     * search of one which isn't in the structure (most name searches) is
+     * answered reading one cache line instead of comparing the key with
+     * O(log(n)) keys of the tree. Every filter is sized for twice the keys of
+     * its tree (at most nFiles() + nFolders()) and built again, twice as
+     * big, when they double, so they take between 1.5 * log2(1 / fpp) and
+     * twice that bits per key, e.g. 10 to 20 bits per distinct name with fpp
+     * 0.01.
+     *
+     * @param fpp The false positive rate, between 0 and 1, or 0 to remove the
+     * filters.
+     */
+    public void setBloomFilters(double fpp) {
+        if (!(fpp >= 0 && fpp < 1)) {
+            throw new IllegalArgumentException("fpp must be between 0 and 1: " + fpp);
+        }
+
+        bloomFpp = fpp;
+        nameFilter = filterOf(byName, null, null);
+        extFilter = filterOf(byExt, null, null);
+        userFilter = filterOf(byUser, null, null);
+    }
+
+    /**
+     * Adds a new key to the bloom filter of its tree, building it again if
+     * it's full.
+     */
+    private BloomFilter filterOf(TreeMap<String, Postings> index, BloomFilter filter, String key) {
+        if (bloomFpp == 0) {
+            return null;
+        }
+
+        if (filter != null && !filter.full()) {
+            filter.put(HyperLogLog.hash(key));
+            return filter;
+        }
+
+        BloomFilter ret = new BloomFilter(Math.max(1024, 2L * index.size()), bloomFpp);
+        for (String k : index.keySet()) {
+            ret.put(HyperLogLog.hash(k));
+        }
+        return ret;
+    }
+
+    /**
+     * The memory taken by the bloom filters, see setBloomFilters(double).
+     *
+     * @return The size in bytes, 0 without filters.
+     */
+    public long getBloomFilterBytes() {
+        return nameFilter == null ? 0 : nameFilter.bytes() + extFilter.bytes() + userFilter.bytes();
+    }
+
+    /**
+     * The expected false positive rate of the bloom filter of the names with
+     * the names it has, at most the rate asked for (the extensions and users
+     * are usually far fewer, with lower rates).
+     *
+     * @return The rate, 0 without filters.
+     */
+    public double getBloomFilterFpp() {
+        return nameFilter == null ? 0 : nameFilter.fpp();
+    }
+
+    /**
+     * The number of searches answered by the bloom filters without searching
+     * the trees.
+     *
+     * @return The number of searches.
+     */
+    public long getBloomFilterSkips() {
+        return bloomSkips.sum();
     }
 
     /**
@@ -119,7 +349,7 @@ public class FileStructure {
      * if there's no File with the given Folder as its parent or the given
      * Folder doesn't exists.
      */
-    public TreeSet<File> getByFolder(Folder folder) {
+    public SortedSet<File> getByFolder(Folder folder) {
         return getByFolder(folder.getPath());
     }
 
@@ -128,11 +358,651 @@ public class FileStructure {
      * for paths is [foldername/...]. HOME path is "".
      *
      * @param path The path for the searched Folder.
-     * @return All the files in the Folder with the given path, returns null if
-     * there's no existent path with that name.
+     * @return An unmodifiable SortedSet (by name) with all the files in the
+     * Folder with the given path, returns null if there's no existent path with
+     * that name.
+     */
+    public SortedSet<File> getByFolder(String path) {
+        QueryEvent event = QueryEvent.start();
+        TreeSet<File> ret = byFolder.get(path);
+        return event.finish("getByFolder", path, path, ret == null ? null : Collections.unmodifiableSortedSet(ret));
+    }
+
+    /**
+     * Searches the Files inside the Folder with the given path from the one
+     * with the biggest subtree to the smallest (a File counts its size, a
+     * Folder the sizes of everything under it and its own), like ncdu. The
+     * totals of every Folder are built by the first call after a merge in
+     * O(n d log(c)) (d being the depth and c the children of a Folder), then
+     * add(File) keeps them up to date, so a call is O(log(c) + limit).
+     *
+     * @param path The path for the searched Folder, HOME path is "".
+     * @param limit The maximum number of Files, 0 for all.
+     * @return The Files, biggest first, null if there's no Folder with that
+     * path.
+     */
+    public List<File> getByFolderBySize(String path, int limit) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getByFolderBySize", limit, path, folderSizes.get().childs(path, limit));
+    }
+
+    /**
+     * The size of a File, or of everything under a Folder and its own, see
+     * getByFolderBySize(String, int).
+     *
+     * @param file A File of the structure.
+     * @return The bytes.
+     */
+    public long getSubtreeSize(File file) {
+        return folderSizes.get().size(file);
+    }
+
+    /**
+     * The totals of the Folder with the given path: its bytes, how many Files
+     * and Folders are under it, its depth and its largest child, see
+     * getByFolderBySize(String, int).
+     *
+     * @param path The path for the Folder, HOME path is "".
+     * @return The totals, null if there's no Folder with that path.
+     */
+    public FolderStats getFolderStats(String path) {
+        return folderSizes.get().stats(path);
+    }
+
+    /**
+     * Reads at most limit Files inside the Folder with the given path, in order
+     * by name, starting after the File with the given name. Finding where to
+     * start is O(log(n)), so huge Folders can be read page by page.
+     *
+     * @param path The path for the searched Folder, HOME path is "".
+     * @param after The name of the last File read, null to start from the
+     * first one.
+     * @param limit The maximum number of Files of the page.
+     * @return A Page whose cursor is the name of its last File, empty if
+     * there's no Folder with that path.
+     */
+    public Page<String> getByFolder(String path, String after, int limit) {
+        TreeSet<File> all = byFolder.get(path);
+        ArrayList<File> ret = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+
+        if (all == null || limit <= 0) {
+            return new Page<>(ret, null);
+        }
+
+        Iterator<File> it = after == null
+                ? all.iterator()
+                : all.tailSet(new File(after, null, 0L, ""), false).iterator();
+
+        while (ret.size() < limit && it.hasNext()) {
+            ret.add(it.next());
+        }
+
+        return new Page<>(ret, it.hasNext() ? ret.get(ret.size() - 1).getName() : null);
+    }
+
+    /**
+     * Reads at most limit Files with the given name, see getByUser(String,
+     * int, int).
+     *
+     * @param name The name of the File(s) searched.
+     * @param after The cursor of the previous page, -1 to start.
+     * @param limit The maximum number of Files of the page.
+     * @return A Page of the Files with that name.
+     */
+    public Page<Integer> getByName(String name, int after, int limit) {
+        return page(lookup(byName, nameFilter, name), after, limit);
+    }
+
+    /**
+     * Reads at most limit Files with the given size, see getByUser(String,
+     * int, int).
+     *
+     * @param size The searched size.
+     * @param after The cursor of the previous page, -1 to start.
+     * @param limit The maximum number of Files of the page.
+     * @return A Page of the Files with that size.
+     */
+    public Page<Integer> getBySize(Long size, int after, int limit) {
+        return page(bySize.get(size), after, limit);
+    }
+
+    /**
+     * Reads at most limit Files with the given extension, see
+     * getByUser(String, int, int).
+     *
+     * @param ext The extension, without the dot.
+     * @param after The cursor of the previous page, -1 to start.
+     * @param limit The maximum number of Files of the page.
+     * @return A Page of the Files with that extension.
+     */
+    public Page<Integer> getByExt(String ext, int after, int limit) {
+        return page(lookup(byExt, extFilter, ext), after, limit);
+    }
+
+    /**
+     * Reads at most limit Files of the given user, starting after the given
+     * position. Files are only appended to the lists of the indexes, so a
+     * cursor is still valid after adding more Files, and resuming is O(1).
+     *
+     * @param user The file's username.
+     * @param after The cursor of the previous page, -1 to start.
+     * @param limit The maximum number of Files of the page.
+     * @return A Page of the Files of that user, whose cursor is the position
+     * of its last File.
+     * @throws IllegalArgumentException if after is less than -1.
+     */
+    public Page<Integer> getByUser(String user, int after, int limit) {
+        return page(lookup(byUser, userFilter, user), after, limit);
+    }
+
+    /**
+     * The smallest size of a File which isn't less than the given one, so the
+     * sizes of a range can be read page by page (see QueryServer).
+     *
+     * @param size The size.
+     * @return The size found, null if every File is smaller.
+     */
+    Long ceilingSize(long size) {
+        return bySize.ceilingKey(size);
+    }
+
+    private static Page<Integer> page(Postings all, int after, int limit) {
+        if (after < -1) {
+            throw new IllegalArgumentException("after must not be less than -1: " + after);
+        }
+
+        //after + 1 would overflow at Integer.MAX_VALUE
+        if (all == null || limit <= 0 || after >= all.size() - 1) {
+            return new Page<>(new ArrayList<>(), null);
+        }
+
+        int from = after + 1;
+        int to = (int) Math.min((long) from + limit, all.size());
+        return new Page<>(new ArrayList<>(all.subList(from, to)), to < all.size() ? to - 1 : null);
+    }
+
+    /**
+     * Searches all the Files anywhere under the given Folder, not only its
+     * direct children.
+     *
+     * @param folder The searched Folder.
+     * @return All the Files under the Folder in pre-order, empty if there's
+     * none.
+     */
+    public List<File> getBySubtree(Folder folder) {
+        return getBySubtree(folder.getPath());
+    }
+
+    /**
+     * Searches all the Files anywhere under the Folder with the given path.
+     * Every File has a position in a pre-order tour of the tree, and the Files
+     * under a Folder take a contiguous range of it, so after the tour is built
+     * this is O(log(n) + results). After a change, the searches walk the
+     * Folders instead, in O(results * log(n)), until they did O(n) work, and
+     * then the tour is built again (see Snapshot), so searching while loading
+     * doesn't build it for every search.
+     *
+     * @param path The path for the searched Folder, HOME path is "".
+     * @return All the Files under the Folder in pre-order, empty if there's
+     * none or the Folder doesn't exist.
+     */
+    public List<File> getBySubtree(String path) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getBySubtree", path, path, subtree(path));
+    }
+
+    private List<File> subtree(String path) {
+        EulerTour t = tour.get(nFiles + nFolders);
+        if (t != null) {
+            return t.subtree(path);
+        }
+
+        ArrayList<File> ret = walk(path);
+        tour.charge(ret.size() + 1);
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * The Files under a Folder in pre-order walking byFolder, what the tour
+     * has when it's stale.
+     */
+    private ArrayList<File> walk(String path) {
+        ArrayList<File> ret = new ArrayList<>();
+        if (!reachable(path)) {
+            return ret;
+        }
+
+        //explicit stack instead of recursion, listings can be very deep
+        ArrayDeque<Iterator<File>> pending = new ArrayDeque<>();
+        TreeSet<File> top = byFolder.get(path);
+        if (top != null) {
+            pending.push(top.iterator());
+        }
+
+        while (!pending.isEmpty()) {
+            Iterator<File> it = pending.peek();
+            if (!it.hasNext()) {
+                pending.pop();
+                continue;
+            }
+
+            File next = it.next();
+            ret.add(next);
+
+            if (next instanceof Folder) {
+                TreeSet<File> childs = byFolder.get(next.getPath());
+                if (childs != null) {
+                    pending.push(childs.iterator());
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Tells if the Folder with the given path is reachable from HOME, like
+     * the Folders with an interval in the tour.
+     */
+    private boolean reachable(String path) {
+        int from = 0;
+
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', from)) {
+            TreeSet<File> childs = byFolder.get(path.substring(0, from));
+            String name = path.substring(from, slash);
+            File f = childs == null ? null : childs.ceiling(new File(name, null, 0L, ""));
+
+            if (!(f instanceof Folder) || !f.getName().equals(name)) {
+                return false;
+            }
+
+            from = slash + 1;
+        }
+
+        return from == path.length();
+    }
+
+    /**
+     * Tells if a File of the structure is under the Folder with the given
+     * path without the tour, see isUnder(File, String).
+     */
+    private boolean under(File file, String path, Map<String, Boolean> reachables) {
+        Folder parent = file.getParent();
+        String p = parent == null ? "" : parent.getPath();
+
+        if (!p.startsWith(path) || !(path.isEmpty() || path.endsWith("/"))) {
+            return false;
+        }
+
+        TreeSet<File> childs = byFolder.get(p);
+        return childs != null && childs.ceiling(file) == file && reachables.computeIfAbsent(p, this::reachable);
+    }
+
+    /**
+     * The Files of a posting list under a Folder in pre-order, see
+     * EulerTour.restrict.
+     */
+    private List<File> restrict(Postings posting, String path) {
+        EulerTour t = tour.get(nFiles + nFolders);
+        if (t != null) {
+            return t.restrict(posting, path);
+        }
+
+        if (posting == null) {
+            return Collections.emptyList();
+        }
+
+        //pre-order is the order of the names of the Folders above, then the name
+        TreeMap<String[], File> found = new TreeMap<>(Arrays::compare);
+        HashMap<String, Boolean> reachables = new HashMap<>();
+
+        for (File f : posting) {
+            if (under(f, path, reachables)) {
+                String parent = f.getParent() == null ? "" : f.getParent().getPath();
+                found.put((parent + f.getName()).split("/"), f);
+            }
+        }
+
+        tour.charge(posting.size() + 1);
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * Indicates if the given File is somewhere under the Folder with the given
+     * path, comparing their positions in the tour.
+     *
+     * @param file The File to check.
+     * @param path The path of the Folder.
+     * @return true if the File is a descendant of the Folder.
+     */
+    public boolean isUnder(File file, String path) {
+        EulerTour t = tour.get(nFiles + nFolders);
+        if (t == null) {
+            tour.charge(1);
+            return under(file, path, new HashMap<>());
+        }
+
+        int pos = t.position(file);
+        int[] range = t.interval(path);
+        return pos >= range[0] && pos < range[1];
+    }
+
+    /**
+     * Searches all the Files with the given name anywhere under the Folder with
+     * the given path, see getBySubtree(String).
+     *
+     * @param path The path of the Folder.
+     * @param name The name of the File(s) searched.
+     * @return The Files with that name under the Folder, in pre-order.
+     */
+    public List<File> getByNameUnder(String path, String name) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getByNameUnder", name, path, restrict(lookup(byName, nameFilter, name), path));
+    }
+
+    /**
+     * Searches all the Files with the given size anywhere under the Folder
+     * with the given path, see getBySubtree(String).
+     *
+     * @param path The path of the Folder.
+     * @param size The searched size.
+     * @return The Files with that size under the Folder, in pre-order.
+     */
+    public List<File> getBySizeUnder(String path, Long size) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getBySizeUnder", size, path, restrict(bySize.get(size), path));
+    }
+
+    /**
+     * Searches all the Files with the given extension anywhere under the
+     * Folder with the given path, e.g. all the "log" Files under "var/". The
+     * extension postings are restricted to the Folder's range with a binary
+     * search, see getBySubtree(String).
+     *
+     * @param path The path of the Folder.
+     * @param ext The extension, without the dot.
+     * @return The Files with that extension under the Folder, in pre-order.
+     */
+    public List<File> getByExtUnder(String path, String ext) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getByExtUnder", ext, path, restrict(lookup(byExt, extFilter, ext), path));
+    }
+
+    /**
+     * Searches all the Files of the given user anywhere under the Folder with
+     * the given path, see getBySubtree(String).
+     *
+     * @param path The path of the Folder.
+     * @param user The file's username.
+     * @return The Files of that user under the Folder, in pre-order.
+     */
+    public List<File> getByUserUnder(String path, String user) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getByUserUnder", user, path, restrict(lookup(byUser, userFilter, user), path));
+    }
+
+    /**
+     * Searches the k biggest Files (not Folders) of the given user. If k is
+     * not bigger than the topK of this structure it's answered from the kept
+     * Files in O(k*log(k)), else all the Files of the user are scanned.
+     *
+     * @param user The file's username.
+     * @param k The number of Files wanted.
+     * @return At most k Files, from the biggest to the smallest.
+     */
+    public List<File> getLargestByUser(String user, int k) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getLargestByUser", user, null, largest(topByUser.get(user), byUser.get(user), k));
+    }
+
+    /**
+     * Searches the k biggest Files with the given extension, see
+     * getLargestByUser(String, int).
+     *
+     * @param ext The extension, without the dot.
+     * @param k The number of Files wanted.
+     * @return At most k Files, from the biggest to the smallest.
      */
-    public TreeSet<File> getByFolder(String path) {
-        return byFolder.get(path);
+    public List<File> getLargestByExt(String ext, int k) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getLargestByExt", ext, null, largest(topByExt.get(ext), byExt.get(ext), k));
+    }
+
+    /**
+     * Searches the k biggest Files anywhere under the Folder with the given
+     * path, see getLargestByUser(String, int).
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @param k The number of Files wanted.
+     * @return At most k Files, from the biggest to the smallest.
+     */
+    public List<File> getLargestUnder(String path, int k) {
+        QueryEvent event = QueryEvent.start();
+
+        if (k > topK) {
+            return event.finish("getLargestUnder", k, path, TopK.of(subtree(path), k));
+        }
+
+        return event.finish("getLargestUnder", k, path, largest(topByFolder.get(path), null, k));
+    }
+
+    /**
+     * Searches for the Files modified between the given times, e.g. in the
+     * last hour, in O(log(n) + k). Files without a modification time are
+     * never found.
+     *
+     * @param from The first time, in seconds since the Unix epoch.
+     * @param to The last time, included.
+     * @return The Files found, from the oldest to the newest.
+     */
+    public List<File> getModifiedBetween(long from, long to) {
+        QueryEvent event = QueryEvent.start();
+        ArrayList<File> ret = new ArrayList<>();
+
+        if (from <= to) {
+            for (Postings p : byTime.subMap(File.encode(from), true, File.encode(to), true).values()) {
+                ret.addAll(p);
+            }
+        }
+
+        return event.finish("getModifiedBetween", from, null, ret);
+    }
+
+    /**
+     * Searches for the k Files (and Folders) modified last anywhere under the
+     * Folder with the given path. A segment tree over the tour keeps the
+     * newest File of every range and a search is O((k + 1) log(n)). After a
+     * change the Files under the Folder are sorted by time instead, until
+     * that adds up to O(n) work and the tree is built again (see Snapshot).
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @param k The maximum number of Files.
+     * @return At most k Files, from the newest to the oldest.
+     */
+    public List<File> getNewestUnder(String path, int k) {
+        QueryEvent event = QueryEvent.start();
+
+        TimeOrder t = timeOrder.get(nFiles + nFolders);
+        if (t != null) {
+            return event.finish("getNewestUnder", k, path, t.newest(path, k));
+        }
+
+        ArrayList<File> all = walk(path);
+        timeOrder.charge(all.size() + 1);
+        all.removeIf((File f) -> f.mtime() == File.NONE);
+        all.sort((File a, File b) -> Integer.compare(b.mtime(), a.mtime()));
+        int n = Math.max(0, Math.min(k, all.size()));
+        return event.finish("getNewestUnder", k, path, new ArrayList<>(all.subList(0, n)));
+    }
+
+    private List<File> largest(TopK kept, List<File> all, int k) {
+        if (k > topK) {
+            return TopK.of(all, k);
+        }
+
+        return kept == null ? new ArrayList<>() : kept.top(k);
+    }
+
+    /**
+     * The totals (count, bytes, biggest File and size histogram) of all the
+     * Files and Folders of the given user, kept updated on every add, so this
+     * is O(1).
+     *
+     * @param user The file's username.
+     * @return The Usage of the user, null if the username doesn't exist.
+     */
+    public Usage getUsageByUser(String user) {
+        return usageByUser.get(user);
+    }
+
+    /**
+     * The totals of all the Files with the given extension, see
+     * getUsageByUser(String).
+     *
+     * @param ext The extension, without the dot.
+     * @return The Usage of the extension, null if there's no File with it.
+     */
+    public Usage getUsageByExt(String ext) {
+        return usageByExt.get(ext);
+    }
+
+    /**
+     * Writes the Usage of every user, one line per user sorted by username,
+     * with the tab separated fields: user, count, bytes, path of the biggest
+     * File and the histogram buckets from 0 up to the last non empty one.
+     *
+     * @param out Where the report is written.
+     * @throws IOException if out throws it.
+     */
+    public void writeUsageReport(Appendable out) throws IOException {
+        ArrayList<String> users = new ArrayList<>(usageByUser.keySet());
+        Collections.sort(users);
+
+        for (String user : users) {
+            out.append(user).append('\t').append(usageByUser.get(user).toString()).append('\n');
+        }
+    }
+
+    /**
+     * A Stream of every File and Folder reachable from HOME, in pre-order. It's
+     * backed by an array, so parallel() splits it evenly.
+     *
+     * @return A SIZED, ORDERED and IMMUTABLE Stream.
+     */
+    public Stream<File> stream() {
+        return streamBySubtree("");
+    }
+
+    /**
+     * A Stream of every File anywhere under the Folder with the given path, in
+     * pre-order, see getBySubtree(String).
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @return A SIZED, ORDERED and IMMUTABLE Stream.
+     */
+    public Stream<File> streamBySubtree(String path) {
+        EulerTour t = tour.get(nFiles + nFolders);
+        if (t != null) {
+            return StreamSupport.stream(t.spliterator(path), false);
+        }
+
+        File[] all = walk(path).toArray(new File[0]);
+        tour.charge(all.length + 1);
+        return StreamSupport.stream(Spliterators.spliterator(all, SPLITERATOR), false);
+    }
+
+    /**
+     * A Stream of every File with a size between min and max, both included,
+     * from the smallest. It's backed by an array sorted by size, built in O(n)
+     * after a change, once the calls which copied their range instead did as
+     * much work (see Snapshot).
+     *
+     * @param min The minimum size.
+     * @param max The maximum size.
+     * @return A SIZED, ORDERED and IMMUTABLE Stream.
+     */
+    public Stream<File> streamBySize(long min, long max) {
+        SizeOrder o = sizeOrder.get(nFiles + nFolders);
+        if (o != null) {
+            return StreamSupport.stream(o.range(min, max), false);
+        }
+
+        ArrayList<File> all = new ArrayList<>();
+        if (min <= max) {
+            for (Postings p : bySize.subMap(min, true, max, true).values()) {
+                all.addAll(p);
+            }
+        }
+
+        sizeOrder.charge(all.size() + 1);
+        return StreamSupport.stream(Spliterators.spliterator(all.toArray(new File[0]), SPLITERATOR), false);
+    }
+
+    /**
+     * A Stream of every File with the given name.
+     *
+     * @param name The name of the File(s) searched.
+     * @return A SIZED, ORDERED and IMMUTABLE Stream, empty if there's none.
+     */
+    public Stream<File> streamByName(String name) {
+        return stream(lookup(byName, nameFilter, name));
+    }
+
+    /**
+     * A Stream of every File with the given extension.
+     *
+     * @param ext The extension, without the dot.
+     * @return A SIZED, ORDERED and IMMUTABLE Stream, empty if there's none.
+     */
+    public Stream<File> streamByExt(String ext) {
+        return stream(lookup(byExt, extFilter, ext));
+    }
+
+    /**
+     * A Stream of every File of the given user.
+     *
+     * @param user The file's username.
+     * @return A SIZED, ORDERED and IMMUTABLE Stream, empty if there's none.
+     */
+    public Stream<File> streamByUser(String user) {
+        return stream(lookup(byUser, userFilter, user));
+    }
+
+    private static Stream<File> stream(Postings all) {
+        return all == null ? Stream.empty() : StreamSupport.stream(all.spliterator(), false);
+    }
+
+    /**
+     * Searches for every File whose path starts with the given prefix, which
+     * doesn't need to end at a '/': "home/docs/re" finds "home/docs/readme.txt"
+     * and everything under "home/docs/reports/". The Files are kept in a tree
+     * of path components sorted as the paths are, where a Folder is sorted
+     * when a search first goes through it and again only after a File is
+     * added to it, and the search takes O(log(n) + k) building only the paths
+     * of the Folders it goes into.
+     *
+     * @param prefix The prefix of the paths, HOME path is "".
+     * @return An unmodifiable List with the Files found, sorted by path.
+     */
+    public List<File> getByPathPrefix(String prefix) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getByPathPrefix", prefix, null, paths.prefix(prefix));
+    }
+
+    /**
+     * Searches for every File whose path matches the given glob, e.g.
+     * "home/*&#47;cache/**&#47;*.tmp": "**" matches any number of Folders, '*'
+     * any chars of a name and '?' one char; a glob ending in '/' only matches
+     * Folders. Only the Folders some component can still match are walked,
+     * and literal components (or their literal prefixes) are found by binary
+     * search instead of checking every child.
+     *
+     * @param glob The glob, with up to 63 components.
+     * @return An unmodifiable List with the Files found, sorted by path.
+     */
+    public List<File> getByGlob(String glob) {
+        QueryEvent event = QueryEvent.start();
+        return event.finish("getByGlob", glob, null, paths.glob(glob));
     }
 
     /**
@@ -145,6 +1015,10 @@ public class FileStructure {
      *
      * name null | name.length() == 0 | user null | size less than 0
      *
+     * The MutationListeners are told with adding(file) before anything
+     * changes, so one of them (e.g. a WriteAheadLog which failed) can still
+     * stop the add by throwing.
+     *
      * @param file The File to be added.
      * @return true if file added else returns false.
      */
@@ -153,16 +1027,37 @@ public class FileStructure {
                 || file.getName() == null
                 || file.getName().length() == 0
                 || file.getUser() == null
-                || file.getSize() < 0L
-                || !addByFolder(file)) {
-            //if any invalid field or already in Structure, return false
+                || file.getSize() < 0L) {
+            //if any invalid field, return false
             return false;
         }
 
+        String path = file.getParent() == null ? "" : file.getParent().getPath();
+        TreeSet<File> siblings = byFolder.get(path);
+        if (siblings != null && siblings.contains(file)) {
+            return false;//already in Structure
+        }
+
+        for (MutationListener l : listeners) {
+            l.adding(file);
+        }
+
+        addByFolder(file, path, siblings);
         addByName(file);
         addBySize(file);
         addByExt(file);
         addByUser(file);
+        addByTime(file);
+        addToTop(file);
+        addToUsage(usageByUser, file.getUser(), file);
+        addToUsage(usageByExt, extOf(file.getName()), file);
+        FolderSizes sizes = folderSizes.peek();
+        if (sizes != null) {
+            sizes.add(file);
+        }
+        tour.clear();
+        sizeOrder.clear();
+        timeOrder.clear();
 
         if (file instanceof Folder) {
             nFolders++;
@@ -170,82 +1065,354 @@ public class FileStructure {
             nFiles++;
         }
 
+        for (MutationListener l : listeners) {
+            l.added(file);
+        }
+
         return true;
     }
 
-    private boolean addByFolder(File file) {
-        Folder parent = file.getParent();
-        String path;
+    /**
+     * Registers a MutationListener, which is called before and after every
+     * File added from now on (also by merge).
+     *
+     * @param listener The MutationListener.
+     */
+    public void addListener(MutationListener listener) {
+        listeners.add(listener);
+    }
 
-        if (parent == null) {
-            path = "";
-        } else {
-            path = parent.getPath();
+    /**
+     * The byFolder tree as is, sorted by path, for the classes of this package
+     * which need to walk every Folder (e.g. the checkpoints of the log).
+     *
+     * @return An unmodifiable view of the tree.
+     */
+    SortedMap<String, TreeSet<File>> folderTree() {
+        return Collections.unmodifiableSortedMap(byFolder);
+    }
+
+    /**
+     * The lists of Files of every size, from min up, with more than one File,
+     * in an array so DuplicateFinder can split them evenly between threads.
+     *
+     * @param min The minimum size.
+     * @return The lists, by size.
+     */
+    Postings[] sameSize(long min) {
+        ArrayList<Postings> ret = new ArrayList<>();
+
+        for (Postings p : bySize.tailMap(min, true).values()) {
+            if (p.size() > 1) {
+                ret.add(p);
+            }
+        }
+
+        return ret.toArray(new Postings[ret.size()]);
+    }
+
+    /**
+     * Unregisters a MutationListener.
+     *
+     * @param listener The MutationListener.
+     * @return true if it was registered.
+     */
+    public boolean removeListener(MutationListener listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Adds all the Files of the given FileStructure to this one. If no File of
+     * other has the same path than a File of this structure (e.g. every
+     * structure has a different Folder directly inside HOME), the trees are
+     * merged list by list instead of adding every File again: a key which is
+     * only in other takes its list as is, so the lists are moved and other is
+     * left empty (without telling its listeners). Otherwise, or if the
+     * structures keep a different number of biggest Files, every File of
+     * other is added with add(File) and other doesn't change.
+     *
+     * @param other The FileStructure merged into this one.
+     */
+    public void merge(FileStructure other) {
+        if (other == this) {
+            return;
+        }
+
+        if (other.topK != topK || conflicts(other)) {
+            for (TreeSet<File> childs : other.byFolder.values()) {
+                for (File f : childs) {
+                    add(f);
+                }
+            }
+
+            return;
+        }
+
+        if (!listeners.isEmpty()) {
+            for (TreeSet<File> childs : other.byFolder.values()) {
+                for (File f : childs) {
+                    for (MutationListener l : listeners) {
+                        l.adding(f);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, TreeSet<File>> e : other.byFolder.entrySet()) {
+            TreeSet<File> curr = byFolder.putIfAbsent(e.getKey(), e.getValue());
+            if (curr != null) {
+                curr.addAll(e.getValue());
+            }
+        }
+
+        mergeLists(byName, other.byName);
+        mergeLists(bySize, other.bySize);
+        mergeLists(byExt, other.byExt);
+        mergeLists(byUser, other.byUser);
+        mergeLists(byTime, other.byTime);
+        mergeTops(topByUser, other.topByUser);
+        mergeTops(topByExt, other.topByExt);
+        mergeTops(topByFolder, other.topByFolder);
+        mergeUsages(usageByUser, other.usageByUser);
+        mergeUsages(usageByExt, other.usageByExt);
+        nFiles += other.nFiles;
+        nFolders += other.nFolders;
+        tour.clear();
+        sizeOrder.clear();
+        names.clear();
+        paths.clear();
+        timeOrder.clear();
+        folderSizes.clear();
+        setBloomFilters(bloomFpp);
+
+        if (!listeners.isEmpty()) {
+            for (TreeSet<File> childs : other.byFolder.values()) {
+                for (File f : childs) {
+                    for (MutationListener l : listeners) {
+                        l.added(f);
+                    }
+                }
+            }
+        }
+
+        other.empty();
+    }
+
+    /**
+     * Forgets every File, after merge(FileStructure) took the lists, so they
+     * aren't shared by two structures.
+     */
+    private void empty() {
+        byName.clear();
+        bySize.clear();
+        byExt.clear();
+        byUser.clear();
+        byTime.clear();
+        byFolder.clear();
+        topByUser.clear();
+        topByExt.clear();
+        topByFolder.clear();
+        topOfFolder.clear();
+        usageByUser.clear();
+        usageByExt.clear();
+        nFiles = 0;
+        nFolders = 0;
+        tour.clear();
+        sizeOrder.clear();
+        names.clear();
+        paths.clear();
+        timeOrder.clear();
+        folderSizes.clear();
+        setBloomFilters(bloomFpp);
+    }
+
+    private boolean conflicts(FileStructure other) {
+        for (Map.Entry<String, TreeSet<File>> e : other.byFolder.entrySet()) {
+            TreeSet<File> curr = byFolder.get(e.getKey());
+
+            if (curr != null) {
+                for (File f : e.getValue()) {
+                    if (curr.contains(f)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static <K> void mergeLists(TreeMap<K, Postings> into, TreeMap<K, Postings> from) {
+        for (Map.Entry<K, Postings> e : from.entrySet()) {
+            Postings curr = into.putIfAbsent(e.getKey(), e.getValue());
+            if (curr != null) {
+                curr.appendAll(e.getValue());
+            }
+        }
+    }
+
+    private static void mergeTops(HashMap<String, TopK> into, HashMap<String, TopK> from) {
+        for (Map.Entry<String, TopK> e : from.entrySet()) {
+            TopK curr = into.putIfAbsent(e.getKey(), e.getValue());
+            if (curr != null) {
+                curr.offerAll(e.getValue());
+            }
         }
+    }
 
-        TreeSet<File> curr = getByFolder(path);
+    private static void mergeUsages(HashMap<String, Usage> into, HashMap<String, Usage> from) {
+        for (Map.Entry<String, Usage> e : from.entrySet()) {
+            Usage curr = into.putIfAbsent(e.getKey(), e.getValue());
+            if (curr != null) {
+                curr.add(e.getValue());
+            }
+        }
+    }
+
+    private void addByFolder(File file, String path, TreeSet<File> siblings) {
+        TreeSet<File> curr = siblings;
 
         if (curr == null) {
             curr = new TreeSet<>((File o1, File o2) -> o1.getName().compareTo(o2.getName()));
 
             byFolder.put(path, curr);
+            paths.created();
+        }
+
+        //only this Folder is sorted again by the path index, it counts its children
+        curr.add(file);
+    }
+
+    private void addToTop(File file) {
+        if (topK == 0 || file instanceof Folder) {
+            return;
+        }
+
+        offer(topByUser, file.getUser(), file);
+        offer(topByExt, extOf(file.getName()), file);
+
+        //every Folder above the File, found by the Folder object, so the path
+        //of a Folder is only built the first time it's seen
+        offer(topByFolder, "", file);
+        for (Folder f = file.getParent(); f != null; f = f.getParent()) {
+            TopK curr = topOfFolder.get(f);
+
+            if (curr == null) {
+                String path = f.getPath();
+                curr = topByFolder.get(path);
+
+                if (curr == null) {
+                    curr = new TopK(topK);
+                    topByFolder.put(path, curr);
+                }
+
+                topOfFolder.put(f, curr);
+            }
+
+            curr.offer(file);
+        }
+    }
+
+    private void offer(HashMap<String, TopK> tops, String key, File file) {
+        TopK curr = tops.get(key);
+
+        if (curr == null) {
+            curr = new TopK(topK);
+            tops.put(key, curr);
+        }
+
+        curr.offer(file);
+    }
+
+    private void addToUsage(HashMap<String, Usage> usages, String key, File file) {
+        Usage curr = usages.get(key);
+
+        if (curr == null) {
+            curr = new Usage();
+            usages.put(key, curr);
         }
 
-        return curr.add(file);
+        curr.add(file);
     }
 
     private void addByUser(File file) {
-        LinkedList<File> curr = getByUser(file.getUser());
+        Postings curr = byUser.get(file.getUser());
 
         if (curr == null) {
-            curr = new LinkedList<>();
+            curr = new Postings();
             byUser.put(file.getUser(), curr);
+            userFilter = filterOf(byUser, userFilter, file.getUser());
         }
 
-        curr.add(file);
+        curr.append(file);
+    }
+
+    private void addByTime(File file) {
+        if (file.mtime() == File.NONE) {
+            return;
+        }
+
+        Postings curr = byTime.get(file.mtime());
+
+        if (curr == null) {
+            curr = new Postings();
+            byTime.put(file.mtime(), curr);
+        }
+
+        curr.append(file);
     }
 
     private void addByName(File file) {
-        LinkedList<File> curr = getByName(file.getName());
+        Postings curr = byName.get(file.getName());
 
         if (curr == null) {
-            curr = new LinkedList<>();
+            curr = new Postings();
             byName.put(file.getName(), curr);
+            nameFilter = filterOf(byName, nameFilter, file.getName());
+            names.clear();
         }
 
-        curr.add(file);
+        curr.append(file);
     }
 
     private void addByExt(File file) {
-        String ext = "";
-        String name = file.getName();
+        String ext = extOf(file.getName());
+        Postings curr = byExt.get(ext);
 
-        for (int i = name.length() - 1; i >= 0; --i) {//obtain the ext
-            if (name.charAt(i) == '.') {
-                ext = name.substring(i + 1);//ext is saved without .
-                break;
-            }
+        if (curr == null) {
+            curr = new Postings();
+            byExt.put(ext, curr);
+            extFilter = filterOf(byExt, extFilter, ext);
         }
 
-        LinkedList<File> curr = getByExt(ext);
+        curr.append(file);
+    }
 
-        if (curr == null) {
-            curr = new LinkedList<>();
-            byExt.put(ext, curr);
+    /**
+     * Obtains the extension of the given name, without the dot.
+     *
+     * @param name The name of a File.
+     * @return The extension of the name, "" if it has none.
+     */
+    static String extOf(String name) {
+        for (int i = name.length() - 1; i >= 0; --i) {//obtain the ext
+            if (name.charAt(i) == '.') {
+                return name.substring(i + 1);//ext is saved without .
+            }
         }
 
-        curr.add(file);
+        return "";
     }
 
     private void addBySize(File file) {
-        LinkedList<File> curr = getBySize(file.getSize());
+        Postings curr = bySize.get(file.getSize());
 
         if (curr == null) {
-            curr = new LinkedList<>();
+            curr = new Postings();
             bySize.put(file.getSize(), curr);
         }
 
-        curr.add(file);
+        curr.append(file);
     }
 
     /**
@@ -27,6 +27,20 @@ public class Folder extends File {
         super(name, parent, FOLD_SIZE, user);
     }
 
+    /**
+     * Builds a new Folder with the given characteristics and modification time
+     * inside the given Folder.
+     *
+     * @param name The name of the Folder.
+     * @param parent The Folder inside which this Folder is.
+     * @param user The Folder's user.
+     * @param mtime The seconds since the Unix epoch when the Folder was last
+     * modified, NO_MTIME if unknown.
+     */
+    public Folder(String name, Folder parent, String user, long mtime) {
+        super(name, parent, FOLD_SIZE, user, mtime);
+    }
+
     /**
      * Builds a new Folder with the given characteristics and inside the given
      * Folder. also includes the option to add the size of the new folder
@@ -40,6 +54,21 @@ public class Folder extends File {
         super(name, parent, size, user);
     }
 
+    /**
+     * Builds a new Folder with the given characteristics, size and
+     * modification time inside the given Folder.
+     *
+     * @param name The name of the Folder.
+     * @param parent The Folder inside which this Folder is.
+     * @param size The size of the Folder.
+     * @param user The Folder's user.
+     * @param mtime The seconds since the Unix epoch when the Folder was last
+     * modified, NO_MTIME if unknown.
+     */
+    public Folder(String name, Folder parent, long size, String user, long mtime) {
+        super(name, parent, size, user, mtime);
+    }
+
     @Override
     public String getPath() {
         return super.getPath() + "/";
@@ -0,0 +1,187 @@
+package fplogn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The totals of every Folder's subtree (bytes, Files, Folders, depth) and its
+ * children sorted by the bytes of their subtrees, biggest first, like ncdu
+ * shows them. Adding a File updates the totals of its d ancestors and moves
+ * each of them inside the order of its parent, O(d log(c)) (c being the
+ * number of children of a Folder), so it's kept up to date instead of being
+ * built again after every change.
+ *
+ * The nodes are found by path, since a File may come before its Folder, or
+ * point to another Folder object with the same path, and then by the Folder
+ * object, so walking up from a File doesn't build its path.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class FolderSizes {
+
+    /**
+     * The totals of a Folder.
+     */
+    private final class Node {
+
+        private final Node parent;
+        private final int depth;
+        private final TreeSet<File> childs;
+        private Folder folder;
+        private long own;
+        private long size;
+        private long files;
+        private long folders;
+        private int height;
+
+        private Node(Node parent) {
+            this.parent = parent;
+            depth = parent == null ? 0 : parent.depth + 1;
+            childs = new TreeSet<>((File o1, File o2) -> {
+                int c = Long.compare(size(o2), size(o1));
+                return c != 0 ? c : o1.getName().compareTo(o2.getName());
+            });
+        }
+
+        private long total() {
+            return own + size;
+        }
+    }
+
+    private final Node home;
+    private final HashMap<String, Node> byPath;
+    private final IdentityHashMap<Folder, Node> byFolder;
+
+    FolderSizes() {
+        home = new Node(null);
+        byPath = new HashMap<>();
+        byFolder = new IdentityHashMap<>();
+        byPath.put("", home);
+    }
+
+    /**
+     * Adds a File which was just added to the FileStructure (so its name
+     * isn't repeated in its Folder).
+     *
+     * @param file The File.
+     */
+    void add(File file) {
+        Node parent = nodeOf(file.getParent());
+        long own = file.getSize();
+        int height = 1;
+
+        if (file instanceof Folder) {
+            Node node = nodeOf((Folder) file);
+            node.folder = (Folder) file;
+            node.own = own;
+            height += node.height;
+        }
+
+        parent.childs.add(file);
+        int deepest = parent.depth + height;
+
+        for (Node n = parent; n != null; n = n.parent) {
+            boolean placed = n.folder != null && n.parent != null;
+            if (placed) {
+                n.parent.childs.remove(n.folder);//its order changes
+            }
+
+            n.size += own;
+            if (file instanceof Folder) {
+                n.folders++;
+            } else {
+                n.files++;
+            }
+            n.height = Math.max(n.height, deepest - n.depth);
+
+            if (placed) {
+                n.parent.childs.add(n.folder);
+            }
+        }
+    }
+
+    /**
+     * The bytes of a File, of its whole subtree if it's a Folder.
+     *
+     * @param file A File of the structure.
+     * @return The bytes.
+     */
+    long size(File file) {
+        if (file instanceof Folder) {
+            Node node = byFolder.get((Folder) file);
+            if (node == null) {
+                node = byPath.get(file.getPath());
+            }
+            return node == null ? file.getSize() : node.total();
+        }
+
+        return file.getSize();
+    }
+
+    /**
+     * The children of a Folder, biggest subtree first.
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @param limit The maximum number of children, 0 for all.
+     * @return The children, null if the Folder has none.
+     */
+    List<File> childs(String path, int limit) {
+        Node node = byPath.get(path);
+        if (node == null || node.childs.isEmpty()) {
+            return null;
+        }
+
+        int n = limit > 0 ? Math.min(limit, node.childs.size()) : node.childs.size();
+        ArrayList<File> ret = new ArrayList<>(n);
+        for (File f : node.childs) {
+            if (ret.size() == n) {
+                break;
+            }
+            ret.add(f);
+        }
+
+        return ret;
+    }
+
+    /**
+     * The totals of a Folder.
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @return The totals, null if there is nothing under the Folder and it
+     * wasn't added either.
+     */
+    FolderStats stats(String path) {
+        Node node = byPath.get(path);
+        if (node == null) {
+            return null;
+        }
+
+        File largest = node.childs.isEmpty() ? null : node.childs.first();
+        return new FolderStats(path, node.total(), node.files, node.folders, node.depth, node.height,
+                largest, largest == null ? 0 : size(largest));
+    }
+
+    private Node nodeOf(Folder folder) {
+        if (folder == null) {
+            return home;
+        }
+
+        Node ret = byFolder.get(folder);
+        if (ret == null) {
+            String path = folder.getPath();
+            ret = byPath.get(path);
+
+            if (ret == null) {
+                ret = new Node(nodeOf(folder.getParent()));
+                byPath.put(path, ret);
+            }
+
+            byFolder.put(folder, ret);
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,112 @@
+package fplogn;
+
+/**
+ * The totals of the subtree of a Folder when they were asked: its bytes, how
+ * many Files and Folders there are under it, how deep it is and which of its
+ * children has the biggest subtree. See FileStructure.getFolderStats(String).
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class FolderStats {
+
+    private final String path;
+    private final long bytes;
+    private final long files;
+    private final long folders;
+    private final int depth;
+    private final int height;
+    private final File largest;
+    private final long largestBytes;
+
+    FolderStats(String path, long bytes, long files, long folders, int depth, int height, File largest,
+            long largestBytes) {
+        this.path = path;
+        this.bytes = bytes;
+        this.files = files;
+        this.folders = folders;
+        this.depth = depth;
+        this.height = height;
+        this.largest = largest;
+        this.largestBytes = largestBytes;
+    }
+
+    /**
+     * The path of the Folder.
+     *
+     * @return The path, HOME path is "".
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * The sum of the sizes of the Folder and everything under it.
+     *
+     * @return The total bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * The number of Files (not Folders) anywhere under the Folder.
+     *
+     * @return How many Files there are.
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * The number of Folders anywhere under the Folder.
+     *
+     * @return How many Folders there are.
+     */
+    public long getFolders() {
+        return folders;
+    }
+
+    /**
+     * The number of Folders above the Folder, HOME is 0 and a Folder
+     * directly inside HOME is 1.
+     *
+     * @return The depth.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * The number of levels under the Folder, 0 if it's empty and 1 if it only
+     * has Files.
+     *
+     * @return The height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The child with the most bytes, counting the whole subtree of a Folder.
+     *
+     * @return The largest child, null if the Folder is empty.
+     */
+    public File getLargest() {
+        return largest;
+    }
+
+    /**
+     * The bytes of the largest child, see getLargest().
+     *
+     * @return The bytes, 0 if the Folder is empty.
+     */
+    public long getLargestBytes() {
+        return largestBytes;
+    }
+
+    @Override
+    public String toString() {
+        return path + '\t' + bytes + '\t' + files + '\t' + folders + '\t' + depth + '\t' + height + '\t'
+                + (largest == null ? "-" : largest.getName());
+    }
+}
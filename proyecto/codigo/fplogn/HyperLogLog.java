@@ -0,0 +1,144 @@
+package fplogn;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct values added to it, with 2^p registers of
+ * one byte: every value is hashed, the first p bits choose a register and the
+ * register keeps the longest run of leading zeros seen in the other bits. The
+ * standard error of the estimate is 1.04 / sqrt(2^p), e.g. 3.25% with p = 10,
+ * and adding a value is O(1) whatever the number of values.
+ *
+ * Most Folders have few Files under them, so a sketch starts sparse: a sorted
+ * array with the registers used (index and value in an int), which becomes the
+ * dense array of registers once it would take more than a quarter of it.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class HyperLogLog {
+
+    private final int p;
+    private final int m;
+    private byte[] registers;
+    private int[] sparse;
+    private int used;
+
+    /**
+     * Builds a new empty HyperLogLog.
+     *
+     * @param p The precision, between 4 and 16.
+     */
+    HyperLogLog(int p) {
+        this.p = p;
+        m = 1 << p;
+        sparse = new int[4];
+    }
+
+    /**
+     * A 64 bits hash of a String, FNV-1a over its chars mixed with the
+     * finalizer of MurmurHash3, so every bit depends on every char.
+     *
+     * @param s The String.
+     * @return Its hash.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); ++i) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Adds a value given its hash.
+     *
+     * @param hash The hash of the value, see hash(String).
+     */
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        //the sentinel bit bounds the rank when the rest of the bits are 0
+        int rank = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+
+        if (registers != null) {
+            if (registers[index] < rank) {
+                registers[index] = (byte) rank;
+            }
+            return;
+        }
+
+        int key = index << 8;
+        int at = Arrays.binarySearch(sparse, 0, used, key | 0xff);
+        at = -at - 1;//never found, 0xff isn't a rank
+
+        if (at > 0 && (sparse[at - 1] >>> 8) == index) {
+            if ((sparse[at - 1] & 0xff) < rank) {
+                sparse[at - 1] = key | rank;
+            }
+            return;
+        }
+
+        if (used + 1 > m / 4) {
+            densify();
+            registers[index] = (byte) rank;
+            return;
+        }
+
+        if (used == sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.min(sparse.length * 2, m / 4));
+        }
+
+        System.arraycopy(sparse, at, sparse, at + 1, used - at);
+        sparse[at] = key | rank;
+        ++used;
+    }
+
+    private void densify() {
+        registers = new byte[m];
+        for (int i = 0; i < used; ++i) {
+            registers[sparse[i] >>> 8] = (byte) (sparse[i] & 0xff);
+        }
+        sparse = null;
+    }
+
+    /**
+     * The estimated number of distinct values added, with the linear counting
+     * correction for small cardinalities.
+     *
+     * @return The estimate.
+     */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+
+        if (registers != null) {
+            for (byte r : registers) {
+                sum += 1.0 / (1L << r);
+                if (r == 0) {
+                    ++zeros;
+                }
+            }
+        } else {
+            zeros = m - used;
+            sum = zeros;
+            for (int i = 0; i < used; ++i) {
+                sum += 1.0 / (1L << (sparse[i] & 0xff));
+            }
+        }
+
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * (double) m / sum;
+
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+
+        return Math.round(estimate);
+    }
+}
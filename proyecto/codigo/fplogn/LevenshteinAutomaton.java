@@ -0,0 +1,219 @@
+package fplogn;
+
+import java.util.Arrays;
+import java.util.NavigableSet;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A Levenshtein automaton of a name and a maximum distance k, walked along
+ * the sorted names of a FileStructure as if they were a trie: the names with
+ * the same prefix are a range of them, and the prefixes are only extended
+ * while some name starting with them can still be within k of the searched
+ * one, so a search visits a few thousand prefixes instead of every name.
+ *
+ * The state of the automaton after a prefix is the row of the distance table
+ * between it and the prefixes of the name, and only the 2k + 1 cells around
+ * the diagonal can be within k, so a char costs O(k). The rows are kept by
+ * depth, and once a prefix has a single name the rest of it is read without
+ * searching the names.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class LevenshteinAutomaton {
+
+    private final String pattern;
+    private final int k;
+    private final int[][] rows;
+    private long visited;
+
+    /**
+     * Builds a new LevenshteinAutomaton.
+     *
+     * @param pattern The name searched.
+     * @param k The maximum distance.
+     */
+    LevenshteinAutomaton(String pattern, int k) {
+        this.pattern = pattern;
+        this.k = k;
+
+        //no prefix longer than the pattern plus k is within k
+        rows = new int[k < 0 ? 1 : pattern.length() + k + 2][pattern.length() + 1];
+        for (int j = 0; j <= pattern.length(); ++j) {
+            rows[0][j] = Math.min(j, k + 1);
+        }
+    }
+
+    /**
+     * Calls found with every name of the array within distance k of the
+     * pattern, and their distance, in the order of the array. The range of a
+     * prefix is split by a galloping search of each next char, which only
+     * compares that char.
+     *
+     * @param names The distinct names, sorted by String.compareTo.
+     * @param found Gets the names.
+     */
+    void search(String[] names, ObjIntConsumer<String> found) {
+        if (k >= 0 && names.length > 0) {
+            walk(names, 0, names.length, 0, found);
+        }
+    }
+
+    /**
+     * Calls found with every name of the set within distance k of the
+     * pattern, and their distance, in the order of the set. Each prefix costs
+     * a couple of searches in the set instead.
+     *
+     * @param names The names, sorted by String.compareTo.
+     * @param found Gets the names.
+     */
+    void search(NavigableSet<String> names, ObjIntConsumer<String> found) {
+        String first = names.ceiling("");
+
+        if (k >= 0 && first != null) {
+            walk(names, first, 0, found);
+        }
+    }
+
+    /**
+     * The number of prefixes visited by the searches, to charge them.
+     *
+     * @return The prefixes visited.
+     */
+    long visited() {
+        return visited;
+    }
+
+    /**
+     * Visits names[from, to), which start with the same depth chars.
+     */
+    private void walk(String[] names, int from, int to, int depth, ObjIntConsumer<String> found) {
+        int i = from;
+        ++visited;
+
+        if (names[i].length() == depth) {
+            accept(names[i], depth, found);
+            ++i;
+        }
+
+        while (i < to) {
+            char c = names[i].charAt(depth);
+            int end = end(names, i, to, depth, c);
+
+            if (step(depth, c)) {
+                if (end - i == 1) {
+                    finish(names[i], depth + 1, found);
+                } else {
+                    walk(names, i, end, depth + 1, found);
+                }
+            }
+
+            i = end;
+        }
+    }
+
+    /**
+     * The first position after from whose char at depth isn't c.
+     */
+    private static int end(String[] names, int from, int to, int depth, char c) {
+        int lo = from + 1;
+        int step = 1;
+
+        while (lo + step <= to && names[lo + step - 1].charAt(depth) == c) {
+            lo += step;
+            step *= 2;
+        }
+
+        int hi = Math.min(lo + step - 1, to);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (names[mid].charAt(depth) == c) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Visits the names starting with the first depth chars of first, which
+     * is the smallest of them.
+     */
+    private void walk(NavigableSet<String> names, String first, int depth, ObjIntConsumer<String> found) {
+        String s = first;
+        ++visited;
+
+        if (s.length() == depth) {
+            accept(s, depth, found);
+            s = names.higher(s);
+        }
+
+        while (s != null && s.length() > depth && s.regionMatches(0, first, 0, depth)) {
+            char c = s.charAt(depth);
+            String after = names.higher(s);
+            boolean single = after == null || after.length() <= depth || !after.regionMatches(0, s, 0, depth + 1);
+
+            if (step(depth, c)) {
+                if (single) {
+                    finish(s, depth + 1, found);
+                } else {
+                    walk(names, s, depth + 1, found);
+                }
+            }
+
+            if (single) {
+                s = after;
+            } else if (c == Character.MAX_VALUE) {
+                break;
+            } else {
+                s = names.ceiling(s.substring(0, depth) + (char) (c + 1));
+            }
+        }
+    }
+
+    private void finish(String s, int depth, ObjIntConsumer<String> found) {
+        for (int i = depth; i < s.length(); ++i) {
+            if (!step(i, s.charAt(i))) {
+                return;
+            }
+        }
+
+        accept(s, s.length(), found);
+    }
+
+    private void accept(String s, int depth, ObjIntConsumer<String> found) {
+        int d = rows[depth][pattern.length()];
+        if (d <= k) {
+            found.accept(s, d);
+        }
+    }
+
+    /**
+     * Computes the row after reading one more char, only the cells within k
+     * of the diagonal, the others are k + 1.
+     *
+     * @param depth The number of chars read.
+     * @param c The next char.
+     * @return true if some cell is within k.
+     */
+    private boolean step(int depth, char c) {
+        int[] row = rows[depth];
+        int[] next = rows[depth + 1];
+        int m = pattern.length();
+        int from = Math.max(1, depth + 1 - k);
+        int to = Math.min(m, depth + 1 + k);
+
+        Arrays.fill(next, k + 1);
+        next[0] = Math.min(depth + 1, k + 1);
+        int min = next[0];
+
+        for (int j = from; j <= to; ++j) {
+            int cost = pattern.charAt(j - 1) == c ? 0 : 1;
+            next[j] = Math.min(Math.min(Math.min(row[j], next[j - 1]) + 1, row[j - 1] + cost), k + 1);
+            min = Math.min(min, next[j]);
+        }
+
+        return min <= k;
+    }
+}
@@ -0,0 +1,322 @@
+package fplogn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * The format of the files of a WriteAheadLog. Both the log and the checkpoint
+ * start with a header (MAGIC, VERSION and the sequence number the file starts
+ * after), followed by frames:
+ * <pre>[int length][int crc32][long sequence][long millis][record]</pre>
+ * where length and crc32 cover the sequence, the millis and the record. A
+ * frame cut by a crash has a wrong length or crc, and it ends the file. A
+ * frame without record is a heartbeat, only used by replication.
+ *
+ * Version 2 added the modification time at the end of the records, the
+ * records of version 1 files are still read (without it).
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class LogFile {
+
+    static final int MAGIC = 0x46504c47;//FPLG
+    static final int VERSION = 2;
+    static final int HEADER = 16;
+
+    private LogFile() {
+    }
+
+    /**
+     * Builds the header of a file.
+     *
+     * @param base The sequence number of the last record before the file.
+     * @return The header bytes.
+     */
+    static ByteBuffer header(long base) {
+        ByteBuffer ret = ByteBuffer.allocate(HEADER);
+        ret.putInt(MAGIC).putInt(VERSION).putLong(base).flip();
+        return ret;
+    }
+
+    /**
+     * Writes frames to a stream.
+     */
+    static class Writer {
+
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream scratch;
+        private final DataOutputStream scratchOut;
+        private final CRC32 crc;
+
+        /**
+         * Builds a new Writer, the header isn't written.
+         *
+         * @param out Where the frames are written.
+         */
+        Writer(OutputStream out) {
+            this.out = new DataOutputStream(out);
+            scratch = new ByteArrayOutputStream(256);
+            scratchOut = new DataOutputStream(scratch);
+            crc = new CRC32();
+        }
+
+        /**
+         * Writes the header of a file.
+         *
+         * @param base The sequence number of the last record before the file.
+         * @throws IOException if an IO error occurs.
+         */
+        void header(long base) throws IOException {
+            out.write(LogFile.header(base).array(), 0, HEADER);
+        }
+
+        /**
+         * Writes a frame with a record, see RecordCodec.write.
+         *
+         * @param seq The sequence number of the frame.
+         * @param kind FILE, FOLDER or DECLARE.
+         * @param file The File of the record.
+         * @throws IOException if an IO error occurs.
+         */
+        void frame(long seq, byte kind, File file) throws IOException {
+            scratch.reset();
+            scratchOut.writeLong(seq);
+            scratchOut.writeLong(System.currentTimeMillis());
+            RecordCodec.write(scratchOut, kind, file);
+            flushFrame();
+        }
+
+        /**
+         * Writes a frame without record.
+         *
+         * @param seq The sequence number the heartbeat talks about.
+         * @param millis When it was sent.
+         * @throws IOException if an IO error occurs.
+         */
+        void heartbeat(long seq, long millis) throws IOException {
+            scratch.reset();
+            scratchOut.writeLong(seq);
+            scratchOut.writeLong(millis);
+            flushFrame();
+        }
+
+        private void flushFrame() throws IOException {
+            crc.reset();
+            byte[] body = scratch.toByteArray();
+            crc.update(body, 0, body.length);
+            out.writeInt(body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(body, 0, body.length);
+        }
+
+        /**
+         * Writes every File of the given FileStructure, each Folder before its
+         * childs, declaring the Folders which aren't added. Every frame gets
+         * the same sequence number, the structure mustn't change meanwhile.
+         *
+         * @param files The FileStructure written.
+         * @param seq The sequence number of every frame.
+         * @throws IOException if an IO error occurs.
+         */
+        void tree(FileStructure files, long seq) throws IOException {
+            //paths are sorted, so a Folder's path always comes before its childs'
+            tree(() -> files.folderTree().values().stream().flatMap(TreeSet::stream).iterator(), seq);
+        }
+
+        /**
+         * Writes the given Files, taken from a FileStructure's folderTree in
+         * order, declaring the Folders which aren't among them.
+         *
+         * @param all The Files, every Folder before its childs.
+         * @param seq The sequence number of every frame.
+         * @throws IOException if an IO error occurs.
+         */
+        void tree(Iterable<File> all, long seq) throws IOException {
+            Set<Folder> written = Collections.newSetFromMap(new IdentityHashMap<>());
+            ArrayDeque<Folder> missing = new ArrayDeque<>();
+
+            for (File f : all) {
+                for (Folder p = f.getParent(); p != null && !written.contains(p); p = p.getParent()) {
+                    missing.push(p);
+                }
+
+                while (!missing.isEmpty()) {
+                    Folder p = missing.pop();
+                    frame(seq, RecordCodec.DECLARE, p);
+                    written.add(p);
+                }
+
+                if (f instanceof Folder) {
+                    frame(seq, RecordCodec.FOLDER, f);
+                    written.add((Folder) f);
+                } else {
+                    frame(seq, RecordCodec.FILE, f);
+                }
+            }
+        }
+
+        /**
+         * Flushes the underlying stream.
+         *
+         * @throws IOException if an IO error occurs.
+         */
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the frames of a file one by one.
+     */
+    static class Reader {
+
+        private final DataInputStream in;
+        private final CRC32 crc;
+        private final long base;
+        private byte[] body;
+        private int current;
+        private int sum;
+        private long position;
+        private long sequence;
+        private long millis;
+
+        /**
+         * Reads the header of the given stream.
+         *
+         * @param stream The file, read from its beginning.
+         * @throws IOException if the header is wrong.
+         */
+        Reader(InputStream stream) throws IOException {
+            in = new DataInputStream(stream);
+            crc = new CRC32();
+            body = new byte[256];
+
+            int version;
+            if (in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION) {
+                throw new IOException("Not a log file of this version");
+            }
+
+            base = in.readLong();
+            position = HEADER;
+            sequence = base;
+        }
+
+        /**
+         * The sequence number of the last record before the file.
+         *
+         * @return The base of the file.
+         */
+        long base() {
+            return base;
+        }
+
+        /**
+         * Reads the next frame.
+         *
+         * @return false at the end of the file or at a damaged frame.
+         * @throws IOException if an IO error occurs.
+         */
+        boolean next() throws IOException {
+            try {
+                int length = in.readInt();
+                sum = in.readInt();
+
+                if (length < 16 || length > (1 << 20)) {
+                    return false;
+                }
+
+                if (body.length < length) {
+                    body = new byte[Math.max(length, body.length * 2)];
+                }
+
+                in.readFully(body, 0, length);
+                crc.reset();
+                crc.update(body, 0, length);
+
+                if ((int) crc.getValue() != sum) {
+                    return false;
+                }
+
+                ByteBuffer header = ByteBuffer.wrap(body, 0, 16);
+                sequence = header.getLong();
+                millis = header.getLong();
+                position += 8 + length;
+                current = length;
+                return true;
+            } catch (EOFException ex) {
+                return false;
+            }
+        }
+
+        /**
+         * The position of the end of the last good frame, where a new frame
+         * can be written.
+         *
+         * @return The offset in the file.
+         */
+        long position() {
+            return position;
+        }
+
+        /**
+         * The sequence number of the current frame.
+         *
+         * @return The sequence number.
+         */
+        long sequence() {
+            return sequence;
+        }
+
+        /**
+         * When the current frame was written.
+         *
+         * @return The milliseconds since the epoch.
+         */
+        long millis() {
+            return millis;
+        }
+
+        /**
+         * Tells if the current frame has no record.
+         *
+         * @return true for a heartbeat.
+         */
+        boolean isHeartbeat() {
+            return current == 16;
+        }
+
+        /**
+         * Writes the current frame as it was read.
+         *
+         * @param out Where the frame is copied.
+         * @throws IOException if an IO error occurs.
+         */
+        void copyTo(DataOutputStream out) throws IOException {
+            out.writeInt(current);
+            out.writeInt(sum);
+            out.write(body, 0, current);
+        }
+
+        /**
+         * The record of the current frame.
+         *
+         * @return A stream over the record.
+         */
+        DataInputStream record() {
+            return new DataInputStream(new ByteArrayInputStream(body, 16, current - 16));
+        }
+    }
+}
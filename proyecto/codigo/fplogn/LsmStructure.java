@@ -0,0 +1,704 @@
+package fplogn;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * A FileStructure for listings which don't fit in memory, searched by name,
+ * extension, user and size. Files are added to a FileStructure in memory, the
+ * memtable, and when it has memtableFiles Files it's frozen and a background
+ * thread writes it to the disk as one SortedRun per index: the records of the
+ * run of an index are sorted by its key (the name, the extension, the user or
+ * the size) and their value is the File written as a record of the log, see
+ * RecordCodec. Once an index has COMPACT_AT runs, the background thread merges
+ * them into one, keeping only the newest record of a path for every key, so a
+ * search reads a few runs, and every run keeps a bloom
+ * filter and a sparse index in memory, so a run without the key searched is
+ * usually skipped without reading it.
+ *
+ * A search merges the Files of the memtable, the frozen memtable and the runs,
+ * newest first, and a path added more than once is only returned once, as it
+ * was added the last time (a path added again with another size or user is
+ * still found by the old one too). Files read from the runs are new objects,
+ * and their parent Folders are made from their paths, with an unknown user.
+ *
+ * The directory has the runs and a MANIFEST file listing them. It's written
+ * after every flush and compaction, so after a crash the structure opens as it
+ * was after the last flush, the Files in the memtable are lost (a
+ * WriteAheadLog on the adds can keep them).
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class LsmStructure implements Closeable {
+
+    /**
+     * The number of Files of the memtable by default.
+     */
+    public static final int DEFAULT_MEMTABLE = 1 << 20;
+    /**
+     * The false positive rate of the bloom filters of the runs by default.
+     */
+    public static final double DEFAULT_FPP = 0.01;
+    /**
+     * The number of runs of an index which are compacted into one.
+     */
+    public static final int COMPACT_AT = 4;
+
+    static final String MANIFEST = "MANIFEST";
+    private static final String[] INDEXES = {"name", "ext", "user", "size"};
+    private static final int NAME = 0;
+    private static final int EXT = 1;
+    private static final int USER = 2;
+    private static final int SIZE = 3;
+
+    private final Path dir;
+    private final int memtableFiles;
+    private final double fpp;
+    private final ArrayList<List<SortedRun>> runs;
+    private final Thread merger;
+    private FileStructure memtable;
+    private FileStructure frozen;
+    private long nextRun;
+    private long flushes;
+    private long compactions;
+    private boolean closed;
+    private IOException failure;
+
+    private LsmStructure(Path dir, int memtableFiles, double fpp) throws IOException {
+        this.dir = dir;
+        this.memtableFiles = memtableFiles;
+        this.fpp = fpp;
+        memtable = new FileStructure(0);
+        runs = new ArrayList<>();
+
+        for (int i = 0; i < INDEXES.length; ++i) {
+            runs.add(Collections.emptyList());
+        }
+
+        Files.createDirectories(dir);
+        HashSet<String> listed = new HashSet<>();
+        Path manifest = dir.resolve(MANIFEST);
+
+        if (Files.exists(manifest)) {
+            //one run per line, every index from its newest run
+            ArrayList<ArrayList<SortedRun>> opened = new ArrayList<>();
+            for (int i = 0; i < INDEXES.length; ++i) {
+                opened.add(new ArrayList<>());
+            }
+
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                int dash = line.indexOf('-');
+                int index = Arrays.asList(INDEXES).indexOf(line.substring(0, dash));
+                if (index < 0) {
+                    throw new IOException("Unknown index in " + manifest + ": " + line);
+                }
+
+                opened.get(index).add(SortedRun.open(dir.resolve(line)));
+                listed.add(line);
+                nextRun = Math.max(nextRun, Long.parseLong(line.substring(dash + 1, line.length() - 4)) + 1);
+            }
+
+            for (int i = 0; i < INDEXES.length; ++i) {
+                runs.set(i, Collections.unmodifiableList(opened.get(i)));
+            }
+        }
+
+        //runs of a flush or a compaction cut by a crash
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.run")) {
+            for (Path f : files) {
+                if (!listed.contains(f.getFileName().toString())) {
+                    Files.delete(f);
+                }
+            }
+        }
+
+        merger = new Thread(this::merge, "lsm-merger");
+        merger.setDaemon(true);
+        merger.start();
+    }
+
+    /**
+     * Opens the LsmStructure in the given directory, with the default sizes.
+     *
+     * @param dir The directory, created if it doesn't exist.
+     * @return The LsmStructure, with the Files of the runs listed in the
+     * MANIFEST.
+     * @throws IOException if the directory can't be read.
+     */
+    public static LsmStructure open(Path dir) throws IOException {
+        return open(dir, DEFAULT_MEMTABLE, DEFAULT_FPP);
+    }
+
+    /**
+     * Opens the LsmStructure in the given directory.
+     *
+     * @param dir The directory, created if it doesn't exist.
+     * @param memtableFiles The number of Files kept in memory before they are
+     * written to a run, the memory taken is about twice that many Files.
+     * @param fpp The false positive rate of the bloom filters of new runs.
+     * @return The LsmStructure, with the Files of the runs listed in the
+     * MANIFEST.
+     * @throws IOException if the directory can't be read.
+     */
+    public static LsmStructure open(Path dir, int memtableFiles, double fpp) throws IOException {
+        if (memtableFiles < 1) {
+            throw new IllegalArgumentException("memtableFiles must be positive: " + memtableFiles);
+        }
+        if (!(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("fpp must be between 0 and 1: " + fpp);
+        }
+
+        return new LsmStructure(dir, memtableFiles, fpp);
+    }
+
+    /**
+     * Adds a File to the memtable, see FileStructure.add(File). When the
+     * memtable is full it's handed to the background thread, and if it's
+     * still writing the last one, the add waits for it.
+     *
+     * @param file The File to be added.
+     * @return true if file added else returns false.
+     * @throws UncheckedIOException if writing a run failed.
+     */
+    public synchronized boolean add(File file) {
+        check();
+        boolean ret = memtable.add(file);
+
+        if (ret && memtable.nFiles() + memtable.nFolders() >= memtableFiles) {
+            freeze();
+        }
+
+        return ret;
+    }
+
+    private void check() {
+        if (failure != null) {
+            throw new UncheckedIOException("Writing a run failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Closed");
+        }
+    }
+
+    private void freeze() {
+        awaitFrozen();
+        frozen = memtable;
+        memtable = new FileStructure(0);
+        notifyAll();
+    }
+
+    private void awaitFrozen() {
+        boolean interrupted = false;
+
+        while (frozen != null && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw new UncheckedIOException("Writing a run failed", failure);
+        }
+    }
+
+    /**
+     * Writes the memtable to the disk now, and waits until it's written.
+     *
+     * @throws UncheckedIOException if writing a run failed.
+     */
+    public synchronized void flush() {
+        check();
+        if (memtable.nFiles() + memtable.nFolders() > 0) {
+            freeze();
+        }
+        awaitFrozen();
+    }
+
+    /**
+     * The body of the background thread: writes every frozen memtable and
+     * compacts the indexes with too many runs.
+     */
+    private void merge() {
+        while (true) {
+            FileStructure table;
+            synchronized (this) {
+                while (frozen == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+
+                if (frozen == null) {
+                    return;
+                }
+                table = frozen;
+            }
+
+            try {
+                SortedRun[] written = write(table);
+
+                synchronized (this) {
+                    for (int i = 0; i < INDEXES.length; ++i) {
+                        ArrayList<SortedRun> curr = new ArrayList<>(runs.get(i));
+                        curr.add(0, written[i]);
+                        runs.set(i, Collections.unmodifiableList(curr));
+                    }
+                    writeManifest();
+                    frozen = null;
+                    ++flushes;
+                    notifyAll();
+                }
+
+                for (int i = 0; i < INDEXES.length; ++i) {
+                    if (runs(i).size() >= COMPACT_AT) {
+                        compact(i);
+                    }
+                }
+            } catch (IOException ex) {
+                synchronized (this) {
+                    failure = ex;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private synchronized List<SortedRun> runs(int index) {
+        return runs.get(index);
+    }
+
+    private Path nextPath(int index) {
+        synchronized (this) {
+            return dir.resolve(String.format("%s-%012d.run", INDEXES[index], nextRun++));
+        }
+    }
+
+    /**
+     * Writes a frozen memtable as one run per index. Every File is encoded
+     * once, and sorted by the key of every index.
+     */
+    private SortedRun[] write(FileStructure table) throws IOException {
+        ArrayList<File> all = new ArrayList<>();
+        for (TreeSet<File> childs : table.folderTree().values()) {
+            all.addAll(childs);
+        }
+
+        byte[][] values = new byte[all.size()][];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        for (int i = 0; i < values.length; ++i) {
+            File f = all.get(i);
+            bytes.reset();
+            RecordCodec.write(out, f instanceof Folder ? RecordCodec.FOLDER : RecordCodec.FILE, f);
+            values[i] = bytes.toByteArray();
+        }
+
+        SortedRun[] ret = new SortedRun[INDEXES.length];
+        for (int index = 0; index < INDEXES.length; ++index) {
+            byte[][][] records = new byte[values.length][][];
+            for (int i = 0; i < values.length; ++i) {
+                records[i] = new byte[][]{key(index, all.get(i)), values[i]};
+            }
+
+            Arrays.sort(records, (byte[][] a, byte[][] b) -> Arrays.compareUnsigned(a[0], b[0]));
+
+            long keys = 0;
+            for (int i = 0; i < records.length; ++i) {
+                if (i == 0 || !Arrays.equals(records[i - 1][0], records[i][0])) {
+                    ++keys;
+                }
+            }
+
+            SortedRun.Writer writer = new SortedRun.Writer(nextPath(index), keys, fpp);
+            try {
+                for (byte[][] record : records) {
+                    writer.add(record[0], record[1]);
+                }
+                ret[index] = writer.finish();
+            } catch (IOException ex) {
+                writer.abort();
+                throw ex;
+            }
+        }
+
+        return ret;
+    }
+
+    private static byte[] key(int index, File file) {
+        switch (index) {
+            case NAME:
+                return utf8(file.getName());
+            case EXT:
+                return utf8(FileStructure.extOf(file.getName()));
+            case USER:
+                return utf8(file.getUser());
+            default:
+                return sizeKey(file.getSize());
+        }
+    }
+
+    private static byte[] utf8(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A size as a key, big endian with the sign flipped, so comparing the
+     * bytes compares the sizes.
+     */
+    private static byte[] sizeKey(long size) {
+        long bits = size ^ Long.MIN_VALUE;
+        byte[] ret = new byte[8];
+        for (int i = 7; i >= 0; --i) {
+            ret[i] = (byte) bits;
+            bits >>>= 8;
+        }
+        return ret;
+    }
+
+    /**
+     * Merges every run of an index into one, newest first for equal keys. A
+     * record whose path was already written for its key is superseded, so
+     * it's dropped; the paths of the key being merged are kept in memory.
+     */
+    private void compact(int index) throws IOException {
+        List<SortedRun> merged = runs(index);
+        long records = 0;
+        for (SortedRun run : merged) {
+            records += run.records();
+        }
+
+        PriorityQueue<Object[]> heap = new PriorityQueue<>(Comparator
+                .comparing((Object[] c) -> ((SortedRun.Cursor) c[0]).key(), Arrays::compareUnsigned)
+                .thenComparingInt((Object[] c) -> (Integer) c[1]));
+
+        for (int i = 0; i < merged.size(); ++i) {
+            SortedRun.Cursor cursor = merged.get(i).cursor();
+            if (cursor.next()) {
+                heap.add(new Object[]{cursor, i});
+            }
+        }
+
+        //the distinct keys aren't known, the records are an upper bound
+        SortedRun.Writer writer = new SortedRun.Writer(nextPath(index), records, fpp);
+        SortedRun compacted;
+
+        byte[] key = null;
+        HashSet<ByteBuffer> paths = new HashSet<>();
+
+        try {
+            while (!heap.isEmpty()) {
+                Object[] top = heap.poll();
+                SortedRun.Cursor cursor = (SortedRun.Cursor) top[0];
+
+                if (key == null || !Arrays.equals(key, cursor.key())) {
+                    key = cursor.key();
+                    paths.clear();
+                }
+
+                byte[] value = cursor.value();
+                if (paths.add(ByteBuffer.wrap(value, 0, RecordCodec.pathLength(value)))) {
+                    writer.add(key, value);
+                }
+
+                if (cursor.next()) {
+                    heap.add(top);
+                }
+            }
+            compacted = writer.finish();
+        } catch (IOException ex) {
+            writer.abort();
+            throw ex;
+        }
+
+        synchronized (this) {
+            //only this thread adds runs, so the runs are still the merged ones
+            runs.set(index, Collections.singletonList(compacted));
+            writeManifest();
+            ++compactions;
+        }
+
+        for (SortedRun run : merged) {
+            run.retire();
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (List<SortedRun> index : runs) {
+                for (SortedRun run : index) {
+                    out.write(run.path().getFileName().toString());
+                    out.newLine();
+                }
+            }
+        }
+
+        try (FileChannel sync = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            sync.force(true);
+        }
+
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Searches for all Files with the given name.
+     *
+     * @param name The name of the File(s) searched.
+     * @return The Files with the given name, empty if there's none.
+     * @throws IOException if a run can't be read.
+     */
+    public List<File> getByName(String name) throws IOException {
+        return get(NAME, utf8(name), utf8(name), (FileStructure f) -> f.getByName(name));
+    }
+
+    /**
+     * Searches for all the Files with the given extension, without the dot.
+     *
+     * @param ext The extension of the searched Files.
+     * @return The Files with extension ext, empty if there's none.
+     * @throws IOException if a run can't be read.
+     */
+    public List<File> getByExt(String ext) throws IOException {
+        return get(EXT, utf8(ext), utf8(ext), (FileStructure f) -> f.getByExt(ext));
+    }
+
+    /**
+     * Searches for all Files with the given user.
+     *
+     * @param user The file's username.
+     * @return The Files of the given user, empty if there's none.
+     * @throws IOException if a run can't be read.
+     */
+    public List<File> getByUser(String user) throws IOException {
+        return get(USER, utf8(user), utf8(user), (FileStructure f) -> f.getByUser(user));
+    }
+
+    /**
+     * Searches for all Files with the given size.
+     *
+     * @param size The searched size.
+     * @return The Files with the given size, empty if there's none.
+     * @throws IOException if a run can't be read.
+     */
+    public List<File> getBySize(long size) throws IOException {
+        return get(SIZE, sizeKey(size), sizeKey(size), (FileStructure f) -> f.getBySize(size));
+    }
+
+    /**
+     * Searches for all Files with a size between min and max, both included.
+     *
+     * @param min The minimum size.
+     * @param max The maximum size.
+     * @return The Files found, sorted by size.
+     * @throws IOException if a run can't be read.
+     */
+    public List<File> getBySizeBetween(long min, long max) throws IOException {
+        if (min > max) {
+            return new ArrayList<>();
+        }
+
+        List<File> ret = get(SIZE, sizeKey(min), sizeKey(max), (FileStructure f) -> {
+            ArrayList<File> found = new ArrayList<>();
+            for (List<File> same : f.getLessThan(max).tailMap(min).values()) {
+                found.addAll(same);
+            }
+            return found;
+        });
+
+        ret.sort(Comparator.comparingLong(File::getSize));
+        return ret;
+    }
+
+    /**
+     * The search of an index in the memtables.
+     */
+    private interface InMemory {
+
+        Collection<File> get(FileStructure files);
+    }
+
+    private List<File> get(int index, byte[] from, byte[] to, InMemory inMemory) throws IOException {
+        ArrayList<File> found = new ArrayList<>();
+        FileStructure table;
+        ArrayList<SortedRun> read = new ArrayList<>();
+
+        synchronized (this) {
+            check();
+            //the memtable changes with every add, the rest doesn't
+            add(found, inMemory.get(memtable));
+            table = frozen;
+
+            for (SortedRun run : runs.get(index)) {
+                if (run.acquire()) {
+                    read.add(run);
+                }
+            }
+        }
+
+        try {
+            if (table != null) {
+                add(found, inMemory.get(table));
+            }
+
+            RecordCodec codec = new RecordCodec(null);
+            for (SortedRun run : read) {
+                for (byte[] value : Arrays.equals(from, to) ? run.get(from) : run.range(from, to)) {
+                    //a Folder read as a parent of an earlier File has no user
+                    RecordCodec reader = value[0] == RecordCodec.FOLDER ? new RecordCodec(null) : codec;
+                    found.add(reader.read(new DataInputStream(new ByteArrayInputStream(value))));
+                }
+            }
+        } finally {
+            for (SortedRun run : read) {
+                run.release();
+            }
+        }
+
+        //the newest File of every path
+        HashSet<String> paths = new HashSet<>();
+        ArrayList<File> ret = new ArrayList<>();
+        for (File f : found) {
+            if (paths.add(f.getPath())) {
+                ret.add(f);
+            }
+        }
+
+        return ret;
+    }
+
+    private static void add(ArrayList<File> into, Collection<File> files) {
+        if (files != null) {
+            into.addAll(files);
+        }
+    }
+
+    /**
+     * The number of runs on the disk, of every index.
+     *
+     * @return The number of runs.
+     */
+    public synchronized int nRuns() {
+        int ret = 0;
+        for (List<SortedRun> index : runs) {
+            ret += index.size();
+        }
+        return ret;
+    }
+
+    /**
+     * The number of searches of a run answered by its bloom filter, without
+     * reading the run.
+     *
+     * @return The number of searches.
+     */
+    public synchronized long bloomSkips() {
+        long ret = 0;
+        for (List<SortedRun> index : runs) {
+            for (SortedRun run : index) {
+                ret += run.skipped();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The memory taken by the bloom filters and sparse indexes of the runs.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long indexMemory() {
+        long ret = 0;
+        for (List<SortedRun> index : runs) {
+            for (SortedRun run : index) {
+                ret += run.memory();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The number of memtables written to the disk, and of compactions, since
+     * the structure was opened.
+     *
+     * @return {flushes, compactions}.
+     */
+    public synchronized long[] merges() {
+        return new long[]{flushes, compactions};
+    }
+
+    /**
+     * Writes the memtable, waits for the background thread and closes the
+     * runs.
+     *
+     * @throws IOException if writing a run failed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (failure == null && memtable.nFiles() + memtable.nFolders() > 0) {
+                freeze();
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            merger.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            for (List<SortedRun> index : runs) {
+                for (SortedRun run : index) {
+                    run.close();
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package fplogn;
+
+/**
+ * A MutationListener is told about every change of a FileStructure, before
+ * and after the change is made. It's called by the thread which made the
+ * change, so it should be fast.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public interface MutationListener {
+
+    /**
+     * Called before a File is added to the FileStructure, once it's known to
+     * be valid and new. An exception thrown here stops the add: the
+     * FileStructure isn't changed and added isn't called. By default it does
+     * nothing.
+     *
+     * @param file The File which is going to be added.
+     */
+    default void adding(File file) {
+    }
+
+    /**
+     * Called after a File is added to the FileStructure.
+     *
+     * @param file The File added.
+     */
+    void added(File file);
+}
@@ -0,0 +1,62 @@
+package fplogn;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A bounded part of a (maybe huge) list of Files, plus the cursor to ask for
+ * the next part. The cursor is the key of the last File of the page: its name
+ * for the children of a Folder and its position for the lists of the indexes.
+ *
+ * @param <C> The type of the cursor.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Page<C> {
+
+    private final List<File> files;
+    private final C next;
+
+    /**
+     * Builds a new Page.
+     *
+     * @param files The Files of the page.
+     * @param next The cursor of the next page, null if this is the last one.
+     */
+    Page(List<File> files, C next) {
+        this.files = Collections.unmodifiableList(files);
+        this.next = next;
+    }
+
+    /**
+     * The Files of this page.
+     *
+     * @return An unmodifiable List with the Files.
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * The cursor to pass as "after" to obtain the next page.
+     *
+     * @return The cursor, null if there are no more Files.
+     */
+    public C getNext() {
+        return next;
+    }
+
+    /**
+     * Indicates if there are more Files after this page.
+     *
+     * @return true if getNext() isn't null.
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String toString() {
+        return files + (next == null ? "" : " next=" + next);
+    }
+}
@@ -0,0 +1,455 @@
+package fplogn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Every File reachable from HOME in a tree of path components, with the
+ * children of every Folder in an array sorted as their full paths are (a
+ * Folder sorts as its name followed by '/', so "a.txt" < "a/" < "a0"). A walk
+ * of the tree visits the Files in lexicographic order of their paths without
+ * building them, so a prefix of a path is a contiguous range found by binary
+ * search, and a glob is matched component by component, only descending into
+ * the Folders some component can still match.
+ *
+ * Unlike EulerTour, it isn't built again after every change: the node of a
+ * Folder (its children sorted) is built the first time a search goes through
+ * it and again when a File was added to that Folder, so a search while
+ * loading only sorts the Folders which changed. Every node keeps the nodes of
+ * its children by their position, so a walk goes down the tree without
+ * building paths (only building a node builds the path of its Folder, to find
+ * its children). The children of a Folder are only added, so a node is fresh
+ * while their number is the same, and a node of a Folder without children is
+ * fresh until some Folder gets its first one. Several searches holding a
+ * read lock may build nodes at once.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class PathIndex {
+
+    private static final File[] NO_FILES = {};
+
+    /**
+     * A Folder of the tree: its path, its children in path order and the
+     * nodes of the children built so far.
+     */
+    private static final class Node {
+
+        private final String path;
+        private final TreeSet<File> childs;
+        private final long epoch;
+        private final File[] entries;
+        private final Node[] nodes;
+
+        private Node(String path, TreeSet<File> childs, long epoch) {
+            this.path = path;
+            this.childs = childs;
+            this.epoch = epoch;
+            entries = childs == null ? NO_FILES : childs.toArray(new File[childs.size()]);
+            Arrays.sort(entries, PathIndex::compare);
+            nodes = new Node[entries.length];
+        }
+    }
+
+    private final Map<String, TreeSet<File>> byFolder;
+    private volatile Node root;
+    private volatile long epoch;
+
+    /**
+     * Builds the index of the given byFolder tree, empty until it's searched.
+     *
+     * @param byFolder The tree of Files by their parent's path.
+     */
+    PathIndex(Map<String, TreeSet<File>> byFolder) {
+        this.byFolder = byFolder;
+    }
+
+    /**
+     * Tells that a Folder got its first child, the children of the others
+     * are counted.
+     */
+    void created() {
+        ++epoch;
+    }
+
+    /**
+     * Throws away every node, e.g. after a merge.
+     */
+    void clear() {
+        root = null;
+        ++epoch;
+    }
+
+    /**
+     * Whether a node still has every child of its Folder.
+     */
+    private boolean fresh(Node node) {
+        return node != null && (node.childs == null ? node.epoch == epoch : node.childs.size() == node.entries.length);
+    }
+
+    private Node root() {
+        Node ret = root;
+
+        if (!fresh(ret)) {
+            ret = new Node("", byFolder.get(""), epoch);
+            root = ret;
+        }
+
+        return ret;
+    }
+
+    /**
+     * The node of the child i of the given node, which must be a Folder.
+     * Searches building it at the same time keep their own, both are equal.
+     */
+    private Node child(Node node, int i) {
+        Node ret = node.nodes[i];
+
+        if (!fresh(ret)) {
+            String path = node.path + node.entries[i].getName() + "/";
+            ret = new Node(path, byFolder.get(path), epoch);
+            node.nodes[i] = ret;
+        }
+
+        return ret;
+    }
+
+    /**
+     * The char i of the name of a File as a path component, with a '/' after
+     * the name of a Folder, or -1 past its end.
+     */
+    private static int keyChar(String name, boolean folder, int i) {
+        if (i < name.length()) {
+            return name.charAt(i);
+        }
+
+        return folder && i == name.length() ? '/' : -1;
+    }
+
+    private static int compare(String a, boolean aFolder, String b, boolean bFolder) {
+        for (int i = 0;; ++i) {
+            int ca = keyChar(a, aFolder, i);
+            int cb = keyChar(b, bFolder, i);
+
+            if (ca != cb || ca < 0) {
+                return ca - cb;
+            }
+        }
+    }
+
+    private static int compare(File a, File b) {
+        return compare(a.getName(), a instanceof Folder, b.getName(), b instanceof Folder);
+    }
+
+    /**
+     * The first child of the node which doesn't sort before the given
+     * component.
+     */
+    private static int lowerBound(Node node, String name, boolean folder) {
+        int lo = 0;
+        int hi = node.entries.length;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            File f = node.entries[mid];
+
+            if (compare(f.getName(), f instanceof Folder, name, folder) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * The child of the node with the given name, only Folders if folder.
+     */
+    private static int find(Node node, String name, boolean folder) {
+        int i = lowerBound(node, name, folder);
+
+        if (i < node.entries.length && node.entries[i].getName().equals(name)
+                && (node.entries[i] instanceof Folder) == folder) {
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Every File whose path starts with the given prefix, in path order. The
+     * prefix doesn't need to end at a '/', e.g. "home/docs/re" finds
+     * "home/docs/readme.txt" and everything under "home/docs/reports/".
+     *
+     * @param prefix The prefix of the paths.
+     * @return An unmodifiable List with the Files found.
+     */
+    List<File> prefix(String prefix) {
+        ArrayList<File> ret = new ArrayList<>();
+        Node node = root();
+        File self = null;
+        int from = 0;
+
+        for (int slash = prefix.indexOf('/'); slash >= 0; slash = prefix.indexOf('/', from)) {
+            int i = find(node, prefix.substring(from, slash), true);
+
+            if (i < 0) {
+                return Collections.emptyList();
+            }
+
+            self = node.entries[i];
+            node = child(node, i);
+            from = slash + 1;
+        }
+
+        String rest = prefix.substring(from);
+
+        if (rest.isEmpty() && self != null) {
+            //the path of the Folder itself is the prefix
+            ret.add(self);
+        }
+
+        //rest has no '/', so the children it prefixes are contiguous
+        for (int i = lowerBound(node, rest, false);
+                i < node.entries.length && node.entries[i].getName().startsWith(rest); ++i) {
+            ret.add(node.entries[i]);
+
+            if (node.entries[i] instanceof Folder) {
+                subtree(child(node, i), ret);
+            }
+        }
+
+        return Collections.unmodifiableList(ret);
+    }
+
+    private void subtree(Node top, ArrayList<File> into) {
+        ArrayDeque<Node> nodes = new ArrayDeque<>();
+        ArrayDeque<int[]> next = new ArrayDeque<>();
+        nodes.push(top);
+        next.push(new int[]{0});
+
+        while (!nodes.isEmpty()) {
+            Node node = nodes.peek();
+            int[] i = next.peek();
+
+            if (i[0] == node.entries.length) {
+                nodes.pop();
+                next.pop();
+                continue;
+            }
+
+            into.add(node.entries[i[0]]);
+
+            if (node.entries[i[0]] instanceof Folder) {
+                nodes.push(child(node, i[0]));
+                next.push(new int[]{0});
+            }
+
+            ++i[0];
+        }
+    }
+
+    /**
+     * Every File whose path matches the given glob, in path order. The glob is
+     * split in components by '/': "**" matches any number of Folders (none
+     * too), and in the rest '*' matches any chars and '?' a single one. A
+     * glob ending in '/' only matches Folders, and a leading '/' is ignored,
+     * e.g. "/home/*&#47;cache/**&#47;*.tmp".
+     *
+     * Every Folder is walked with the set of components which could match its
+     * children, and it's skipped when there are none; when the only one is a
+     * literal or starts with one, only its range of children is visited.
+     *
+     * @param glob The glob, with up to 63 components.
+     * @return An unmodifiable List with the Files found.
+     */
+    List<File> glob(String glob) {
+        String trimmed = glob.startsWith("/") ? glob.substring(1) : glob;
+        boolean onlyFolders = trimmed.endsWith("/");
+
+        if (onlyFolders) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+
+        if (trimmed.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        String[] parts = trimmed.split("/", -1);
+
+        if (parts.length > 63) {
+            throw new IllegalArgumentException("Too many components: " + glob);
+        }
+
+        Glob g = new Glob(parts);
+        ArrayList<File> ret = new ArrayList<>();
+
+        ArrayDeque<Node> nodes = new ArrayDeque<>();
+        ArrayDeque<long[]> frames = new ArrayDeque<>();//{mask, next, end}
+        open(root(), g.closure(1L), g, nodes, frames);
+
+        while (!nodes.isEmpty()) {
+            Node node = nodes.peek();
+            long[] frame = frames.peek();
+
+            if (frame[1] == frame[2]) {
+                nodes.pop();
+                frames.pop();
+                continue;
+            }
+
+            int i = (int) frame[1]++;
+            File f = node.entries[i];
+            long mask = frame[0];
+
+            if (g.accepts(mask, f.getName()) && (!onlyFolders || f instanceof Folder)) {
+                ret.add(f);
+            }
+
+            if (f instanceof Folder) {
+                long next = g.next(mask, f.getName());
+                if (next != 0) {
+                    open(child(node, i), next, g, nodes, frames);
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(ret);
+    }
+
+    private static void open(Node node, long mask, Glob g, ArrayDeque<Node> nodes, ArrayDeque<long[]> frames) {
+        int from = 0;
+        int to = node.entries.length;
+        int only = Long.numberOfTrailingZeros(mask);
+
+        if (Long.bitCount(mask) == 1 && !g.parts[only].equals("**")) {
+            String literal = g.literals[only];
+
+            if (literal.length() == g.parts[only].length()) {
+                //no wildcards, at most one child matches
+                from = find(node, literal, false);
+                if (from < 0) {
+                    from = find(node, literal, true);
+                }
+                to = from + 1;
+                if (from < 0) {
+                    return;
+                }
+            } else if (!literal.isEmpty()) {
+                from = lowerBound(node, literal, false);
+                to = from;
+                while (to < node.entries.length && node.entries[to].getName().startsWith(literal)) {
+                    ++to;
+                }
+            }
+        }
+
+        if (from < to) {
+            nodes.push(node);
+            frames.push(new long[]{mask, from, to});
+        }
+    }
+
+    /**
+     * The components of a glob as the states of an automaton: state s means
+     * component s is the next to match, and the walk keeps the states of a
+     * Folder as a bit mask.
+     */
+    private static final class Glob {
+
+        private final String[] parts;
+        private final String[] literals;
+
+        private Glob(String[] parts) {
+            this.parts = parts;
+            literals = new String[parts.length];
+
+            for (int i = 0; i < parts.length; ++i) {
+                int wildcard = 0;
+                while (wildcard < parts[i].length() && parts[i].charAt(wildcard) != '*'
+                        && parts[i].charAt(wildcard) != '?') {
+                    ++wildcard;
+                }
+                literals[i] = parts[i].substring(0, wildcard);
+            }
+        }
+
+        /**
+         * Adds the states reachable matching no Folder with a "**".
+         */
+        private long closure(long mask) {
+            for (int s = 0; s < parts.length - 1; ++s) {
+                if ((mask & (1L << s)) != 0 && parts[s].equals("**")) {
+                    mask |= 1L << (s + 1);
+                }
+            }
+
+            return mask;
+        }
+
+        /**
+         * Whether a child with the given name matches the last component.
+         */
+        private boolean accepts(long mask, String name) {
+            int last = parts.length - 1;
+            return (mask & (1L << last)) != 0 && (parts[last].equals("**") || matches(parts[last], name));
+        }
+
+        /**
+         * The states of the children of a Folder with the given name.
+         */
+        private long next(long mask, String name) {
+            long ret = 0;
+
+            for (int s = 0; s < parts.length; ++s) {
+                if ((mask & (1L << s)) != 0) {
+                    if (parts[s].equals("**")) {
+                        ret |= 1L << s;
+                    } else if (s < parts.length - 1 && matches(parts[s], name)) {
+                        ret |= 1L << (s + 1);
+                    }
+                }
+            }
+
+            return closure(ret);
+        }
+
+        /**
+         * Matches a name against a component with '*' and '?', going back to
+         * the last '*' on a mismatch.
+         */
+        private static boolean matches(String part, String name) {
+            int p = 0;
+            int n = 0;
+            int star = -1;
+            int resume = 0;
+
+            while (n < name.length()) {
+                if (p < part.length() && (part.charAt(p) == '?' || part.charAt(p) == name.charAt(n))) {
+                    ++p;
+                    ++n;
+                } else if (p < part.length() && part.charAt(p) == '*') {
+                    star = p++;
+                    resume = n;
+                } else if (star >= 0) {
+                    p = star + 1;
+                    n = ++resume;
+                } else {
+                    return false;
+                }
+            }
+
+            while (p < part.length() && part.charAt(p) == '*') {
+                ++p;
+            }
+
+            return p == part.length();
+        }
+    }
+}
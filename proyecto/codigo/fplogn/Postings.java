@@ -0,0 +1,84 @@
+package fplogn;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * The list of Files kept for every key of the indexes of a FileStructure. Files
+ * are only appended, so the position of a File never changes and can be used
+ * to continue reading the list later. It's read only for anyone outside the
+ * package, any method which would change it throws
+ * UnsupportedOperationException.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class Postings extends AbstractList<File> implements RandomAccess {
+
+    private File[] files;
+    private int size;
+
+    /**
+     * Builds a new empty Postings, most keys (e.g. names) have only one File,
+     * so it starts with room for one.
+     */
+    Postings() {
+        files = new File[1];
+        size = 0;
+    }
+
+    /**
+     * Appends the given File.
+     *
+     * @param file The File appended.
+     */
+    void append(File file) {
+        if (size == files.length) {
+            files = Arrays.copyOf(files, size + (size >> 1) + 1);
+        }
+
+        files[size++] = file;
+    }
+
+    /**
+     * Appends all the Files of the given Postings.
+     *
+     * @param other The Postings appended.
+     */
+    void appendAll(Postings other) {
+        if (size + other.size > files.length) {
+            files = Arrays.copyOf(files, size + other.size);
+        }
+
+        System.arraycopy(other.files, 0, files, size, other.size);
+        size += other.size;
+    }
+
+    @Override
+    public File get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+
+        return files[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A Spliterator over the Files appended until now, it splits the array in
+     * halves, so parallel streams of a Postings scale. The Files already
+     * appended never change, so it's IMMUTABLE even if more are appended.
+     *
+     * @return A SIZED, SUBSIZED, ORDERED and IMMUTABLE Spliterator.
+     */
+    @Override
+    public Spliterator<File> spliterator() {
+        return Spliterators.spliterator(files, 0, size, FileStructure.SPLITERATOR);
+    }
+}
@@ -0,0 +1,390 @@
+package fplogn;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client of a QueryServer. Every query returns at once a CompletableFuture
+ * completed by a reader thread when the whole answer arrives, so many queries
+ * can be sent without waiting for the answers (pipelining). It can be used by
+ * many threads at the same time. The answers are Answers, which tell if the
+ * server was still loading. A query the protocol can't carry (a String of more
+ * than 65535 bytes in UTF-8, or more than the server reads) throws an
+ * IllegalArgumentException instead of being sent.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class QueryClient implements Closeable {
+
+    /**
+     * A File of an answer, as seen by the server.
+     */
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private final String user;
+        private final boolean folder;
+
+        Entry(String path, long size, String user, boolean folder) {
+            this.path = path;
+            this.size = size;
+            this.user = user;
+            this.folder = folder;
+        }
+
+        /**
+         * The full path of the File, ending in '/' for a Folder.
+         *
+         * @return The path.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * The size of the File.
+         *
+         * @return The size in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * The user of the File.
+         *
+         * @return The username.
+         */
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * Tells if the File is a Folder.
+         *
+         * @return true for a Folder.
+         */
+        public boolean isFolder() {
+            return folder;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + user + " " + size + "] " + path;
+        }
+    }
+
+    /**
+     * The Entries of an answer, unmodifiable.
+     */
+    public static class Answer extends AbstractList<Entry> {
+
+        private final ArrayList<Entry> entries;
+        private final boolean partial;
+
+        private Answer(ArrayList<Entry> entries, boolean partial) {
+            this.entries = entries;
+            this.partial = partial;
+        }
+
+        @Override
+        public Entry get(int index) {
+            return entries.get(index);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        /**
+         * Tells if the server was still loading when it ran the query, so
+         * Files may be missing.
+         *
+         * @return true for a partial answer.
+         */
+        public boolean isPartial() {
+            return partial;
+        }
+    }
+
+    /**
+     * An answer being received.
+     */
+    private static class Pending {
+
+        private final CompletableFuture<List<Entry>> future;
+        private final ArrayList<Entry> entries;
+
+        private Pending() {
+            future = new CompletableFuture<>();
+            entries = new ArrayList<>();
+        }
+    }
+
+    private final SocketChannel channel;
+    private final ConcurrentHashMap<Integer, Pending> pending;
+    private final AtomicInteger ids;
+    private final Thread reader;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Connects to a QueryServer.
+     *
+     * @param address An InetSocketAddress or a UnixDomainSocketAddress.
+     * @throws IOException if it can't connect.
+     */
+    public QueryClient(SocketAddress address) throws IOException {
+        channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        channel.connect(address);
+        pending = new ConcurrentHashMap<>();
+        ids = new AtomicInteger();
+
+        reader = new Thread(this::receive, "query-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Asks for the Files with the given name.
+     *
+     * @param name The name.
+     * @param limit The maximum number of Files wanted, 0 for all.
+     * @return The future answer.
+     */
+    public CompletableFuture<List<Entry>> byName(String name, int limit) {
+        return send(QueryServer.NAME, limit, name);
+    }
+
+    /**
+     * Asks for the Files with a size between min and max, both included.
+     *
+     * @param min The minimum size.
+     * @param max The maximum size.
+     * @param limit The maximum number of Files wanted, 0 for all.
+     * @return The future answer.
+     */
+    public CompletableFuture<List<Entry>> bySize(long min, long max, int limit) {
+        return send(QueryServer.SIZE, limit, min, max);
+    }
+
+    /**
+     * Asks for the Files with the given extension.
+     *
+     * @param ext The extension, without the dot.
+     * @param limit The maximum number of Files wanted, 0 for all.
+     * @return The future answer.
+     */
+    public CompletableFuture<List<Entry>> byExt(String ext, int limit) {
+        return send(QueryServer.EXT, limit, ext);
+    }
+
+    /**
+     * Asks for the Files of the given user.
+     *
+     * @param user The username.
+     * @param limit The maximum number of Files wanted, 0 for all.
+     * @return The future answer.
+     */
+    public CompletableFuture<List<Entry>> byUser(String user, int limit) {
+        return send(QueryServer.USER, limit, user);
+    }
+
+    /**
+     * Asks for the Files directly inside the Folder with the given path.
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @param limit The maximum number of Files wanted, 0 for all.
+     * @return The future answer.
+     */
+    public CompletableFuture<List<Entry>> byFolder(String path, int limit) {
+        return send(QueryServer.FOLDER, limit, path);
+    }
+
+    /**
+     * Asks for the Files anywhere under the Folder with the given path.
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @param limit The maximum number of Files wanted, 0 for all.
+     * @return The future answer.
+     */
+    public CompletableFuture<List<Entry>> bySubtree(String path, int limit) {
+        return send(QueryServer.SUBTREE, limit, path);
+    }
+
+    private CompletableFuture<List<Entry>> send(byte op, int limit, Object... args) {
+        ArrayList<byte[]> strings = new ArrayList<>();
+        int length = 4 + 1 + 4;
+        for (Object arg : args) {
+            if (arg instanceof String) {
+                byte[] bytes = ((String) arg).getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xffff) {
+                    throw new IllegalArgumentException("More than 65535 bytes in UTF-8: " + bytes.length);
+                }
+                strings.add(bytes);
+                length += 2 + bytes.length;
+            } else {
+                length += 8;
+            }
+        }
+
+        if (length > QueryServer.MAX_REQUEST) {
+            throw new IllegalArgumentException("The request takes " + length + " bytes, the server reads "
+                    + QueryServer.MAX_REQUEST + " at most");
+        }
+
+        int id = ids.incrementAndGet();
+        Pending p = new Pending();
+        pending.put(id, p);
+
+        //the reader may have failed the pending answers before this one was put
+        IOException failed = failure;
+        if (failed != null) {
+            pending.remove(id);
+            p.future.completeExceptionally(failed);
+            return p.future;
+        }
+
+        ByteBuffer request = ByteBuffer.allocate(4 + length);
+        request.putInt(length).putInt(id).put(op).putInt(limit);
+        int s = 0;
+        for (Object arg : args) {
+            if (arg instanceof String) {
+                byte[] bytes = strings.get(s++);
+                request.putShort((short) bytes.length).put(bytes);
+            } else {
+                request.putLong((Long) arg);
+            }
+        }
+        request.flip();
+
+        try {
+            synchronized (channel) {
+                while (request.hasRemaining()) {
+                    channel.write(request);
+                }
+            }
+        } catch (IOException ex) {
+            pending.remove(id);
+            p.future.completeExceptionally(ex);
+        }
+
+        return p.future;
+    }
+
+    private void receive() {
+        IOException failure = null;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            byte[] frame = new byte[1 << 16];
+
+            while (true) {
+                int length = in.readInt();
+                if (frame.length < length) {
+                    frame = new byte[length];
+                }
+
+                in.readFully(frame, 0, length);
+                ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+                int id = buffer.getInt();
+                byte status = buffer.get();
+                int count = buffer.getInt();
+                Pending p = pending.get(id);
+
+                if (status == QueryServer.ERROR) {
+                    String msg = string(buffer);
+                    pending.remove(id);
+                    if (p != null) {
+                        p.future.completeExceptionally(new IOException(msg));
+                    }
+                    continue;
+                }
+
+                if (p != null) {
+                    p.entries.ensureCapacity(p.entries.size() + count);
+                    for (int i = 0; i < count; ++i) {
+                        String path = string(buffer);
+                        long size = buffer.getLong();
+                        String user = string(buffer);
+                        p.entries.add(new Entry(path, size, user, buffer.get() != 0));
+                    }
+                }
+
+                if (status == QueryServer.OK || status == QueryServer.PARTIAL) {
+                    pending.remove(id);
+                    if (p != null) {
+                        p.future.complete(new Answer(p.entries, status == QueryServer.PARTIAL));
+                    }
+                }
+            }
+        } catch (EOFException ex) {
+            failure = new EOFException("The server closed the connection");
+        } catch (IOException ex) {
+            failure = ex;
+        }
+
+        if (closed) {
+            failure = new IOException("Closed");
+        }
+
+        //set before the pending answers are failed, send() checks it after putting one
+        this.failure = failure;
+        for (Pending p : pending.values()) {
+            p.future.completeExceptionally(failure);
+        }
+        pending.clear();
+    }
+
+    private static String string(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String ret = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return ret;
+    }
+
+    /**
+     * The number of queries sent whose answer didn't arrive yet.
+     *
+     * @return The number of answers pending.
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Closes the connection, the pending answers fail.
+     *
+     * @throws IOException if an IO error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+
+        try {
+            reader.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package fplogn;
+
+import java.util.Collection;
+import java.util.Map;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event around a search of a FileStructure: which search,
+ * its key, the Folder it was restricted to and how many Files it found.
+ * Without a recording, or with the event disabled, start() allocates nothing
+ * the JIT can't remove and finish() only checks shouldCommit(), so the
+ * searches can keep them always.
+ *
+ * @author anietog1, ditrefftzr
+ */
+@Name("fplogn.Query")
+@Label("FileStructure Query")
+@Category({"fplogn", "Queries"})
+@Description("A search of a FileStructure")
+@StackTrace(false)
+final class QueryEvent extends Event {
+
+    @Label("Query")
+    @Description("The method, e.g. getByName")
+    String query;
+
+    @Label("Key")
+    @Description("The name, size, path... searched")
+    String key;
+
+    @Label("Under")
+    @Description("The path of the Folder searched, for the searches of a subtree")
+    String under;
+
+    @Label("Results")
+    @Description("The number of Files found")
+    long results;
+
+    /**
+     * Starts timing a search.
+     *
+     * @return The event, to be finished with the results.
+     */
+    static QueryEvent start() {
+        QueryEvent ret = new QueryEvent();
+        ret.begin();
+        return ret;
+    }
+
+    /**
+     * Ends a search and commits its event if it's recorded.
+     *
+     * @param query The name of the search.
+     * @param key The key searched, converted to a String only if recorded.
+     * @param under The path of the Folder searched, null if it's every one.
+     * @param results The number of Files found.
+     */
+    void finish(String query, Object key, String under, long results) {
+        end();
+        if (shouldCommit()) {
+            record(query, key, under, results);
+        }
+    }
+
+    private void record(String query, Object key, String under, long results) {
+        this.query = query;
+        this.key = String.valueOf(key);
+        this.under = under;
+        this.results = results;
+        commit();
+    }
+
+    /**
+     * Ends a search which returns a Collection, see
+     * finish(String, Object, String, long).
+     *
+     * @param <T> The type of the Collection.
+     * @param query The name of the search.
+     * @param key The key searched.
+     * @param under The path of the Folder searched, null if it's every one.
+     * @param ret The Files found, may be null.
+     * @return ret.
+     */
+    <T extends Collection<?>> T finish(String query, Object key, String under, T ret) {
+        finish(query, key, under, ret == null ? 0 : ret.size());
+        return ret;
+    }
+
+    /**
+     * Ends a search which returns a Map of Lists by key, see
+     * finish(String, Object, String, long). Only the keys are counted, and
+     * only if it's recorded: the size of a view of a TreeMap walks it.
+     *
+     * @param <T> The type of the Map.
+     * @param query The name of the search.
+     * @param key The key searched.
+     * @param ret The Files found by key.
+     * @return ret.
+     */
+    <T extends Map<?, ?>> T finish(String query, Object key, T ret) {
+        end();
+        if (shouldCommit()) {
+            record(query, key, null, ret.size());
+        }
+        return ret;
+    }
+}
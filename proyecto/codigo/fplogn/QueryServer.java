@@ -0,0 +1,752 @@
+package fplogn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Serves the queries of a FileStructure over TCP or a Unix domain socket,
+ * with a single thread and a Selector, so the structure stays loaded and hot
+ * for every client.
+ *
+ * Every request is a frame:
+ * <pre>[int length][int id][byte op][int limit][arguments]</pre>
+ * where length counts what follows it, limit is the maximum number of Files
+ * wanted (0 for all) and the arguments are strings (an unsigned short length
+ * and UTF-8 bytes) or longs, see the ops. A client can send many requests
+ * without waiting (pipelining), they are answered in order, each with one or
+ * more frames:
+ * <pre>[int length][int id][byte status][int count][count entries]</pre>
+ * where status is MORE while other frames of the same answer follow, and every
+ * entry is the path, the size, the user and 1 for a Folder (0 otherwise). The
+ * last frame is OK, or PARTIAL if the structure was still loading when the
+ * query ran (see setPartial), so the answer may miss Files.
+ *
+ * The Files of an answer are read BATCH at a time, holding the read lock, when
+ * the socket drains, each batch resuming from a cursor (a position in a list
+ * of an index, or the last name read in a Folder) and encoded straight into
+ * the direct buffer of the connection, so a big answer never takes more than
+ * a batch and that buffer, it's written without extra copies and the other
+ * clients are served between its batches. Files added meanwhile may or may
+ * not be in the answer, every other File is sent once. The encoded paths of
+ * the PATHS Folders used last and the users are cached, so an entry usually
+ * only encodes the File's name. A connection with answers pending isn't read, so a client which
+ * doesn't read can't fill the server's memory.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class QueryServer implements Closeable {
+
+    /**
+     * getByName, the argument is the name.
+     */
+    public static final byte NAME = 1;
+    /**
+     * streamBySize, the arguments are the minimum and maximum sizes.
+     */
+    public static final byte SIZE = 2;
+    /**
+     * getByExt, the argument is the extension.
+     */
+    public static final byte EXT = 3;
+    /**
+     * getByUser, the argument is the user.
+     */
+    public static final byte USER = 4;
+    /**
+     * getByFolder, the argument is the Folder's path.
+     */
+    public static final byte FOLDER = 5;
+    /**
+     * getBySubtree, the argument is the Folder's path.
+     */
+    public static final byte SUBTREE = 6;
+
+    static final byte OK = 0;
+    static final byte MORE = 1;
+    static final byte ERROR = 2;
+    static final byte PARTIAL = 3;
+
+    static final int MAX_REQUEST = 1 << 16;
+    private static final int PATHS = 1 << 14;
+    private static final int BUFFER = 1 << 16;
+    private static final int BATCH = 1024;
+    private static final byte[] EMPTY = {};
+
+    /**
+     * Where an answer goes on: it reads the Files of a query which follow the
+     * last ones read.
+     */
+    private abstract static class Cursor {
+
+        /**
+         * Reads the next Files, called holding the read lock.
+         *
+         * @param files The FileStructure served.
+         * @param limit The maximum number of Files.
+         * @return The Files, empty when there are no more.
+         */
+        abstract List<File> next(FileStructure files, int limit);
+    }
+
+    /**
+     * The Files with a name, extension or user, the cursor is the position in
+     * their list, which is only appended to.
+     */
+    private static final class ByKey extends Cursor {
+
+        private final byte op;
+        private final String key;
+        private int after;
+
+        private ByKey(byte op, String key) {
+            this.op = op;
+            this.key = key;
+            after = -1;
+        }
+
+        @Override
+        List<File> next(FileStructure files, int limit) {
+            Page<Integer> page;
+
+            switch (op) {
+                case NAME:
+                    page = files.getByName(key, after, limit);
+                    break;
+                case EXT:
+                    page = files.getByExt(key, after, limit);
+                    break;
+                default:
+                    page = files.getByUser(key, after, limit);
+            }
+
+            after += page.getFiles().size();
+            return page.getFiles();
+        }
+    }
+
+    /**
+     * The Files with a size in a range, the cursor is the size being read and
+     * the position in its list.
+     */
+    private static final class BySize extends Cursor {
+
+        private final long max;
+        private long size;
+        private int after;
+        private boolean done;
+
+        private BySize(long min, long max) {
+            this.max = max;
+            size = min;
+            after = -1;
+            done = min > max;
+        }
+
+        @Override
+        List<File> next(FileStructure files, int limit) {
+            ArrayList<File> ret = new ArrayList<>();
+
+            while (!done && ret.size() < limit) {
+                Long key = files.ceilingSize(size);
+
+                if (key == null || key > max) {
+                    done = true;
+                    break;
+                }
+
+                if (key != size) {
+                    size = key;
+                    after = -1;
+                }
+
+                List<File> page = files.getBySize(key, after, limit - ret.size()).getFiles();
+                ret.addAll(page);
+                after += page.size();
+
+                if (ret.size() < limit) {//this size is over
+                    done = size == max;
+                    ++size;
+                    after = -1;
+                }
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * The children of a Folder, the cursor is the name of the last one read.
+     */
+    private static final class ByFolder extends Cursor {
+
+        private final String path;
+        private String after;
+
+        private ByFolder(String path) {
+            this.path = path;
+        }
+
+        @Override
+        List<File> next(FileStructure files, int limit) {
+            List<File> ret = files.getByFolder(path, after, limit).getFiles();
+
+            if (!ret.isEmpty()) {
+                after = ret.get(ret.size() - 1).getName();
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * The Files under a Folder in pre-order, like getBySubtree. The cursor is
+     * the stack of Folders being walked with the name of the last child read
+     * in each, so a batch resumes with a search in every Folder of the stack
+     * instead of walking the tour again.
+     */
+    private static final class BySubtree extends Cursor {
+
+        private static final class Frame {
+
+            private final String path;
+            private String last;
+            private Iterator<File> it;
+
+            private Frame(String path) {
+                this.path = path;
+            }
+        }
+
+        private final ArrayDeque<Frame> frames;
+
+        private BySubtree(String path) {
+            frames = new ArrayDeque<>();
+            frames.push(new Frame(path));
+        }
+
+        @Override
+        List<File> next(FileStructure files, int limit) {
+            SortedMap<String, TreeSet<File>> tree = files.folderTree();
+            ArrayList<File> ret = new ArrayList<>();
+
+            while (ret.size() < limit && !frames.isEmpty()) {
+                Frame f = frames.peek();
+
+                if (f.it == null) {
+                    TreeSet<File> childs = tree.get(f.path);
+                    f.it = childs == null ? Collections.emptyIterator()
+                            : f.last == null ? childs.iterator()
+                            : childs.tailSet(new File(f.last, null, 0L, ""), false).iterator();
+                }
+
+                if (!f.it.hasNext()) {
+                    frames.pop();
+                    continue;
+                }
+
+                File next = f.it.next();
+                f.last = next.getName();
+                ret.add(next);
+
+                if (next instanceof Folder) {
+                    frames.push(new Frame(next.getPath()));
+                }
+            }
+
+            for (Frame f : frames) {
+                f.it = null;//the Folders may change before the next batch
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * An answer being written.
+     */
+    private static class Answer {
+
+        private final int id;
+        private final Cursor cursor;
+        private final String error;
+        private List<File> batch;
+        private int next;
+        private int left;
+        private boolean partial;
+
+        private Answer(int id, Cursor cursor, int limit, String error) {
+            this.id = id;
+            this.cursor = cursor;
+            this.error = error;
+            batch = Collections.emptyList();
+            left = limit > 0 ? limit : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The state of a client connection.
+     */
+    private static class Connection {
+
+        private final ByteBuffer in;
+        private final ByteBuffer out;
+        private final ArrayDeque<Answer> answers;
+
+        private Connection() {
+            in = ByteBuffer.allocate(MAX_REQUEST + 4);
+            out = ByteBuffer.allocateDirect(BUFFER);
+            out.flip();
+            answers = new ArrayDeque<>();
+        }
+    }
+
+    private final FileStructure files;
+    private final ReadWriteLock lock;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread loop;
+    private final HashMap<String, byte[]> users;
+    private final LinkedHashMap<Folder, byte[]> paths;
+    private Folder lastFolder;
+    private byte[] lastPath;
+    private String lastUser;
+    private byte[] lastUserBytes;
+    private volatile boolean closed;
+    private volatile BooleanSupplier partial;
+    private long requests;
+
+    /**
+     * Starts serving the given FileStructure.
+     *
+     * @param files The FileStructure served.
+     * @param lock The read lock is held while running every query, null if
+     * the structure doesn't change.
+     * @param address An InetSocketAddress or a UnixDomainSocketAddress.
+     * @throws IOException if the address can't be bound.
+     */
+    public QueryServer(FileStructure files, ReadWriteLock lock, SocketAddress address) throws IOException {
+        this.files = files;
+        this.lock = lock;
+        users = new HashMap<>();
+        paths = new LinkedHashMap<>(16, 0.75f, true);//access order, Folders are compared by identity
+        lastPath = EMPTY;
+        selector = Selector.open();
+
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        loop = new Thread(this::serve, "query-server");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * The address the server listens to, e.g. to know the port when 0 was
+     * given.
+     *
+     * @return The bound address.
+     * @throws IOException if the server is closed.
+     */
+    public SocketAddress getAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Tells the server how to know if the structure is still loading, its
+     * answers then end with PARTIAL instead of OK. It's asked while holding
+     * the read lock, so it agrees with the Files found.
+     *
+     * @param partial true while loading, null if the structure is complete.
+     */
+    public void setPartial(BooleanSupplier partial) {
+        this.partial = partial;
+    }
+
+    /**
+     * The number of requests answered so far.
+     *
+     * @return The number of requests.
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    private void serve() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException ex) {
+                return;
+            }
+
+            if (!selector.isOpen()) {
+                return;
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                try {
+                    if (key.isAcceptable()) {
+                        SocketChannel client = server.accept();
+                        if (client != null) {
+                            client.configureBlocking(false);
+                            client.register(selector, SelectionKey.OP_READ, new Connection());
+                        }
+                        continue;
+                    }
+
+                    if (key.isReadable()) {
+                        read(key);
+                    }
+
+                    if (key.isValid() && key.isWritable()) {
+                        write(key);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    key.cancel();
+                    try {
+                        key.channel().close();
+                    } catch (IOException closing) {
+                        //already gone
+                    }
+                }
+            }
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+
+        if (channel.read(c.in) < 0) {
+            channel.close();
+            return;
+        }
+
+        c.in.flip();
+        while (c.in.remaining() >= 4) {
+            int length = c.in.getInt(c.in.position());
+
+            if (length < 9 || length > MAX_REQUEST) {
+                throw new IOException("Bad request length: " + length);
+            }
+
+            if (c.in.remaining() < 4 + length) {
+                break;
+            }
+
+            c.in.getInt();
+            ByteBuffer request = c.in.slice();
+            request.limit(length);
+            c.in.position(c.in.position() + length);
+            c.answers.add(answer(request));
+        }
+        c.in.compact();
+
+        if (!c.answers.isEmpty()) {
+            write(key);
+        }
+    }
+
+    private Answer answer(ByteBuffer request) {
+        int id = request.getInt();
+        byte op = request.get();
+        int limit = request.getInt();
+
+        synchronized (this) {
+            ++requests;
+        }
+
+        try {
+            Cursor cursor;
+
+            switch (op) {
+                case NAME:
+                case EXT:
+                case USER:
+                    cursor = new ByKey(op, string(request));
+                    break;
+                case SIZE:
+                    cursor = new BySize(request.getLong(), request.getLong());
+                    break;
+                case FOLDER:
+                    cursor = new ByFolder(string(request));
+                    break;
+                case SUBTREE:
+                    cursor = new BySubtree(string(request));
+                    break;
+                default:
+                    return new Answer(id, null, 0, "Unknown op: " + op);
+            }
+
+            return new Answer(id, cursor, limit, null);
+        } catch (BufferUnderflowException ex) {
+            return new Answer(id, null, 0, "Missing arguments");
+        }
+    }
+
+    /**
+     * Reads the next batch of an answer holding the read lock.
+     *
+     * @return false if the answer has no more Files.
+     */
+    private boolean fill(Answer a) {
+        if (a.left == 0) {
+            return false;
+        }
+
+        if (lock != null) {
+            lock.readLock().lock();
+        }
+
+        try {
+            a.batch = a.cursor.next(files, Math.min(BATCH, a.left));
+            a.next = 0;
+            a.left -= a.batch.size();
+            BooleanSupplier p = partial;
+            a.partial |= p != null && p.getAsBoolean();
+        } finally {
+            if (lock != null) {
+                lock.readLock().unlock();
+            }
+        }
+
+        return !a.batch.isEmpty();
+    }
+
+    private static String string(ByteBuffer request) {
+        int length = request.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        request.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+
+        while (true) {
+            if (!c.out.hasRemaining()) {
+                if (c.answers.isEmpty()) {
+                    break;
+                }
+
+                c.out.clear();
+                encode(c);
+                c.out.flip();
+            }
+
+            channel.write(c.out);
+            if (c.out.hasRemaining()) {
+                break;//the socket is full
+            }
+        }
+
+        boolean pending = c.out.hasRemaining() || !c.answers.isEmpty();
+        //stop reading while there are answers pending
+        key.interestOps(pending ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Encodes as many frames of the pending answers as fit in the buffer.
+     */
+    private void encode(Connection c) {
+        ByteBuffer out = c.out;
+
+        while (!c.answers.isEmpty() && out.remaining() >= 64) {
+            Answer a = c.answers.peek();
+            int start = out.position();
+            out.position(start + 4);
+            out.putInt(a.id);
+
+            if (a.error != null) {
+                byte[] msg = a.error.getBytes(StandardCharsets.UTF_8);
+                out.put(ERROR).putInt(0).putShort((short) msg.length).put(msg);
+                out.putInt(start, out.position() - start - 4);
+                c.answers.poll();
+                continue;
+            }
+
+            int statusAt = out.position();
+            out.put(MORE);
+            int countAt = out.position();
+            out.putInt(0);
+            int count = 0;
+            boolean full = false;
+
+            while (a.next < a.batch.size() || fill(a)) {
+                if (!put(out, a.batch.get(a.next))) {
+                    full = true;
+                    break;
+                }
+
+                ++a.next;
+                ++count;
+            }
+
+            if (count == 0 && full) {
+                if (start == 0) {
+                    throw new IllegalStateException("Entry bigger than the buffer: " + a.batch.get(a.next).getPath());
+                }
+
+                out.position(start);//it goes in the next buffer
+                break;
+            }
+
+            if (!full) {
+                out.put(statusAt, a.partial ? PARTIAL : OK);
+                c.answers.poll();
+            }
+
+            out.putInt(countAt, count);
+            out.putInt(start, out.position() - start - 4);
+
+            if (full) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The encoded path of a Folder, cached forgetting the least recently used
+     * one when there are more than PATHS.
+     */
+    private byte[] path(Folder folder) {
+        byte[] ret = paths.computeIfAbsent(folder, QueryServer::pathOf);
+
+        if (paths.size() > PATHS) {
+            Iterator<byte[]> it = paths.values().iterator();
+            it.next();
+            it.remove();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Writes the entry of a File, if it fits.
+     *
+     * @return false if the buffer hasn't room for it.
+     */
+    private boolean put(ByteBuffer out, File f) {
+        if (f.getParent() != lastFolder) {//the Files of an answer usually come by Folder
+            lastFolder = f.getParent();
+            lastPath = lastFolder == null ? EMPTY : path(lastFolder);
+        }
+
+        if (!f.getUser().equals(lastUser)) {
+            lastUser = f.getUser();
+            lastUserBytes = users.computeIfAbsent(lastUser, QueryServer::utf8);
+        }
+
+        byte[] parent = lastPath;
+        byte[] user = lastUserBytes;
+        String name = f.getName();
+        int start = out.position();
+        int rest = 8 + 2 + user.length + 1;
+
+        //UTF-8 takes at most 3 bytes per char, with room for that the name is written as it's read
+        if (out.remaining() >= 2 + parent.length + 3 * name.length() + 1 + rest
+                && parent.length + 3 * name.length() + 1 <= 0xffff) {
+            out.position(start + 2);
+            out.put(parent);
+
+            for (int i = 0; i < name.length(); ++i) {
+                char ch = name.charAt(i);
+                if (ch >= 0x80) {
+                    out.position(start + 2 + parent.length);
+                    out.put(name.getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                out.put((byte) ch);
+            }
+        } else {
+            byte[] bytes = utf8(name);
+            int length = Math.min(parent.length + bytes.length + 1, 0xffff);
+
+            if (out.remaining() < 2 + length + rest) {
+                return false;
+            }
+
+            out.position(start + 2);
+            out.put(parent, 0, Math.min(parent.length, length));
+            out.put(bytes, 0, Math.max(0, Math.min(bytes.length, length - parent.length)));
+        }
+
+        if (f instanceof Folder) {
+            out.put((byte) '/');
+        }
+
+        out.putShort(start, (short) (out.position() - start - 2));
+        out.putLong(f.getSize());
+        out.putShort((short) user.length).put(user);
+        out.put((byte) (f instanceof Folder ? 1 : 0));
+        return true;
+    }
+
+    private static byte[] pathOf(Folder folder) {
+        return folder.getPath().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] ret = s.getBytes(StandardCharsets.UTF_8);
+        return ret.length <= 0xffff ? ret : Arrays.copyOf(ret, 0xffff);
+    }
+
+    /**
+     * Stops serving and closes every connection.
+     *
+     * @throws IOException if an IO error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+
+        try {
+            loop.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+
+        selector.close();
+    }
+}
@@ -0,0 +1,147 @@
+package fplogn;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Writes the records of a mutation log and applies them to a FileStructure.
+ * A record says which File was added: its kind, its parent's path, its name,
+ * size, user and modification time (not in the records of version 1 logs).
+ * The parent Folder has to exist before its children are applied, so the
+ * writer first declares every Folder it hasn't written yet (DECLARE records),
+ * and the reader keeps the Folder of every path, so Files read later share
+ * the same Folder objects.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class RecordCodec {
+
+    /**
+     * A File was added.
+     */
+    static final byte FILE = 0;
+    /**
+     * A Folder was added.
+     */
+    static final byte FOLDER = 1;
+    /**
+     * A Folder exists, but it isn't added yet.
+     */
+    static final byte DECLARE = 2;
+
+    private final FileStructure files;
+    private final HashMap<String, Folder> folders;
+
+    /**
+     * Builds a new RecordCodec which applies the records to the given
+     * FileStructure.
+     *
+     * @param files Where the records are applied, null to only read them.
+     */
+    RecordCodec(FileStructure files) {
+        this.files = files;
+        folders = new HashMap<>();
+    }
+
+    /**
+     * Writes a record.
+     *
+     * @param out Where the record is written.
+     * @param kind FILE, FOLDER or DECLARE.
+     * @param file The File of the record.
+     * @throws IOException if out throws it.
+     */
+    static void write(DataOutput out, byte kind, File file) throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(file.getParent() == null ? "" : file.getParent().getPath());
+        out.writeUTF(file.getName());
+        out.writeLong(file.getSize());
+        out.writeUTF(file.getUser());
+        out.writeLong(file.getMtime());
+    }
+
+    /**
+     * The length of the start of a written record which tells its File apart
+     * from the others: the kind, the path of the parent and the name.
+     *
+     * @param record The record.
+     * @return The length in bytes.
+     */
+    static int pathLength(byte[] record) {
+        //writeUTF writes the length in two bytes, big endian
+        int name = 3 + ((record[1] & 0xff) << 8 | (record[2] & 0xff));
+        return name + 2 + ((record[name] & 0xff) << 8 | (record[name + 1] & 0xff));
+    }
+
+    /**
+     * Reads a record and applies it, adding its File to the FileStructure.
+     *
+     * @param in The record, alone in the stream.
+     * @throws IOException if in throws it or the record is malformed.
+     */
+    void apply(DataInputStream in) throws IOException {
+        File file = read(in);
+
+        if (file != null) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Reads a record without applying it. The Folders read are kept, so the
+     * Files read later share them.
+     *
+     * @param in The record, alone in the stream.
+     * @return The File or Folder of the record, null for a DECLARE.
+     * @throws IOException if in throws it or the record is malformed.
+     */
+    File read(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        Folder parent = folder(in.readUTF());
+        String name = in.readUTF();
+        long size = in.readLong();
+        String user = in.readUTF();
+        long mtime = in.available() >= 8 ? in.readLong() : File.NO_MTIME;
+
+        switch (kind) {
+            case FILE:
+                return new File(name, parent, size, user, mtime);
+            case FOLDER:
+            case DECLARE:
+                String path = (parent == null ? "" : parent.getPath()) + name + "/";
+                Folder curr = folders.get(path);
+
+                if (curr == null) {
+                    curr = new Folder(name, parent, size, user, mtime);
+                    folders.put(path, curr);
+                }
+
+                return kind == FOLDER ? curr : null;
+            default:
+                throw new IOException("Unknown record kind: " + kind);
+        }
+    }
+
+    /**
+     * The Folder with the given path. Every Folder is declared before it's
+     * used, except when the log was written without the Folder (e.g. it was
+     * added before the log was opened), then it's made with an unknown user.
+     */
+    private Folder folder(String path) {
+        if (path.length() == 0) {
+            return null;
+        }
+
+        Folder ret = folders.get(path);
+
+        if (ret == null) {
+            int slash = path.lastIndexOf('/', path.length() - 2);
+            ret = new Folder(path.substring(slash + 1, path.length() - 1), folder(path.substring(0, slash + 1)), "");
+            folders.put(path, ret);
+        }
+
+        return ret;
+    }
+}
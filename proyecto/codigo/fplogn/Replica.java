@@ -0,0 +1,310 @@
+package fplogn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * The follower side of the replication: a read only copy of the FileStructure
+ * of a primary, kept updated with the frames shipped by its ReplicationServer.
+ *
+ * The frames are also written to a local directory with the same format of a
+ * WriteAheadLog, so after a restart the Replica recovers from it and asks the
+ * primary only for what it missed (or for a new snapshot if the primary
+ * doesn't have it anymore). The local log isn't synced, the primary always has
+ * what's lost.
+ *
+ * Queries run with read(Function) under a read lock, while the frames are
+ * applied under the write lock.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Replica implements Closeable {
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final Path dir;
+    private final SocketAddress primary;
+    private final ReentrantReadWriteLock lock;
+    private final Thread follower;
+    private FileStructure files;
+    private RecordCodec codec;
+    private FileChannel log;
+    private DataOutputStream logOut;
+    private volatile SocketChannel socket;
+    private volatile SocketChannel channel;
+    private volatile long applied;
+    private volatile long primarySequence;
+    private volatile long lagMillis;
+    private volatile boolean closed;
+
+    /**
+     * Recovers the Replica saved in the given directory (if any) and starts
+     * following the primary.
+     *
+     * @param dir The local directory of the Replica.
+     * @param primary The address of the primary's ReplicationServer.
+     * @throws IOException if the local directory can't be read.
+     */
+    public Replica(Path dir, SocketAddress primary) throws IOException {
+        this.dir = dir;
+        this.primary = primary;
+        lock = new ReentrantReadWriteLock();
+        Files.createDirectories(dir);
+
+        files = new FileStructure();
+        codec = new RecordCodec(files);
+        applied = WriteAheadLog.replay(dir, codec);
+        primarySequence = applied;
+        openLog();
+
+        follower = new Thread(this::follow, "replica");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(dir.resolve(WriteAheadLog.LOG), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (log.size() >= LogFile.HEADER) {
+            //forget a frame cut by a crash
+            LogFile.Reader reader = new LogFile.Reader(new BufferedInputStream(
+                    Channels.newInputStream(log.position(0))));
+            while (reader.next()) {
+                //just looking for the end
+            }
+
+            log.truncate(reader.position());
+            log.position(reader.position());
+        } else {
+            log.truncate(0);
+            log.write(LogFile.header(applied), 0);
+            log.position(LogFile.HEADER);
+        }
+
+        logOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(log), 1 << 16));
+    }
+
+    private void follow() {
+        while (!closed) {
+            try (SocketChannel c = primary instanceof UnixDomainSocketAddress
+                    ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open()) {
+                //published before connecting, so close() can stop a connect too
+                socket = c;
+                if (closed) {
+                    break;
+                }
+
+                c.connect(primary);
+                channel = c;
+
+                DataOutputStream out = new DataOutputStream(Channels.newOutputStream(c));
+                out.writeLong(applied);
+                out.flush();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c), 1 << 16));
+                byte mode = in.readByte();
+                LogFile.Reader reader = new LogFile.Reader(in);
+
+                if (mode == ReplicationServer.SNAPSHOT) {
+                    snapshot(reader);
+                }
+
+                while (reader.next()) {
+                    if (reader.isHeartbeat()) {
+                        primarySequence = Math.max(primarySequence, reader.sequence());
+                        if (applied >= primarySequence) {
+                            lagMillis = 0;
+                        }
+                        logOut.flush();
+                    } else if (reader.sequence() > applied) {
+                        apply(reader);
+                    }
+                }
+            } catch (IOException ex) {
+                //the primary is gone, try again later
+            } finally {
+                channel = null;
+            }
+
+            try {
+                logOut.flush();
+            } catch (IOException ex) {
+                //the next frames will fail too
+            }
+
+            synchronized (this) {
+                if (!closed) {
+                    try {
+                        wait(RETRY_MILLIS);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void apply(LogFile.Reader reader) throws IOException {
+        lock.writeLock().lock();
+        try {
+            codec.apply(reader.record());
+            applied = reader.sequence();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        primarySequence = Math.max(primarySequence, applied);
+        lagMillis = Math.max(0, System.currentTimeMillis() - reader.millis());
+        reader.copyTo(logOut);
+    }
+
+    /**
+     * Reads a whole snapshot (until its ending heartbeat), saves it as the
+     * local checkpoint and replaces the FileStructure with it.
+     */
+    private void snapshot(LogFile.Reader reader) throws IOException {
+        long base = reader.base();
+        FileStructure fresh = new FileStructure();
+        RecordCodec freshCodec = new RecordCodec(fresh);
+        Path tmp = dir.resolve(WriteAheadLog.CHECKPOINT + ".tmp");
+
+        try (OutputStream file = Files.newOutputStream(tmp)) {
+            DataOutputStream checkpoint = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            checkpoint.write(LogFile.header(base).array(), 0, LogFile.HEADER);
+
+            while (reader.next() && !reader.isHeartbeat()) {
+                freshCodec.apply(reader.record());
+                reader.copyTo(checkpoint);
+            }
+
+            if (!reader.isHeartbeat()) {
+                throw new IOException("Snapshot cut");
+            }
+
+            checkpoint.flush();
+        }
+
+        Files.move(tmp, dir.resolve(WriteAheadLog.CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        logOut.flush();
+        log.truncate(0);
+        log.position(0);
+        log.write(LogFile.header(base));
+
+        lock.writeLock().lock();
+        try {
+            files = fresh;
+            codec = freshCodec;
+            applied = base;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        primarySequence = Math.max(primarySequence, base);
+    }
+
+    /**
+     * Runs a query over the replicated FileStructure, no frame is applied
+     * meanwhile. Several threads may query at once, the snapshots the searches
+     * build (e.g. the tour of getBySubtree) are built once and shared.
+     *
+     * @param <T> The type of the result.
+     * @param query The query, it mustn't change the FileStructure nor keep
+     * it.
+     * @return The result of the query.
+     */
+    public <T> T read(Function<FileStructure, T> query) {
+        lock.readLock().lock();
+        try {
+            return query.apply(files);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The sequence number of the last record applied.
+     *
+     * @return The position of the Replica in the primary's log.
+     */
+    public long applied() {
+        return applied;
+    }
+
+    /**
+     * How many records the Replica is behind the primary, as of the last
+     * frame received.
+     *
+     * @return The primary's sequence number minus applied().
+     */
+    public long lagEntries() {
+        return Math.max(0, primarySequence - applied);
+    }
+
+    /**
+     * How long the last record applied took to get here since the primary
+     * logged it, 0 once the Replica caught up.
+     *
+     * @return The lag in milliseconds.
+     */
+    public long lagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Tells if the Replica is connected to the primary.
+     *
+     * @return true while following it.
+     */
+    public boolean isConnected() {
+        return channel != null;
+    }
+
+    /**
+     * Stops following the primary and closes the local log. The follower is
+     * stopped closing its socket, not interrupting it, since an interrupt
+     * would close the local log under its feet.
+     *
+     * @throws IOException if an IO error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        SocketChannel c = socket;
+        if (c != null) {
+            c.close();
+        }
+
+        try {
+            follower.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        logOut.flush();
+        log.close();
+    }
+}
@@ -0,0 +1,299 @@
+package fplogn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * The primary side of the replication: ships the frames of a WriteAheadLog to
+ * every Replica connected, over TCP or a Unix domain socket.
+ *
+ * A Replica connects telling the sequence number of the last record it
+ * applied. If the frames after it are still in the backlog kept in memory, it
+ * gets them, otherwise it gets a snapshot of the whole FileStructure first.
+ * Then it gets every batch as soon as it's durable on the primary, and a
+ * heartbeat with the primary's sequence number when there's nothing to send,
+ * so the Replica can tell how far behind it is.
+ *
+ * The FileStructure must be changed only while holding the write lock of the
+ * given ReadWriteLock, the snapshots are taken with its read lock.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class ReplicationServer implements WriteAheadLog.BatchListener, Closeable {
+
+    /**
+     * The first byte sent to a Replica: a snapshot (a header, the frames of
+     * the whole tree and a heartbeat) comes before the log, or only the log
+     * (a header and the frames after the Replica's sequence number).
+     */
+    static final byte SNAPSHOT = 'S';
+    static final byte LOG = 'L';
+
+    private static final long HEARTBEAT_MILLIS = 100;
+
+    /**
+     * A batch of frames kept in the backlog.
+     */
+    private static class Batch {
+
+        private final long first;
+        private final long last;
+        private final byte[] frames;
+
+        private Batch(long first, long last, byte[] frames) {
+            this.first = first;
+            this.last = last;
+            this.frames = frames;
+        }
+    }
+
+    /**
+     * A connected Replica, with the batches waiting to be sent to it.
+     */
+    private class Follower implements Runnable {
+
+        private final SocketChannel channel;
+        private final ArrayBlockingQueue<Batch> queue;
+
+        private Follower(SocketChannel channel) {
+            this.channel = channel;
+            queue = new ArrayBlockingQueue<>(1024);
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel c = channel) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c)));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c), 1 << 16));
+                LogFile.Writer writer = new LogFile.Writer(out);
+
+                long applied = in.readLong();
+                byte[] snapshot = null;
+                long base = 0;
+                List<Batch> pending;
+
+                lock.readLock().lock();
+                try {
+                    synchronized (ReplicationServer.this) {
+                        pending = since(applied);
+
+                        if (pending == null) {
+                            //the snapshot is taken with no adds, so it has every record up to base
+                            base = log.sequence();
+                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            LogFile.Writer tree = new LogFile.Writer(bytes);
+                            tree.tree(files, base);
+                            tree.flush();
+                            snapshot = bytes.toByteArray();
+                            pending = new ArrayList<>();
+                        }
+
+                        pending.forEach(queue::add);
+                        followers.add(this);
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+
+                if (snapshot != null) {
+                    out.writeByte(SNAPSHOT);
+                    writer.header(base);
+                    out.write(snapshot);
+                    writer.heartbeat(base, System.currentTimeMillis());//the end of the snapshot
+                } else {
+                    out.writeByte(LOG);
+                    writer.header(applied);
+                }
+
+                out.flush();
+
+                while (!closed) {
+                    Batch next = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+
+                    if (next == null) {
+                        writer.heartbeat(log.sequence(), System.currentTimeMillis());
+                    } else {
+                        out.write(next.frames);
+                    }
+
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException ex) {
+                //the Replica is gone, it will catch up when it connects again
+            } finally {
+                synchronized (ReplicationServer.this) {
+                    followers.remove(this);
+                }
+            }
+        }
+    }
+
+    private final FileStructure files;
+    private final WriteAheadLog log;
+    private final ReadWriteLock lock;
+    private final long backlogBytes;
+    private final ArrayDeque<Batch> backlog;
+    private final ArrayList<Follower> followers;
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+    private long backlogSize;
+    private long shipped;
+    private volatile boolean closed;
+
+    /**
+     * Starts shipping the given WriteAheadLog to the Replicas which connect to
+     * the given address.
+     *
+     * @param files The FileStructure logged.
+     * @param log Its WriteAheadLog.
+     * @param lock The lock held to change files.
+     * @param address An InetSocketAddress or a UnixDomainSocketAddress.
+     * @param backlogBytes How many bytes of the latest frames are kept to let
+     * the Replicas catch up without a snapshot.
+     * @throws IOException if the address can't be bound.
+     */
+    public ReplicationServer(FileStructure files, WriteAheadLog log, ReadWriteLock lock,
+            SocketAddress address, long backlogBytes) throws IOException {
+        this.files = files;
+        this.log = log;
+        this.lock = lock;
+        this.backlogBytes = backlogBytes;
+        backlog = new ArrayDeque<>();
+        followers = new ArrayList<>();
+
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+
+        server.bind(address);
+
+        lock.readLock().lock();
+        try {
+            log.awaitDurable(log.sequence());
+
+            synchronized (this) {
+                shipped = log.durable();
+            }
+
+            log.addBatchListener(this);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Thread t = new Thread(new Follower(server.accept()), "replication-follower");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException ex) {
+                //closed, or a failed connection
+            }
+        }
+    }
+
+    /**
+     * The batches a Replica needs after the given sequence number.
+     *
+     * @return The batches, or null if a snapshot is needed.
+     */
+    private List<Batch> since(long applied) {
+        ArrayList<Batch> ret = new ArrayList<>();
+
+        if (applied == shipped) {
+            return ret;
+        }
+
+        if (applied > shipped || backlog.isEmpty() || backlog.peekFirst().first > applied + 1) {
+            return null;
+        }
+
+        for (Batch b : backlog) {
+            if (b.last > applied) {
+                ret.add(b);
+            }
+        }
+
+        return ret;
+    }
+
+    @Override
+    public synchronized void written(long first, long last, byte[] frames) {
+        Batch batch = new Batch(first, last, frames);
+        backlog.addLast(batch);
+        backlogSize += frames.length;
+        shipped = last;
+
+        while (backlogSize > backlogBytes && backlog.size() > 1) {
+            backlogSize -= backlog.removeFirst().frames.length;
+        }
+
+        for (Follower f : new ArrayList<>(followers)) {
+            if (!f.queue.offer(batch)) {
+                //too slow, it will catch up when it connects again
+                followers.remove(f);
+                try {
+                    f.channel.close();
+                } catch (IOException ex) {
+                    //already closed
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of Replicas connected.
+     *
+     * @return How many Replicas are being shipped the log.
+     */
+    public synchronized int followers() {
+        return followers.size();
+    }
+
+    /**
+     * Stops shipping and disconnects every Replica.
+     *
+     * @throws IOException if an IO error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        log.removeBatchListener(this);
+        server.close();
+
+        synchronized (this) {
+            for (Follower f : followers) {
+                f.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package fplogn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A centered interval tree over the size ranges of StandingQueries, to find
+ * the ones containing a given size (stabbing) in O(log(n) + k). Every node
+ * keeps the ranges which contain its center twice, sorted by their minimum
+ * and by their maximum, so a stab only walks the ranges it reports; the
+ * ranges entirely to the left or to the right of the center go to the
+ * children.
+ *
+ * It's immutable, StandingQueries builds a new one when the queries change.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class SizeIntervals {
+
+    private static final Comparator<StandingQuery> BY_MIN = Comparator.comparingLong(StandingQuery::getMinSize);
+    private static final Comparator<StandingQuery> BY_MAX = Comparator.comparingLong(StandingQuery::getMaxSize);
+
+    private final long center;
+    private final StandingQuery[] byMin;
+    private final StandingQuery[] byMax;
+    private final SizeIntervals left;
+    private final SizeIntervals right;
+
+    private SizeIntervals(List<StandingQuery> queries) {
+        //the median of the endpoints splits the ranges in halves
+        long[] ends = new long[queries.size() * 2];
+        for (int i = 0; i < queries.size(); ++i) {
+            ends[2 * i] = queries.get(i).getMinSize();
+            ends[2 * i + 1] = queries.get(i).getMaxSize();
+        }
+        Arrays.sort(ends);
+        center = ends[ends.length / 2];
+
+        ArrayList<StandingQuery> here = new ArrayList<>();
+        ArrayList<StandingQuery> lower = new ArrayList<>();
+        ArrayList<StandingQuery> upper = new ArrayList<>();
+
+        for (StandingQuery q : queries) {
+            if (q.getMaxSize() < center) {
+                lower.add(q);
+            } else if (q.getMinSize() > center) {
+                upper.add(q);
+            } else {
+                here.add(q);
+            }
+        }
+
+        byMin = here.toArray(new StandingQuery[here.size()]);
+        Arrays.sort(byMin, BY_MIN);
+        byMax = here.toArray(new StandingQuery[here.size()]);
+        Arrays.sort(byMax, BY_MAX.reversed());
+        left = lower.isEmpty() ? null : new SizeIntervals(lower);
+        right = upper.isEmpty() ? null : new SizeIntervals(upper);
+    }
+
+    /**
+     * Builds the tree of the given queries.
+     *
+     * @param queries The queries, all of them with a size range.
+     * @return The tree, null if there are no queries.
+     */
+    static SizeIntervals of(List<StandingQuery> queries) {
+        return queries.isEmpty() ? null : new SizeIntervals(queries);
+    }
+
+    /**
+     * Calls found with every query whose range contains the given size.
+     *
+     * @param size The size of a File.
+     * @param found Gets the queries.
+     */
+    void stab(long size, Consumer<StandingQuery> found) {
+        SizeIntervals node = this;
+
+        while (node != null) {
+            if (size < node.center) {
+                //every range here ends at or after the center, only the min matters
+                for (StandingQuery q : node.byMin) {
+                    if (q.getMinSize() > size) {
+                        break;
+                    }
+                    found.accept(q);
+                }
+                node = node.left;
+            } else if (size > node.center) {
+                for (StandingQuery q : node.byMax) {
+                    if (q.getMaxSize() < size) {
+                        break;
+                    }
+                    found.accept(q);
+                }
+                node = node.right;
+            } else {
+                for (StandingQuery q : node.byMin) {
+                    found.accept(q);
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package fplogn;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * Every File of a FileStructure in an array sorted by size, with a parallel
+ * array of the sizes, so the Files with a size in a range are a contiguous
+ * part of the array found with two binary searches. Like the EulerTour, it's a
+ * snapshot built in O(n) from the size index and it has to be built again
+ * after the structure changes.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class SizeOrder {
+
+    private final File[] files;
+    private final long[] sizes;
+
+    /**
+     * Builds the snapshot from the given size index.
+     *
+     * @param bySize The lists of Files by size, in order.
+     * @param n The number of Files in the lists.
+     */
+    SizeOrder(Map<Long, Postings> bySize, int n) {
+        files = new File[n];
+        sizes = new long[n];
+        int i = 0;
+
+        for (Map.Entry<Long, Postings> e : bySize.entrySet()) {
+            for (File f : e.getValue()) {
+                files[i] = f;
+                sizes[i++] = e.getKey();
+            }
+        }
+    }
+
+    /**
+     * A Spliterator over the Files with a size between min and max, both
+     * included.
+     *
+     * @param min The minimum size.
+     * @param max The maximum size.
+     * @return A Spliterator which splits the range in halves.
+     */
+    Spliterator<File> range(long min, long max) {
+        int from = lowerBound(min);
+        int to = max == Long.MAX_VALUE ? sizes.length : Math.max(from, lowerBound(max + 1));
+        return Spliterators.spliterator(files, from, to, FileStructure.SPLITERATOR);
+    }
+
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = sizes.length;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (sizes[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+}
@@ -0,0 +1,281 @@
+package fplogn;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Approximate summaries of a FileStructure, kept up to date on every add, for
+ * questions the exact trees answer only walking many Files: how many distinct
+ * names and users there are under a Folder (a HyperLogLog pair per Folder),
+ * how many Files have a given name or extension (a CountMinSketch each) and
+ * which names and extensions are the most repeated (a SpaceSaving each).
+ *
+ * Error bounds, n being the number of Files added:
+ *
+ * distinct counts: standard error 1.04 / sqrt(2^precision), 3.25% by default;
+ * frequencies: never below the true count, at most e / width * n above it with
+ * probability 1 - e^-depth; heavy hitters: every value with more than
+ * n / capacity Files is reported, its count at most its error (which is at
+ * most n / capacity) above the true one.
+ *
+ * An add costs O(depth) for the frequencies, O(log(capacity)) for the heavy
+ * hitters and O(1) per Folder above the File for the distinct counts, whatever
+ * the number of Files. They're optional: a FileStructure only keeps them while
+ * a Sketches is registered on it.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Sketches implements MutationListener {
+
+    /**
+     * A heavy hitter with its estimated count, which exceeds the true count by
+     * at most error.
+     */
+    public static class Frequency {
+
+        private final String value;
+        private final long count;
+        private final long error;
+
+        Frequency(String value, long count, long error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * The name or extension.
+         *
+         * @return The value.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * The estimated number of Files, never below the true one.
+         *
+         * @return The count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * How much the count may exceed the true number of Files.
+         *
+         * @return The error.
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return value + "=" + count + "(-" + error + ")";
+        }
+    }
+
+    /**
+     * Default sizes: 1KB per Folder at most for each distinct count, 4 rows
+     * of 2^14 counters for each frequency and 256 heavy hitters of each kind.
+     */
+    public static final int DEFAULT_PRECISION = 10;
+    public static final int DEFAULT_WIDTH = 1 << 14;
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final FileStructure files;
+    private final int precision;
+    private final HashMap<String, HyperLogLog[]> byFolder;
+    private final CountMinSketch names;
+    private final CountMinSketch exts;
+    private final SpaceSaving topNames;
+    private final SpaceSaving topExts;
+
+    /**
+     * Builds new Sketches with the default sizes, a 3.25% standard error for
+     * the distinct counts and e / 2^14 * n for the frequencies, with
+     * probability 98%.
+     *
+     * @param files The FileStructure summarized.
+     */
+    public Sketches(FileStructure files) {
+        this(files, DEFAULT_PRECISION, DEFAULT_WIDTH, DEFAULT_DEPTH, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Builds new Sketches with the Files already in the given FileStructure
+     * and registers them as listener of it.
+     *
+     * @param files The FileStructure summarized.
+     * @param precision Each distinct count uses up to 2^precision bytes, 4 to
+     * 16.
+     * @param width The counters per row of the frequencies.
+     * @param depth The rows of the frequencies.
+     * @param capacity The values kept by the heavy hitters.
+     */
+    public Sketches(FileStructure files, int precision, int width, int depth, int capacity) {
+        if (precision < 4 || precision > 16 || width < 1 || depth < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid sketch size");
+        }
+
+        this.files = files;
+        this.precision = precision;
+        byFolder = new HashMap<>();
+        names = new CountMinSketch(width, depth);
+        exts = new CountMinSketch(width, depth);
+        topNames = new SpaceSaving(capacity);
+        topExts = new SpaceSaving(capacity);
+
+        for (TreeSet<File> childs : files.folderTree().values()) {
+            for (File f : childs) {
+                added(f);
+            }
+        }
+
+        files.addListener(this);
+    }
+
+    /**
+     * Stops following the FileStructure, the estimates stay as they are.
+     */
+    public void close() {
+        files.removeListener(this);
+    }
+
+    @Override
+    public void added(File file) {
+        String ext = FileStructure.extOf(file.getName());
+        long name = HyperLogLog.hash(file.getName());
+        long user = HyperLogLog.hash(file.getUser());
+
+        names.add(name);
+        exts.add(HyperLogLog.hash(ext));
+        topNames.add(file.getName());
+        topExts.add(ext);
+
+        //every Folder above the File, from HOME to its parent
+        String path = file.getParent() == null ? "" : file.getParent().getPath();
+        addUnder("", name, user);
+        for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+            addUnder(path.substring(0, i + 1), name, user);
+        }
+    }
+
+    private void addUnder(String path, long name, long user) {
+        HyperLogLog[] curr = byFolder.get(path);
+
+        if (curr == null) {
+            curr = new HyperLogLog[]{new HyperLogLog(precision), new HyperLogLog(precision)};
+            byFolder.put(path, curr);
+        }
+
+        curr[0].add(name);
+        curr[1].add(user);
+    }
+
+    /**
+     * The estimated number of distinct names of the Files and Folders anywhere
+     * under the given Folder.
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @return The estimate, 0 if nothing is under the Folder.
+     */
+    public long getDistinctNamesUnder(String path) {
+        HyperLogLog[] curr = byFolder.get(path);
+        return curr == null ? 0 : curr[0].estimate();
+    }
+
+    /**
+     * The estimated number of distinct users of the Files and Folders anywhere
+     * under the given Folder.
+     *
+     * @param path The path of the Folder, HOME path is "".
+     * @return The estimate, 0 if nothing is under the Folder.
+     */
+    public long getDistinctUsersUnder(String path) {
+        HyperLogLog[] curr = byFolder.get(path);
+        return curr == null ? 0 : curr[1].estimate();
+    }
+
+    /**
+     * The standard error of the distinct counts, relative to the true count.
+     *
+     * @return 1.04 / sqrt(2^precision).
+     */
+    public double getDistinctError() {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * The estimated number of Files and Folders with the given name.
+     *
+     * @param name The name.
+     * @return The estimate, never below the true count.
+     */
+    public long getNameFrequency(String name) {
+        return names.estimate(HyperLogLog.hash(name));
+    }
+
+    /**
+     * The estimated number of Files and Folders with the given extension.
+     *
+     * @param ext The extension without the dot, "" for none.
+     * @return The estimate, never below the true count.
+     */
+    public long getExtFrequency(String ext) {
+        return exts.estimate(HyperLogLog.hash(ext));
+    }
+
+    /**
+     * How much a frequency may exceed the true count, which holds with
+     * probability 1 - getFrequencyFailure().
+     *
+     * @return e / width * n.
+     */
+    public long getFrequencyError() {
+        return names.error();
+    }
+
+    /**
+     * The probability that a frequency exceeds getFrequencyError().
+     *
+     * @return e^-depth.
+     */
+    public double getFrequencyFailure() {
+        return names.failure();
+    }
+
+    /**
+     * The most repeated names, every name with more than n / capacity Files
+     * and Folders is among them.
+     *
+     * @param k The maximum number of names.
+     * @return The names, most repeated first.
+     */
+    public List<Frequency> getTopNames(int k) {
+        return topNames.top(k);
+    }
+
+    /**
+     * The most repeated extensions, every extension with more than
+     * n / capacity Files and Folders is among them.
+     *
+     * @param k The maximum number of extensions.
+     * @return The extensions, most repeated first.
+     */
+    public List<Frequency> getTopExts(int k) {
+        return topExts.top(k);
+    }
+
+    /**
+     * The bound of the error of the heavy hitters.
+     *
+     * @return n / capacity.
+     */
+    public long getTopError() {
+        return topNames.error();
+    }
+}
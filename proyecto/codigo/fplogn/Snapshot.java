@@ -0,0 +1,102 @@
+package fplogn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A structure built lazily from a FileStructure (e.g. the EulerTour) and
+ * thrown away when the FileStructure changes, or kept up to date by the
+ * changes once it's built (see peek()). Searches only hold a shared read
+ * lock (see Replica or QueryServer), so several of them may ask for it at the
+ * same time: it's built by one of them while the others wait, and it's only
+ * published once it's complete. Changes are made holding the write lock, so
+ * clear() never runs at the same time as a build.
+ *
+ * While the structure keeps changing (e.g. a load with searches meanwhile),
+ * building it for every search would make each one O(n), so a search can ask
+ * for it with get(long): while it's stale, the searches answer without it
+ * (e.g. walking the Folders) and charge() the work they did, and it's built
+ * again once that work adds up to the cost of building it. So the searches
+ * never take more than twice what they would take without it, and once the
+ * changes stop they take what they take with it.
+ *
+ * @param <T> The type of the structure.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class Snapshot<T> {
+
+    private final Supplier<T> builder;
+    private final AtomicLong debt;
+    private volatile T value;
+
+    /**
+     * Builds a new empty Snapshot.
+     *
+     * @param builder Builds the structure from the current FileStructure.
+     */
+    Snapshot(Supplier<T> builder) {
+        this.builder = builder;
+        debt = new AtomicLong();
+    }
+
+    /**
+     * The structure, built if the FileStructure changed since the last time.
+     *
+     * @return The structure.
+     */
+    T get() {
+        T ret = value;
+
+        if (ret == null) {
+            synchronized (this) {
+                ret = value;
+
+                if (ret == null) {
+                    ret = builder.get();
+                    value = ret;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * The structure if it's fresh, or if the searches made without it since
+     * the last change did as much work as building it.
+     *
+     * @param cost The work of building it, e.g. the number of Files.
+     * @return The structure, null if the search should go without it.
+     */
+    T get(long cost) {
+        T ret = value;
+        return ret != null || debt.get() < cost ? ret : get();
+    }
+
+    /**
+     * Adds the work of a search made without the structure, see get(long).
+     *
+     * @param work The work done, e.g. the number of Files visited.
+     */
+    void charge(long work) {
+        debt.addAndGet(work);
+    }
+
+    /**
+     * The structure if it's built, for the changes which keep it up to date.
+     *
+     * @return The structure, null if it isn't built.
+     */
+    T peek() {
+        return value;
+    }
+
+    /**
+     * Throws the structure away, called after every change.
+     */
+    void clear() {
+        value = null;
+        debt.set(0);
+    }
+}
@@ -0,0 +1,494 @@
+package fplogn;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable file of (key, value) records sorted by key, one of the runs of
+ * an index of an LsmStructure. The file is:
+ * <pre>[int MAGIC][int VERSION]
+ * records:  [int keyLength][key][int valueLength][value]...
+ * sparse:   [int n] n * [int keyLength][key][long offset]
+ * bloom:    see BloomFilter.write
+ * footer:   [long sparseOffset][long bloomOffset][long records][int MAGIC]</pre>
+ * Runs of another VERSION (1 had an unblocked bloom filter, 2 one probed by
+ * double hashing) aren't opened.
+ *
+ * Keys are compared as unsigned bytes and a key may have many records. The
+ * sparse index has the offset of the first record of a key every SPARSE
+ * records or so, and it's kept in memory with the bloom filter of the keys,
+ * so a key which isn't in the run is usually answered without reading the
+ * file, and one which is reads at most SPARSE records before its own.
+ *
+ * The records are read with positional reads, so many threads can read a run
+ * at the same time. A run replaced by a compaction is retired, and its file is
+ * deleted when the last reader releases it.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class SortedRun {
+
+    static final int MAGIC = 0x4650524e;//FPRN
+    static final int VERSION = 3;
+    static final int SPARSE = 64;
+    private static final int FOOTER = 28;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long dataEnd;
+    private final long records;
+    private final byte[][] sparseKeys;
+    private final long[] sparseOffsets;
+    private final BloomFilter bloom;
+    private final AtomicLong skipped;
+    private int readers;
+    private boolean retired;
+
+    private SortedRun(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        skipped = new AtomicLong();
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(header, 0);
+        header.flip();
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER);
+        readFully(footer, channel.size() - FOOTER);
+        footer.flip();
+        dataEnd = footer.getLong();
+        footer.getLong();//bloomOffset
+        records = footer.getLong();
+
+        if (header.getInt() != MAGIC || footer.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException("Not a run: " + path);
+        }
+
+        int version = header.getInt();
+        if (version != VERSION) {
+            channel.close();
+            throw new IOException("Unsupported run version " + version + ": " + path);
+        }
+
+        ByteBuffer tail = ByteBuffer.allocate((int) (channel.size() - FOOTER - dataEnd));
+        readFully(tail, dataEnd);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tail.array()));
+        int n = in.readInt();
+        sparseKeys = new byte[n][];
+        sparseOffsets = new long[n];
+
+        for (int i = 0; i < n; ++i) {
+            sparseKeys[i] = new byte[in.readInt()];
+            in.readFully(sparseKeys[i]);
+            sparseOffsets[i] = in.readLong();
+        }
+
+        //the bloom filter follows the sparse index
+        bloom = BloomFilter.read(in);
+    }
+
+    /**
+     * Opens the run in the given file.
+     *
+     * @param path The file.
+     * @return The run.
+     * @throws IOException if the file can't be read or isn't a run.
+     */
+    static SortedRun open(Path path) throws IOException {
+        return new SortedRun(path);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException(path.toString());
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Writes a run, the records have to be added sorted by key.
+     */
+    static final class Writer {
+
+        private final Path path;
+        private final DataOutputStream out;
+        private final DataOutputStream sparse;
+        private final ByteArrayOutputStream sparseBytes;
+        private final BloomFilter bloom;
+        private byte[] last;
+        private long offset;
+        private long records;
+        private long sinceSparse;
+        private int nSparse;
+
+        /**
+         * Starts writing a run to the given file.
+         *
+         * @param path The file, replaced if it exists.
+         * @param keys About how many distinct keys the run will have.
+         * @param fpp The false positive rate of its bloom filter.
+         * @throws IOException if the file can't be written.
+         */
+        Writer(Path path, long keys, double fpp) throws IOException {
+            this.path = path;
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+            sparseBytes = new ByteArrayOutputStream();
+            sparse = new DataOutputStream(sparseBytes);
+            bloom = new BloomFilter(keys, fpp);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            offset = 8;
+            sinceSparse = SPARSE;
+        }
+
+        /**
+         * Appends a record.
+         *
+         * @param key Its key, not less than the key of the last one.
+         * @param value Its value.
+         * @throws IOException if the file can't be written.
+         */
+        void add(byte[] key, byte[] value) throws IOException {
+            boolean first = last == null || !Arrays.equals(last, key);
+
+            if (first) {
+                if (last != null && Arrays.compareUnsigned(last, key) > 0) {
+                    throw new IllegalArgumentException("Keys out of order in " + path);
+                }
+                if (sinceSparse >= SPARSE) {
+                    sparse.writeInt(key.length);
+                    sparse.write(key);
+                    sparse.writeLong(offset);
+                    ++nSparse;
+                    sinceSparse = 0;
+                }
+                bloom.put(BloomFilter.hash(key));
+                last = key;
+            }
+
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+            offset += 8 + key.length + value.length;
+            ++records;
+            ++sinceSparse;
+        }
+
+        /**
+         * Writes the sparse index, the bloom filter and the footer, syncs the
+         * file and opens it.
+         *
+         * @return The run written.
+         * @throws IOException if the file can't be written.
+         */
+        SortedRun finish() throws IOException {
+            long sparseOffset = offset;
+            out.writeInt(nSparse);
+            sparseBytes.writeTo(out);
+            long bloomOffset = sparseOffset + 4 + sparseBytes.size();
+            bloom.write(out);
+            out.writeLong(sparseOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(records);
+            out.writeInt(MAGIC);
+            out.close();
+
+            try (FileChannel sync = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                sync.force(true);
+            }
+
+            return open(path);
+        }
+
+        /**
+         * Stops writing and deletes the file, after a failure.
+         */
+        void abort() {
+            try {
+                out.close();
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                //the file is deleted when the directory is opened again
+            }
+        }
+    }
+
+    /**
+     * Reads the records in order from a position of the file, a few KiB at a
+     * time.
+     */
+    final class Cursor {
+
+        private ByteBuffer buffer;
+        private long position;
+        private byte[] key;
+        private byte[] value;
+        private boolean pending;
+
+        private Cursor(long position) {
+            this.position = position;
+            buffer = ByteBuffer.allocate(1 << 13);
+            buffer.limit(0);
+        }
+
+        private void need(int n) throws IOException {
+            if (buffer.remaining() >= n) {
+                return;
+            }
+
+            buffer.compact();
+            if (buffer.capacity() < n) {
+                buffer = ByteBuffer.allocate(n).put(buffer.flip());
+            }
+
+            while (buffer.position() < n) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException(path.toString());
+                }
+                position += read;
+            }
+
+            buffer.flip();
+        }
+
+        private long offset() {
+            return position - buffer.remaining();
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return false if there are no more.
+         * @throws IOException if the file can't be read.
+         */
+        boolean next() throws IOException {
+            if (pending) {
+                pending = false;
+                return true;
+            }
+            if (offset() >= dataEnd) {
+                return false;
+            }
+
+            need(4);
+            key = new byte[buffer.getInt()];
+            need(key.length + 4);
+            buffer.get(key);
+            value = new byte[buffer.getInt()];
+            need(value.length);
+            buffer.get(value);
+            return true;
+        }
+
+        /**
+         * The key of the current record.
+         *
+         * @return The key.
+         */
+        byte[] key() {
+            return key;
+        }
+
+        /**
+         * The value of the current record.
+         *
+         * @return The value.
+         */
+        byte[] value() {
+            return value;
+        }
+    }
+
+    /**
+     * A Cursor on the first record, to read the whole run.
+     *
+     * @return The Cursor.
+     */
+    Cursor cursor() {
+        return new Cursor(8);
+    }
+
+    /**
+     * A Cursor on the first record whose key isn't less than the given one,
+     * starting from the closest entry of the sparse index before it.
+     *
+     * @param from The key.
+     * @return The Cursor.
+     * @throws IOException if the file can't be read.
+     */
+    Cursor cursor(byte[] from) throws IOException {
+        //the last entry not greater than from, it's the first record of its key
+        int lo = 0;
+        int hi = sparseKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(sparseKeys[mid], from) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        Cursor ret = new Cursor(lo == 0 ? 8 : sparseOffsets[lo - 1]);
+        while (ret.next()) {
+            if (Arrays.compareUnsigned(ret.key, from) >= 0) {
+                ret.pending = true;
+                break;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * The values of the records with the given key, the bloom filter is
+     * checked before reading the file.
+     *
+     * @param key The key.
+     * @return The values, in the order they were added.
+     * @throws IOException if the file can't be read.
+     */
+    List<byte[]> get(byte[] key) throws IOException {
+        if (!bloom.mightContain(BloomFilter.hash(key))) {
+            skipped.incrementAndGet();
+            return new ArrayList<>();
+        }
+
+        return range(key, key);
+    }
+
+    /**
+     * The values of the records with a key between from and to, both
+     * included, sorted by key.
+     *
+     * @param from The smallest key.
+     * @param to The greatest key.
+     * @return The values.
+     * @throws IOException if the file can't be read.
+     */
+    List<byte[]> range(byte[] from, byte[] to) throws IOException {
+        ArrayList<byte[]> ret = new ArrayList<>();
+
+        if (sparseKeys.length == 0 || Arrays.compareUnsigned(to, sparseKeys[0]) < 0) {
+            return ret;
+        }
+
+        Cursor cursor = cursor(from);
+        while (cursor.next() && Arrays.compareUnsigned(cursor.key, to) <= 0) {
+            ret.add(cursor.value);
+        }
+
+        return ret;
+    }
+
+    /**
+     * The number of records in the run.
+     *
+     * @return The number of records.
+     */
+    long records() {
+        return records;
+    }
+
+    /**
+     * The number of lookups the bloom filter answered without reading the
+     * file.
+     *
+     * @return The number of lookups.
+     */
+    long skipped() {
+        return skipped.get();
+    }
+
+    /**
+     * The memory taken by the sparse index and the bloom filter.
+     *
+     * @return The size in bytes.
+     */
+    long memory() {
+        long ret = bloom.bytes() + sparseOffsets.length * 8L;
+        for (byte[] key : sparseKeys) {
+            ret += key.length + 16;
+        }
+        return ret;
+    }
+
+    /**
+     * The file of the run.
+     *
+     * @return The path of the file.
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Registers a reader, which has to call release() when it's done.
+     *
+     * @return false if the run was already retired and can't be read.
+     */
+    synchronized boolean acquire() {
+        if (retired) {
+            return false;
+        }
+
+        ++readers;
+        return true;
+    }
+
+    /**
+     * Unregisters a reader.
+     *
+     * @throws IOException if the file of a retired run can't be deleted.
+     */
+    synchronized void release() throws IOException {
+        if (--readers == 0 && retired) {
+            delete();
+        }
+    }
+
+    /**
+     * Marks the run as replaced, its file is deleted once no one reads it.
+     *
+     * @throws IOException if the file can't be deleted.
+     */
+    synchronized void retire() throws IOException {
+        retired = true;
+        if (readers == 0) {
+            delete();
+        }
+    }
+
+    private void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Closes the file, keeping it.
+     *
+     * @throws IOException if it can't be closed.
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,141 @@
+package fplogn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The heavy hitters of a stream of Strings with the Space-Saving algorithm: it
+ * keeps at most capacity values with a counter each, and a new value which
+ * doesn't fit replaces the one with the smallest counter, inheriting its count
+ * as error. So every value added more than n / capacity times is kept (n being
+ * the number of values added), and a kept count exceeds the true one by at most
+ * its error, which is at most n / capacity. The counters are a min-heap which
+ * knows where every value is, so an add is O(log(capacity)).
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class SpaceSaving {
+
+    private final String[] values;
+    private final long[] counts;
+    private final long[] errors;
+    private final HashMap<String, Integer> at;
+    private int size;
+    private long added;
+
+    /**
+     * Builds a new empty SpaceSaving.
+     *
+     * @param capacity The maximum number of values kept.
+     */
+    SpaceSaving(int capacity) {
+        values = new String[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        at = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Counts a value.
+     *
+     * @param value The value.
+     */
+    void add(String value) {
+        ++added;
+        Integer i = at.get(value);
+
+        if (i != null) {
+            ++counts[i];
+            down(i);
+        } else if (size < values.length) {
+            values[size] = value;
+            counts[size] = 1;
+            errors[size] = 0;
+            at.put(value, size);
+            up(size++);
+        } else {
+            //the minimum is the root, its count becomes the error of value
+            at.remove(values[0]);
+            values[0] = value;
+            errors[0] = counts[0];
+            ++counts[0];
+            at.put(value, 0);
+            down(0);
+        }
+    }
+
+    private void up(int i) {
+        while (i > 0 && counts[(i - 1) / 2] > counts[i]) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void down(int i) {
+        while (true) {
+            int min = i;
+            int l = 2 * i + 1;
+            int r = l + 1;
+
+            if (l < size && counts[l] < counts[min]) {
+                min = l;
+            }
+            if (r < size && counts[r] < counts[min]) {
+                min = r;
+            }
+            if (min == i) {
+                return;
+            }
+
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+        long c = counts[i];
+        counts[i] = counts[j];
+        counts[j] = c;
+        long e = errors[i];
+        errors[i] = errors[j];
+        errors[j] = e;
+        at.put(values[i], i);
+        at.put(values[j], j);
+    }
+
+    /**
+     * The k values with the highest counts, highest first.
+     *
+     * @param k The maximum number of values.
+     * @return The values with their counts and errors.
+     */
+    List<Sketches.Frequency> top(int k) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (Integer a, Integer b) -> Long.compare(counts[b], counts[a]));
+
+        ArrayList<Sketches.Frequency> ret = new ArrayList<>();
+        for (int i = 0; i < size && i < k; ++i) {
+            int j = order[i];
+            ret.add(new Sketches.Frequency(values[j], counts[j], errors[j]));
+        }
+
+        return ret;
+    }
+
+    /**
+     * The bound of the error of every count, n / capacity.
+     *
+     * @return The bound for the values added so far.
+     */
+    long error() {
+        return added / values.length;
+    }
+}
@@ -0,0 +1,183 @@
+package fplogn;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches every File added to a FileStructure against the registered
+ * StandingQueries, without trying every query: each query is indexed by one
+ * of its criteria (in this order, the first it has): its extension or its user
+ * in a hash, its Folder in a hash by path which is looked up with every
+ * ancestor of the File, or its size range in a SizeIntervals. So an add only
+ * checks the queries of its own extension, user, ancestors and size, plus the
+ * queries without criteria, instead of all of them.
+ *
+ * The index is rebuilt when a query is registered or unregistered, and it's
+ * replaced at once, so registering from other threads never blocks an add.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class StandingQueries implements MutationListener {
+
+    /**
+     * An immutable snapshot of the index.
+     */
+    private static class Index {
+
+        private final HashMap<String, StandingQuery[]> byExt;
+        private final HashMap<String, StandingQuery[]> byUser;
+        private final HashMap<String, StandingQuery[]> byFolder;
+        private final SizeIntervals bySize;
+        private final StandingQuery[] any;
+
+        private Index(List<StandingQuery> queries) {
+            HashMap<String, List<StandingQuery>> ext = new HashMap<>();
+            HashMap<String, List<StandingQuery>> user = new HashMap<>();
+            HashMap<String, List<StandingQuery>> folder = new HashMap<>();
+            ArrayList<StandingQuery> size = new ArrayList<>();
+            ArrayList<StandingQuery> rest = new ArrayList<>();
+
+            for (StandingQuery q : queries) {
+                if (q.getExt() != null) {
+                    ext.computeIfAbsent(q.getExt(), (String k) -> new ArrayList<>()).add(q);
+                } else if (q.getUser() != null) {
+                    user.computeIfAbsent(q.getUser(), (String k) -> new ArrayList<>()).add(q);
+                } else if (q.getFolder() != null) {
+                    folder.computeIfAbsent(q.getFolder(), (String k) -> new ArrayList<>()).add(q);
+                } else if (q.getMinSize() > 0 || q.getMaxSize() < Long.MAX_VALUE) {
+                    size.add(q);
+                } else {
+                    rest.add(q);
+                }
+            }
+
+            byExt = freeze(ext);
+            byUser = freeze(user);
+            byFolder = freeze(folder);
+            bySize = SizeIntervals.of(size);
+            any = rest.toArray(new StandingQuery[rest.size()]);
+        }
+
+        private static HashMap<String, StandingQuery[]> freeze(HashMap<String, List<StandingQuery>> lists) {
+            HashMap<String, StandingQuery[]> ret = new HashMap<>();
+            for (Map.Entry<String, List<StandingQuery>> e : lists.entrySet()) {
+                ret.put(e.getKey(), e.getValue().toArray(new StandingQuery[e.getValue().size()]));
+            }
+            return ret;
+        }
+    }
+
+    private final FileStructure files;
+    private final ArrayList<StandingQuery> queries;
+    private volatile Index index;
+
+    /**
+     * Builds a new StandingQueries and registers it as listener of the given
+     * FileStructure.
+     *
+     * @param files The FileStructure watched.
+     */
+    public StandingQueries(FileStructure files) {
+        this.files = files;
+        queries = new ArrayList<>();
+        index = new Index(queries);
+        files.addListener(this);
+    }
+
+    /**
+     * Registers a query, it gets every File added from now on.
+     *
+     * @param query The StandingQuery, subscribed or not yet.
+     * @return query.
+     */
+    public synchronized StandingQuery register(StandingQuery query) {
+        queries.add(query);
+        index = new Index(queries);
+        return query;
+    }
+
+    /**
+     * Unregisters a query and closes it, so its Subscribers complete once
+     * they get the Files already published.
+     *
+     * @param query The StandingQuery.
+     * @return true if it was registered.
+     */
+    public synchronized boolean unregister(StandingQuery query) {
+        boolean ret = queries.remove(query);
+
+        if (ret) {
+            index = new Index(queries);
+            query.close();
+        }
+
+        return ret;
+    }
+
+    /**
+     * The queries registered.
+     *
+     * @return An unmodifiable copy of the queries.
+     */
+    public synchronized List<StandingQuery> getQueries() {
+        return Collections.unmodifiableList(new ArrayList<>(queries));
+    }
+
+    /**
+     * Stops watching the FileStructure and closes every query.
+     */
+    public synchronized void close() {
+        files.removeListener(this);
+
+        for (StandingQuery q : queries) {
+            q.close();
+        }
+
+        queries.clear();
+        index = new Index(queries);
+    }
+
+    @Override
+    public void added(File file) {
+        Index curr = index;
+        //only built when some query needs it
+        String parent = curr.byFolder.isEmpty() ? null
+                : file.getParent() == null ? "" : file.getParent().getPath();
+
+        check(curr.byExt.get(FileStructure.extOf(file.getName())), file, parent);
+        check(curr.byUser.get(file.getUser()), file, parent);
+
+        if (!curr.byFolder.isEmpty()) {
+            //every ancestor of the File, from HOME to its parent
+            check(curr.byFolder.get(""), file, parent);
+            for (int i = parent.indexOf('/'); i >= 0; i = parent.indexOf('/', i + 1)) {
+                check(curr.byFolder.get(parent.substring(0, i + 1)), file, parent);
+            }
+        }
+
+        if (curr.bySize != null) {
+            curr.bySize.stab(file.getSize(), (StandingQuery q) -> {
+                if (q.matches(file, parent)) {
+                    q.deliver(file);
+                }
+            });
+        }
+
+        check(curr.any, file, parent);
+    }
+
+    private static void check(StandingQuery[] candidates, File file, String parent) {
+        if (candidates == null) {
+            return;
+        }
+
+        for (StandingQuery q : candidates) {
+            if (q.matches(file, parent)) {
+                q.deliver(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package fplogn;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A query which stays registered in StandingQueries and publishes every File
+ * added afterwards which matches it. A File matches if it matches every
+ * criterion given: a size between min and max (both included), a user, an
+ * extension and a Folder it must be anywhere under; a null criterion matches
+ * any File.
+ *
+ * The Files are delivered to the Flow.Subscribers asynchronously, each one
+ * gets them as it requests them. When the buffer of a slow Subscriber is
+ * full, the add which matched either waits for room (backpressure up to the
+ * loader) or drops the File for that Subscriber, counting it.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class StandingQuery extends SubmissionPublisher<File> {
+
+    private final long minSize;
+    private final long maxSize;
+    private final String user;
+    private final String ext;
+    private final String folder;
+    private final boolean drop;
+    private final LongAdder matched;
+    private final LongAdder dropped;
+
+    /**
+     * Builds a new StandingQuery which delivers its Files with the common
+     * ForkJoinPool, buffering up to Flow.defaultBufferSize() Files per
+     * Subscriber and making the add wait when a buffer is full.
+     *
+     * @param minSize The minimum size, 0 for any.
+     * @param maxSize The maximum size, Long.MAX_VALUE for any.
+     * @param user The user, null for any.
+     * @param ext The extension without the dot, null for any.
+     * @param folder The path of the Folder, e.g. "home/docs/" (a missing '/'
+     * at the end is added), null for any.
+     * @throws IllegalArgumentException if minSize is greater than maxSize.
+     */
+    public StandingQuery(long minSize, long maxSize, String user, String ext, String folder) {
+        this(minSize, maxSize, user, ext, folder, ForkJoinPool.commonPool(), Flow.defaultBufferSize(), false);
+    }
+
+    /**
+     * Builds a new StandingQuery.
+     *
+     * @param minSize The minimum size, 0 for any.
+     * @param maxSize The maximum size, Long.MAX_VALUE for any.
+     * @param user The user, null for any.
+     * @param ext The extension without the dot, null for any.
+     * @param folder The path of the Folder, e.g. "home/docs/" (a missing '/'
+     * at the end is added), null for any.
+     * @param executor Runs the delivery to the Subscribers.
+     * @param buffer The maximum number of Files buffered per Subscriber.
+     * @param drop true to drop the Files a full Subscriber can't take, false
+     * to make the add wait.
+     * @throws IllegalArgumentException if minSize is greater than maxSize.
+     */
+    public StandingQuery(long minSize, long maxSize, String user, String ext, String folder,
+            Executor executor, int buffer, boolean drop) {
+        super(executor, buffer);
+
+        if (minSize > maxSize) {
+            throw new IllegalArgumentException("minSize " + minSize + " is greater than maxSize " + maxSize);
+        }
+
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.user = user;
+        this.ext = ext;
+        //the paths of the Folders end in '/', see Folder.getPath()
+        this.folder = folder == null || folder.isEmpty() || folder.endsWith("/") ? folder : folder + "/";
+        this.drop = drop;
+        matched = new LongAdder();
+        dropped = new LongAdder();
+    }
+
+    /**
+     * Checks every criterion of the query.
+     *
+     * @param file The File added.
+     * @param parentPath The path of its parent ("" for HOME), or null to
+     * compute it if needed.
+     * @return true if the File matches.
+     */
+    boolean matches(File file, String parentPath) {
+        if (file.getSize() < minSize || file.getSize() > maxSize
+                || (user != null && !user.equals(file.getUser()))
+                || (ext != null && !ext.equals(FileStructure.extOf(file.getName())))) {
+            return false;
+        }
+
+        if (folder == null) {
+            return true;
+        }
+
+        if (parentPath == null) {
+            parentPath = file.getParent() == null ? "" : file.getParent().getPath();
+        }
+
+        return parentPath.startsWith(folder);
+    }
+
+    /**
+     * Publishes a File which matched. The query may be unregistered (closed)
+     * by another thread at any time, then the File is left out.
+     *
+     * @param file The File.
+     */
+    void deliver(File file) {
+        if (isClosed()) {
+            return;
+        }
+
+        try {
+            if (drop) {
+                offer(file, (Flow.Subscriber<? super File> s, File f) -> {
+                    dropped.increment();
+                    return false;
+                });
+            } else {
+                submit(file);
+            }
+        } catch (IllegalStateException ex) {
+            return;//closed after isClosed(), the add mustn't fail for it
+        }
+
+        matched.increment();
+    }
+
+    /**
+     * The minimum size of the query.
+     *
+     * @return The minimum size, 0 for any.
+     */
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * The maximum size of the query.
+     *
+     * @return The maximum size, Long.MAX_VALUE for any.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * The user of the query.
+     *
+     * @return The user, null for any.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * The extension of the query.
+     *
+     * @return The extension, null for any.
+     */
+    public String getExt() {
+        return ext;
+    }
+
+    /**
+     * The Folder the Files must be under.
+     *
+     * @return Its path, null for any.
+     */
+    public String getFolder() {
+        return folder;
+    }
+
+    /**
+     * The number of Files which matched since the query was registered.
+     *
+     * @return The number of Files published.
+     */
+    public long getMatched() {
+        return matched.sum();
+    }
+
+    /**
+     * The number of Files dropped for full Subscribers, always 0 if the query
+     * doesn't drop.
+     *
+     * @return The number of Files dropped, once per Subscriber.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + minSize + ".." + maxSize + " user=" + user + " ext=" + ext + " folder=" + folder + "]";
+    }
+}
@@ -0,0 +1,110 @@
+package fplogn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A segment tree over the positions of the EulerTour, every node keeps the
+ * position of the newest File of its range. The Files under a Folder are a
+ * range of the tour, covered by O(log(n)) nodes, so the k newest of them come
+ * out of a heap of nodes: the newest node is taken, a leaf is the next File
+ * and an inner node is replaced by its two children, which takes
+ * O((k + 1) log(n)).
+ *
+ * Like the EulerTour, it's a snapshot built in O(n), and it has to be built
+ * again after the structure changes.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class TimeOrder {
+
+    private final EulerTour tour;
+    private final int leaves;
+    private final int[] newest;
+    private final int[] mtimes;
+
+    /**
+     * Builds the tree over the given tour.
+     *
+     * @param tour The tour of the FileStructure.
+     */
+    TimeOrder(EulerTour tour) {
+        this.tour = tour;
+        int n = tour.size();
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+
+        leaves = size;
+        newest = new int[2 * size];
+        mtimes = new int[n];
+
+        for (int i = 0; i < size; ++i) {
+            if (i < n) {
+                mtimes[i] = tour.get(i).mtime();
+            }
+            newest[size + i] = i < n && mtimes[i] != File.NONE ? i : -1;
+        }
+
+        for (int i = size - 1; i > 0; --i) {
+            newest[i] = newer(newest[2 * i], newest[2 * i + 1]);
+        }
+    }
+
+    private int newer(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+
+        return mtimes[b] > mtimes[a] ? b : a;
+    }
+
+    /**
+     * The k Files with the newest modification time under the Folder with
+     * the given path, Files without one are left out.
+     *
+     * @param path The path of the Folder.
+     * @param k The maximum number of Files.
+     * @return The Files, newest first.
+     */
+    List<File> newest(String path, int k) {
+        int[] range = tour.interval(path);
+        ArrayList<File> ret = new ArrayList<>();
+        PriorityQueue<Integer> heap = new PriorityQueue<>(
+                (Integer a, Integer b) -> Integer.compare(mtimes[newest[b]], mtimes[newest[a]]));
+
+        //the nodes which cover [from, to) exactly
+        for (int lo = range[0] + leaves, hi = range[1] + leaves; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                offer(heap, lo++);
+            }
+            if ((hi & 1) == 1) {
+                offer(heap, --hi);
+            }
+        }
+
+        while (ret.size() < k && !heap.isEmpty()) {
+            int node = heap.poll();
+
+            if (node >= leaves) {
+                ret.add(tour.get(newest[node]));
+            } else {
+                offer(heap, 2 * node);
+                offer(heap, 2 * node + 1);
+            }
+        }
+
+        return ret;
+    }
+
+    private void offer(PriorityQueue<Integer> heap, int node) {
+        if (newest[node] >= 0) {
+            heap.add(node);
+        }
+    }
+}
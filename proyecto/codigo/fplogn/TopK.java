@@ -0,0 +1,93 @@
+package fplogn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the k biggest Files offered to it using a min-heap of at most k Files,
+ * the smallest of the kept Files is always on top, so offering a File costs
+ * O(log(k)) and the memory never grows over k.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class TopK {
+
+    private static final Comparator<File> BY_SIZE = Comparator.comparingLong(File::getSize);
+
+    private final int k;
+    private final PriorityQueue<File> heap;
+
+    /**
+     * Builds a new empty TopK.
+     *
+     * @param k The maximum number of Files kept, at least 1.
+     */
+    TopK(int k) {
+        this.k = k;
+        heap = new PriorityQueue<>(Math.min(k, 64), BY_SIZE);
+    }
+
+    /**
+     * Keeps the given File if it's bigger than the smallest kept File or if
+     * there are less than k Files kept.
+     *
+     * @param file The File offered.
+     */
+    void offer(File file) {
+        if (heap.size() < k) {
+            heap.add(file);
+        } else if (heap.peek().getSize() < file.getSize()) {
+            heap.poll();
+            heap.add(file);
+        }
+    }
+
+    /**
+     * Offers every File kept by the given TopK.
+     *
+     * @param other Another TopK.
+     */
+    void offerAll(TopK other) {
+        for (File f : other.heap) {
+            offer(f);
+        }
+    }
+
+    /**
+     * The biggest n kept Files.
+     *
+     * @param n The number of Files wanted.
+     * @return A List with at most n Files, from the biggest to the smallest.
+     */
+    List<File> top(int n) {
+        File[] all = heap.toArray(new File[heap.size()]);
+        Arrays.sort(all, BY_SIZE.reversed());
+        return new ArrayList<>(Arrays.asList(all).subList(0, Math.min(n, all.length)));
+    }
+
+    /**
+     * Computes the biggest n Files of the given ones without keeping a TopK,
+     * used when more Files are asked than the maintained ones.
+     *
+     * @param files The Files to choose from, may be null.
+     * @param n The number of Files wanted.
+     * @return A List with at most n Files, from the biggest to the smallest.
+     */
+    static List<File> of(Iterable<File> files, int n) {
+        if (files == null || n <= 0) {
+            return new ArrayList<>();
+        }
+
+        TopK ret = new TopK(n);
+        for (File f : files) {
+            if (!(f instanceof Folder)) {
+                ret.offer(f);
+            }
+        }
+
+        return ret.top(n);
+    }
+}
@@ -0,0 +1,135 @@
+package fplogn;
+
+/**
+ * Running totals of a group of Files (e.g. the Files of a user or with an
+ * extension): how many there are, how many bytes they take, which is the
+ * biggest and a histogram of their sizes. Every total is updated in O(1) when a
+ * File is added to the group.
+ *
+ * The histogram has a bucket for every power of two, the bucket 0 counts the
+ * empty Files and the bucket i counts the Files with a size between 2^(i-1)
+ * and 2^i - 1 bytes.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Usage {
+
+    /**
+     * The number of buckets of the histogram, enough for any long size.
+     */
+    public static final int BUCKETS = 64;
+
+    private long count;
+    private long bytes;
+    private File largest;
+    private final long[] histogram;
+
+    /**
+     * Builds a new empty Usage.
+     */
+    Usage() {
+        count = 0;
+        bytes = 0;
+        largest = null;
+        histogram = new long[BUCKETS];
+    }
+
+    /**
+     * Adds the given File to the totals.
+     *
+     * @param file The File added to the group.
+     */
+    void add(File file) {
+        long size = file.getSize();
+        ++count;
+        bytes += size;
+        ++histogram[bucketOf(size)];
+
+        if (largest == null || largest.getSize() < size) {
+            largest = file;
+        }
+    }
+
+    /**
+     * Adds all the totals of the given Usage to these.
+     *
+     * @param other The Usage of the Files added to the group.
+     */
+    void add(Usage other) {
+        count += other.count;
+        bytes += other.bytes;
+
+        for (int i = 0; i < BUCKETS; ++i) {
+            histogram[i] += other.histogram[i];
+        }
+
+        if (other.largest != null && (largest == null || largest.getSize() < other.largest.getSize())) {
+            largest = other.largest;
+        }
+    }
+
+    /**
+     * Indicates in which bucket of the histogram a size is counted.
+     *
+     * @param size A size in bytes, 0 or more.
+     * @return The bucket of the size.
+     */
+    public static int bucketOf(long size) {
+        return 64 - Long.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * The number of Files in the group.
+     *
+     * @return How many Files there are.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The sum of the sizes of the Files in the group.
+     *
+     * @return The total bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * The biggest File of the group.
+     *
+     * @return The biggest File, null if there are no Files.
+     */
+    public File getLargest() {
+        return largest;
+    }
+
+    /**
+     * The number of Files in the given bucket, see bucketOf(long).
+     *
+     * @param bucket A bucket between 0 and BUCKETS - 1.
+     * @return How many Files have a size in that bucket.
+     */
+    public long getBucket(int bucket) {
+        return histogram[bucket];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder();
+        ret.append(count).append('\t').append(bytes).append('\t');
+        ret.append(largest == null ? "-" : largest.getPath());
+
+        int last = BUCKETS - 1;
+        while (last > 0 && histogram[last] == 0) {
+            --last;
+        }
+
+        for (int i = 0; i <= last; ++i) {
+            ret.append('\t').append(histogram[i]);
+        }
+
+        return ret.toString();
+    }
+}
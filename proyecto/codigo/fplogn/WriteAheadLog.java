@@ -0,0 +1,640 @@
+package fplogn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Makes a FileStructure survive the death of its process. Every File is
+ * appended as a record to a log file before it's added (see
+ * MutationListener.adding), so once the log failed adds throw and leave the
+ * structure as it was. A writer thread writes the records in batches, syncing
+ * the file once per batch (group commit). From time to time the writer thread
+ * also writes the whole structure to a checkpoint file and starts the log
+ * again empty; adds only wait while it takes the list of Files, not while the
+ * checkpoint is written. After a restart recover(Path) rebuilds the structure
+ * from the checkpoint plus the records of the log after it.
+ *
+ * The directory of the log has two files, "checkpoint" and "log", see LogFile
+ * for their format.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class WriteAheadLog implements MutationListener, Closeable {
+
+    /**
+     * How durable an add is when it returns.
+     */
+    public enum Durability {
+        /**
+         * add waits until its record is synced to the disk, before the File is
+         * added. Adds made at the same time from many threads share the same
+         * sync, but threads which
+         * add under a common lock would wait holding it, so they should log
+         * with BATCH and call awaitDurable(sequence()) after releasing it.
+         */
+        EACH,
+        /**
+         * add doesn't wait, the records are synced in batches, at most one sync
+         * every batchMillis, so at most that much time is lost in a crash.
+         */
+        BATCH,
+        /**
+         * The records are written but never synced, the operating system
+         * decides when they reach the disk.
+         */
+        NONE
+    }
+
+    /**
+     * Gets the frames written by the writer thread once they are durable,
+     * used to ship them to the replicas.
+     */
+    interface BatchListener {
+
+        /**
+         * Called by the writer thread after every batch.
+         *
+         * @param first The sequence number of the first frame.
+         * @param last The sequence number of the last frame.
+         * @param frames A copy of the frames, as written to the log.
+         */
+        void written(long first, long last, byte[] frames);
+    }
+
+    static final String LOG = "log";
+    static final String CHECKPOINT = "checkpoint";
+
+    private final Path dir;
+    private final FileStructure files;
+    private final Durability durability;
+    private final long batchMillis;
+    private final long checkpointEvery;
+    private final FileChannel log;
+    private final Set<Folder> logged;
+    private final ByteArrayOutputStream scratch;
+    private final DataOutputStream scratchOut;
+    private final CRC32 crc;
+    private final Thread writer;
+    private final CopyOnWriteArrayList<BatchListener> batchListeners;
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long sequence;
+    private long durable;
+    private long sinceCheckpoint;
+    private long checkpoints;
+    private boolean checkpointWanted;
+    private boolean checkpointing;
+    private boolean applying;
+    private boolean closed;
+    private IOException failure;
+
+    private WriteAheadLog(Path dir, FileStructure files, Durability durability, long batchMillis,
+            long checkpointEvery) throws IOException {
+        this.dir = dir;
+        this.files = files;
+        this.durability = durability;
+        this.batchMillis = batchMillis;
+        this.checkpointEvery = checkpointEvery;
+        logged = Collections.newSetFromMap(new IdentityHashMap<>());
+        scratch = new ByteArrayOutputStream(256);
+        scratchOut = new DataOutputStream(scratch);
+        crc = new CRC32();
+        pending = ByteBuffer.allocate(1 << 16);
+        spare = ByteBuffer.allocate(1 << 16);
+        batchListeners = new CopyOnWriteArrayList<>();
+
+        Files.createDirectories(dir);
+        long base = 0;
+        Path checkpoint = dir.resolve(CHECKPOINT);
+
+        if (Files.exists(checkpoint)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(checkpoint))) {
+                base = new LogFile.Reader(in).base();
+            }
+        }
+
+        log = FileChannel.open(dir.resolve(LOG), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        sequence = base;
+
+        if (log.size() >= LogFile.HEADER) {
+            //find the end of the last good frame and forget anything after it
+            LogFile.Reader reader = new LogFile.Reader(new BufferedInputStream(
+                    Channels.newInputStream(log.position(0))));
+            while (reader.next()) {
+                sequence = Math.max(sequence, reader.sequence());
+            }
+
+            log.truncate(reader.position());
+            log.position(reader.position());
+        } else {
+            log.truncate(0);
+            log.write(LogFile.header(base), 0);
+            log.position(LogFile.HEADER);
+        }
+
+        log.force(true);
+        durable = sequence;
+        writer = new Thread(this::write, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens (or creates) the log in the given directory and starts logging
+     * every File added to the given FileStructure, which must be the one
+     * recovered from the same directory. If the directory had nothing and the
+     * structure isn't empty, a checkpoint is written first, with the Files
+     * already there counted as record 1: sequence number 0 is always an empty
+     * structure, so a Replica which applied nothing gets them too.
+     *
+     * @param dir The directory of the log.
+     * @param files The FileStructure logged.
+     * @param durability How durable an add is when it returns.
+     * @param batchMillis For BATCH, the minimum time between two syncs.
+     * @param checkpointEvery The number of records after which a checkpoint is
+     * written, 0 to never write one automatically.
+     * @return The new WriteAheadLog, already registered as listener.
+     * @throws IOException if an IO error occurs.
+     */
+    public static WriteAheadLog open(Path dir, FileStructure files, Durability durability,
+            long batchMillis, long checkpointEvery) throws IOException {
+        WriteAheadLog ret = new WriteAheadLog(dir, files, durability, batchMillis, checkpointEvery);
+
+        if (ret.sequence == 0 && files.nFiles() + files.nFolders() > 0) {
+            synchronized (ret) {
+                ret.sequence = 1;
+                ret.durable = 1;
+            }
+            ret.checkpoint();
+        }
+
+        files.addListener(ret);
+        return ret;
+    }
+
+    /**
+     * Rebuilds the FileStructure saved in the given directory: its checkpoint
+     * and then every record of the log written after it. A record damaged by a
+     * crash ends the log.
+     *
+     * @param dir The directory of the log.
+     * @return A new FileStructure, empty if there's nothing saved.
+     * @throws IOException if an IO error occurs.
+     */
+    public static FileStructure recover(Path dir) throws IOException {
+        return recover(dir, new FileStructure());
+    }
+
+    /**
+     * Rebuilds the FileStructure saved in the given directory into the given
+     * one, see recover(Path).
+     *
+     * @param dir The directory of the log.
+     * @param files Where the Files are added, usually empty.
+     * @return files.
+     * @throws IOException if an IO error occurs.
+     */
+    public static FileStructure recover(Path dir, FileStructure files) throws IOException {
+        replay(dir, new RecordCodec(files));
+        return files;
+    }
+
+    /**
+     * Applies the checkpoint and the log of the given directory with the
+     * given RecordCodec, see recover(Path).
+     *
+     * @param dir The directory of the log.
+     * @param codec Applies the records.
+     * @return The sequence number of the last record applied.
+     * @throws IOException if an IO error occurs.
+     */
+    static long replay(Path dir, RecordCodec codec) throws IOException {
+        long last = 0;
+
+        Path checkpoint = dir.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(checkpoint))) {
+                LogFile.Reader reader = new LogFile.Reader(in);
+                last = reader.base();
+
+                while (reader.next()) {
+                    codec.apply(reader.record());
+                }
+            }
+        }
+
+        Path log = dir.resolve(LOG);
+        if (Files.exists(log) && Files.size(log) >= LogFile.HEADER) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(log))) {
+                LogFile.Reader reader = new LogFile.Reader(in);
+
+                while (reader.next()) {
+                    if (reader.sequence() > last && !reader.isHeartbeat()) {//older ones are in the checkpoint
+                        codec.apply(reader.record());
+                        last = reader.sequence();
+                    }
+                }
+            }
+        }
+
+        return last;
+    }
+
+    @Override
+    public void adding(File file) {
+        long mine;
+
+        synchronized (this) {
+            //a checkpoint waits for the add being applied, whose next Files (of
+            //a merge) mustn't wait for the checkpoint
+            boolean interrupted = false;
+            while (checkpointing && !applying && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure != null) {
+                throw new UncheckedIOException("The log failed", failure);
+            }
+
+            declare(file.getParent());
+
+            if (file instanceof Folder) {
+                append(RecordCodec.FOLDER, file);
+                logged.add((Folder) file);
+            } else {
+                append(RecordCodec.FILE, file);
+            }
+
+            mine = sequence;
+            applying = true;
+            if (checkpointEvery > 0 && ++sinceCheckpoint >= checkpointEvery) {
+                checkpointWanted = true;
+            }
+            notifyAll();
+        }
+
+        if (durability == Durability.EACH) {
+            awaitDurable(mine);
+        }
+    }
+
+    @Override
+    public synchronized void added(File file) {
+        applying = false;
+
+        if (checkpointing) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Appends DECLARE records for the given Folder and every Folder above it
+     * which weren't logged yet, from the top.
+     */
+    private void declare(Folder folder) {
+        ArrayDeque<Folder> missing = new ArrayDeque<>();
+
+        for (Folder f = folder; f != null && !logged.contains(f); f = f.getParent()) {
+            missing.push(f);
+        }
+
+        while (!missing.isEmpty()) {
+            Folder f = missing.pop();
+            append(RecordCodec.DECLARE, f);
+            logged.add(f);
+        }
+    }
+
+    private void append(byte kind, File file) {
+        try {
+            scratch.reset();
+            scratchOut.writeLong(++sequence);
+            scratchOut.writeLong(System.currentTimeMillis());
+            RecordCodec.write(scratchOut, kind, file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);//never thrown by a ByteArrayOutputStream
+        }
+
+        byte[] body = scratch.toByteArray();
+        crc.reset();
+        crc.update(body, 0, body.length);
+
+        if (pending.remaining() < 8 + body.length) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + 8 + body.length));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+
+        pending.putInt(body.length).putInt((int) crc.getValue()).put(body);
+    }
+
+    /**
+     * The loop of the writer thread: takes everything appended, writes it
+     * with a single write and syncs it, and writes the checkpoints.
+     */
+    private void write() {
+        try {
+            while (true) {
+                boolean checkpoint;
+
+                synchronized (this) {
+                    while (pending.position() == 0 && !checkpointWanted && !closed) {
+                        wait();
+                    }
+
+                    if (pending.position() == 0 && closed) {
+                        return;//closed and everything written
+                    }
+
+                    checkpoint = checkpointWanted && !closed;
+                }
+
+                if (checkpoint) {
+                    writeCheckpoint();
+                } else if (flush() && durability == Durability.BATCH && batchMillis > 0) {
+                    Thread.sleep(batchMillis);//let the next batch grow
+                }
+            }
+        } catch (IOException ex) {
+            synchronized (this) {
+                failure = ex;
+                notifyAll();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes and syncs every record appended so far, called only by the
+     * writer thread.
+     *
+     * @return false if there was nothing to write.
+     */
+    private boolean flush() throws IOException {
+        ByteBuffer batch;
+        long last;
+
+        synchronized (this) {
+            if (pending.position() == 0) {
+                return false;
+            }
+
+            batch = pending;
+            pending = spare;
+            spare = batch;
+            last = sequence;
+        }
+
+        batch.flip();
+        byte[] copy = batchListeners.isEmpty() ? null
+                : Arrays.copyOf(batch.array(), batch.limit());
+        while (batch.hasRemaining()) {
+            log.write(batch);
+        }
+        batch.clear();
+
+        if (durability != Durability.NONE) {
+            log.force(false);
+        }
+
+        long first;
+        synchronized (this) {
+            first = durable + 1;
+            durable = last;
+            notifyAll();
+        }
+
+        if (copy != null) {
+            for (BatchListener l : batchListeners) {
+                l.written(first, last, copy);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the checkpoint, called only by the writer thread. New adds wait
+     * until every record is written and the add being applied is done, then
+     * the Files are listed and the adds go on while the list is written.
+     * Nothing else writes the log meanwhile, so it holds exactly the records
+     * in the checkpoint, and it's emptied.
+     */
+    private void writeCheckpoint() throws IOException, InterruptedException {
+        long upTo;
+        ArrayList<File> all;
+
+        synchronized (this) {
+            checkpointing = true;
+        }
+
+        try {
+            while (true) {
+                flush();//an add with EACH may be waiting for its record
+
+                synchronized (this) {
+                    while (applying && pending.position() == 0) {
+                        wait();
+                    }
+
+                    if (!applying && pending.position() == 0) {
+                        upTo = sequence;
+                        all = new ArrayList<>((int) Math.min(Integer.MAX_VALUE - 8, files.nFiles() + files.nFolders()));
+                        for (TreeSet<File> childs : files.folderTree().values()) {
+                            all.addAll(childs);
+                        }
+                        checkpointWanted = false;
+                        sinceCheckpoint = 0;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                checkpointing = false;
+                notifyAll();
+            }
+        }
+
+        Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            LogFile.Writer data = new LogFile.Writer(new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+            data.header(upTo);
+            data.tree(all, upTo);
+            data.flush();
+            out.force(true);
+        }
+
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.truncate(0);
+        log.position(0);
+        log.write(LogFile.header(upTo));
+        log.force(true);
+
+        synchronized (this) {
+            checkpoints++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number, and every one
+     * before it, is durable.
+     *
+     * @param seq A sequence number, e.g. sequence() right after an add.
+     * @throws UncheckedIOException if the log failed.
+     */
+    public synchronized void awaitDurable(long seq) {
+        boolean interrupted = false;
+
+        while (durable < seq && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw new UncheckedIOException("The log failed", failure);
+        }
+    }
+
+    /**
+     * Writes the whole FileStructure to the checkpoint and empties the log,
+     * waiting until the writer thread is done. Adds from other threads only
+     * wait while the writer lists the Files, see writeCheckpoint().
+     *
+     * @throws IOException if an IO error occurs.
+     */
+    public synchronized void checkpoint() throws IOException {
+        long target = checkpoints + 1;
+        boolean interrupted = false;
+        checkpointWanted = true;
+        notifyAll();
+
+        while (checkpoints < target && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw new IOException("The log failed", failure);
+        }
+
+        if (checkpoints < target) {
+            throw new IOException("The log is closed");
+        }
+    }
+
+    /**
+     * Registers a BatchListener, which gets every batch written from now on.
+     *
+     * @param listener The BatchListener.
+     */
+    void addBatchListener(BatchListener listener) {
+        batchListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a BatchListener.
+     *
+     * @param listener The BatchListener.
+     */
+    void removeBatchListener(BatchListener listener) {
+        batchListeners.remove(listener);
+    }
+
+    /**
+     * The sequence number of the last record appended.
+     *
+     * @return The number of records appended since the log was created.
+     */
+    public synchronized long sequence() {
+        return sequence;
+    }
+
+    /**
+     * The sequence number of the last record written (and synced, unless the
+     * durability is NONE).
+     *
+     * @return The last durable sequence number.
+     */
+    public synchronized long durable() {
+        return durable;
+    }
+
+    /**
+     * Writes every pending record, stops logging and closes the log.
+     *
+     * @throws IOException if an IO error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        files.removeListener(this);
+
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        log.force(true);
+        log.close();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
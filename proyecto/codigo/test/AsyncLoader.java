@@ -0,0 +1,295 @@
+
+import fplogn.*;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The class AsyncLoader runs a Loader in its own thread, so the FileStructure
+ * can be searched (e.g. served by a QueryServer, see getLock()) while it
+ * loads. Every answer says if it was found on the partial structure, and the
+ * progress is reported every LoadEvent.CHUNK lines with the bytes read, the
+ * lines parsed, the speed and the time left.
+ *
+ * The Loader adds a Folder with its children when its last line is read, so
+ * while loading a search finds whole Folders, but not every Folder yet. A
+ * search while loading doesn't build the tour (or the other snapshots) again
+ * after every add, it walks the Folders instead until that adds up to
+ * building it, see FileStructure.getBySubtree(String).
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class AsyncLoader {
+
+    /**
+     * How far a load is.
+     */
+    public static class Progress {
+
+        private final long bytes;
+        private final long totalBytes;
+        private final long lines;
+        private final long nanos;
+        private final boolean done;
+
+        private Progress(long bytes, long totalBytes, long lines, long nanos, boolean done) {
+            this.bytes = bytes;
+            this.totalBytes = totalBytes;
+            this.lines = lines;
+            this.nanos = nanos;
+            this.done = done;
+        }
+
+        /**
+         * The bytes read, compressed if the file is.
+         *
+         * @return The bytes read.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * The size of the file.
+         *
+         * @return The size in bytes, -1 if unknown.
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * The lines (Files and Folders) parsed.
+         *
+         * @return The lines parsed.
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        /**
+         * The lines parsed per second since the load started.
+         *
+         * @return The speed.
+         */
+        public double getFilesPerSecond() {
+            return nanos == 0 ? 0 : lines * 1e9 / nanos;
+        }
+
+        /**
+         * The seconds left, estimated from the bytes read so far.
+         *
+         * @return The seconds left, -1 if unknown.
+         */
+        public double getEtaSeconds() {
+            if (done) {
+                return 0;
+            }
+
+            if (totalBytes <= 0 || bytes == 0) {
+                return -1;
+            }
+
+            return (double) (totalBytes - bytes) / bytes * nanos / 1e9;
+        }
+
+        /**
+         * Tells if the load finished (or failed).
+         *
+         * @return true if it's done.
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public String toString() {
+            String ret = String.format("%d lines, %.1f MiB", lines, bytes / 1048576.0);
+            if (totalBytes > 0) {
+                ret += String.format(" of %.1f MiB (%.0f%%)", totalBytes / 1048576.0, 100.0 * bytes / totalBytes);
+            }
+            ret += String.format(", %.0f files/s", getFilesPerSecond());
+            if (done) {
+                return ret + ", done";
+            }
+            double eta = getEtaSeconds();
+            return eta < 0 ? ret : ret + String.format(", %.0f s left", eta);
+        }
+    }
+
+    /**
+     * The result of a search made while loading.
+     *
+     * @param <T> The type of the result.
+     */
+    public static class Partial<T> {
+
+        private final T value;
+        private final boolean partial;
+        private final Progress progress;
+
+        private Partial(T value, boolean partial, Progress progress) {
+            this.value = value;
+            this.partial = partial;
+            this.progress = progress;
+        }
+
+        /**
+         * The result of the search.
+         *
+         * @return The result.
+         */
+        public T get() {
+            return value;
+        }
+
+        /**
+         * Tells if the structure was still loading, so Files may be missing.
+         *
+         * @return true for a partial result.
+         */
+        public boolean isPartial() {
+            return partial;
+        }
+
+        /**
+         * How far the load was when searching.
+         *
+         * @return The progress.
+         */
+        public Progress getProgress() {
+            return progress;
+        }
+    }
+
+    private final Loader loader;
+    private final ReentrantReadWriteLock lock;
+    private final CopyOnWriteArrayList<Consumer<Progress>> listeners;
+    private final CompletableFuture<FileStructure> future;
+    private volatile boolean done;
+    private long start;
+    private Thread thread;
+
+    /**
+     * Creates a new AsyncLoader of the given file, see Loader(String).
+     *
+     * @param filename The name of the file.
+     * @throws FileNotFoundException if a file with filename doesn't exist.
+     */
+    public AsyncLoader(String filename) throws FileNotFoundException {
+        loader = new Loader(filename);
+        lock = new ReentrantReadWriteLock();
+        listeners = new CopyOnWriteArrayList<>();
+        future = new CompletableFuture<>();
+        loader.setLock(lock);
+        loader.setProgressListener(this::report);
+    }
+
+    /**
+     * Starts loading, if called more than once, then returns the same future.
+     *
+     * @return The FileStructure, when it's completely loaded.
+     */
+    public synchronized CompletableFuture<FileStructure> start() {
+        if (thread != null) {
+            return future;
+        }
+
+        start = System.nanoTime();
+        thread = new Thread(this::run, "async-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    private void run() {
+        try {
+            FileStructure files = loader.load();
+            done = true;
+            report();
+            future.complete(files);
+        } catch (IOException | RuntimeException ex) {
+            done = true;
+            report();
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private void report() {
+        Progress p = getProgress();
+        for (Consumer<Progress> listener : listeners) {
+            listener.accept(p);
+        }
+    }
+
+    /**
+     * Adds a listener called by the loading thread every LoadEvent.CHUNK
+     * lines and once when it's done.
+     *
+     * @param listener The listener.
+     */
+    public void addProgressListener(Consumer<Progress> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * How far the load is, it can be called from any thread.
+     *
+     * @return The progress.
+     */
+    public synchronized Progress getProgress() {
+        long nanos = thread == null ? 0 : System.nanoTime() - start;
+        return new Progress(loader.bytesRead(), loader.totalBytes(), loader.entriesRead(), nanos, done);
+    }
+
+    /**
+     * Tells if the structure is still loading (or not started).
+     *
+     * @return true until the load is done.
+     */
+    public boolean isPartial() {
+        return !done;
+    }
+
+    /**
+     * Runs a search on the structure loaded so far, holding the read lock.
+     * The result mustn't be a view of the structure (e.g. getByFolder), since
+     * it keeps changing after the lock is released: copy it inside the query.
+     *
+     * @param <T> The type of the result.
+     * @param query The search.
+     * @return The result, telling if it's partial.
+     */
+    public <T> Partial<T> query(Function<FileStructure, T> query) {
+        lock.readLock().lock();
+        try {
+            boolean partial = !done;
+            return new Partial<>(query.apply(loader.getFiles()), partial, getProgress());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The FileStructure being loaded, searched holding getLock().readLock().
+     *
+     * @return The FileStructure.
+     */
+    public FileStructure getFiles() {
+        return loader.getFiles();
+    }
+
+    /**
+     * The lock the loader holds while adding Files, e.g. for a QueryServer.
+     *
+     * @return The lock.
+     */
+    public ReadWriteLock getLock() {
+        return lock;
+    }
+}
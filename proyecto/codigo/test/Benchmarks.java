@@ -0,0 +1,1210 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Small benchmarks of the loading and searching alternatives, run as:
+ * <pre>java Benchmarks crawl [dir]</pre>
+ * <pre>java Benchmarks wal [adds]</pre>
+ * <pre>java Benchmarks query [address|-] [qps] [seconds] [connections]</pre>
+ * <pre>java Benchmarks standing [queries] [adds]</pre>
+ * <pre>java Benchmarks sketch [files]</pre>
+ * <pre>java Benchmarks fuzzy [names] [queries]</pre>
+ * <pre>java Benchmarks paths [files]</pre>
+ * <pre>java Benchmarks recent [files]</pre>
+ * <pre>java Benchmarks lsm [files]</pre>
+ * <pre>java Benchmarks bloom [files] [fpp]</pre>
+ * Without a directory, a temporary tree is made and deleted afterwards.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java Benchmarks crawl [dir] | wal [adds]"
+                    + " | query [address|-] [qps] [seconds] [connections] | standing [queries] [adds]"
+                    + " | sketch [files] | fuzzy [names] [queries] | paths [files] | recent [files]"
+                    + " | lsm [files] | bloom [files] [fpp] | du [files] | dups [files]");
+            return;
+        }
+
+        switch (args[0]) {
+            case "crawl":
+                crawl(args.length > 1 ? Paths.get(args[1]) : null);
+                break;
+            case "query":
+                query(args.length > 1 ? args[1] : "-",
+                        args.length > 2 ? Integer.parseInt(args[2]) : 5000,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 10,
+                        args.length > 4 ? Integer.parseInt(args[4]) : 4);
+                break;
+            case "standing":
+                standing(args.length > 1 ? Integer.parseInt(args[1]) : 10000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 200000);
+                break;
+            case "sketch":
+                sketch(args.length > 1 ? Integer.parseInt(args[1]) : 500000);
+                break;
+            case "fuzzy":
+                fuzzy(args.length > 1 ? Integer.parseInt(args[1]) : 1000000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 50);
+                break;
+            case "paths":
+                paths(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+                break;
+            case "recent":
+                recent(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+                break;
+            case "lsm":
+                lsm(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+                break;
+            case "bloom":
+                bloom(args.length > 1 ? Integer.parseInt(args[1]) : 1000000,
+                        args.length > 2 ? Double.parseDouble(args[2]) : 0.01);
+                break;
+            case "du":
+                du(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+                break;
+            case "dups":
+                dups(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+                break;
+            case "wal":
+                wal(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + args[0]);
+        }
+    }
+
+    /**
+     * Compares the Crawler with 1, 2, 4... threads against a single threaded
+     * Files.walkFileTree building the same FileStructure.
+     */
+    private static void crawl(Path dir) throws IOException {
+        boolean temp = dir == null;
+        if (temp) {
+            dir = Files.createTempDirectory("crawl");
+            makeTree(dir, 4, 8, 16);
+        }
+
+        try {
+            long start = System.nanoTime();
+            FileStructure walked = walk(dir);
+            report("walkFileTree", walked, System.nanoTime() - start);
+
+            int max = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= max; threads *= 2) {
+                start = System.nanoTime();
+                FileStructure crawled = new Crawler(threads, Crawler.Links.SKIP, false).crawl(dir);
+                report("Crawler x" + threads, crawled, System.nanoTime() - start);
+
+                if (crawled.nFiles() != walked.nFiles() || crawled.nFolders() != walked.nFolders()) {
+                    System.out.println("  mismatch with walkFileTree!");
+                }
+            }
+        } finally {
+            if (temp) {
+                try (Stream<Path> all = Files.walk(dir)) {
+                    all.sorted(Comparator.reverseOrder()).forEach((Path p) -> p.toFile().delete());
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures the adds per second with every Durability of the
+     * WriteAheadLog from a single thread, with 8 threads adding under a
+     * common lock and waiting for their syncs outside it (group commit), and
+     * with a checkpoint every fifth of the adds, and checks that the
+     * recovered structure has every File. The longest add shows how long the
+     * checkpoints stop the adds.
+     */
+    private static void wal(int adds) throws IOException {
+        for (WriteAheadLog.Durability durability : WriteAheadLog.Durability.values()) {
+            //syncing every add is slow, don't wait for all of them
+            wal(durability.toString(), durability, 1, durability == WriteAheadLog.Durability.EACH ? Math.min(adds, 2000) : adds, 0);
+        }
+
+        wal("GROUP", WriteAheadLog.Durability.BATCH, 8, Math.min(adds, 16000), 0);
+        wal("CKPT", WriteAheadLog.Durability.BATCH, 1, adds, Math.max(1, adds / 5));
+    }
+
+    private static void wal(String name, WriteAheadLog.Durability durability, int threads, int n,
+            long checkpointEvery) throws IOException {
+        Path dir = Files.createTempDirectory("wal");
+
+        try {
+            FileStructure files = new FileStructure();
+            Folder home = new Folder("home", null, "root");
+            files.add(home);
+            long start;
+
+            //BATCH waits 2 ms between syncs, except for group commit where the adders wait
+            long[] longest = new long[threads];
+            try (WriteAheadLog log = WriteAheadLog.open(dir, files, durability, threads > 1 ? 0 : 2, checkpointEvery)) {
+                start = System.nanoTime();
+                Thread[] workers = new Thread[threads];
+
+                for (int t = 0; t < threads; ++t) {
+                    int first = t * (n / threads);
+                    int last = t == threads - 1 ? n : first + n / threads;
+                    int me = t;
+                    Folder mine = new Folder("t" + t, home, "root");
+
+                    workers[t] = new Thread(() -> {
+                        for (int i = first; i < last; ++i) {
+                            File f = new File("file" + i + ".txt", mine, i, "user" + (i % 7));
+                            long seq;
+                            long began = System.nanoTime();
+
+                            synchronized (files) {//FileStructure isn't thread safe
+                                files.add(f);
+                                seq = log.sequence();
+                            }
+                            longest[me] = Math.max(longest[me], System.nanoTime() - began);
+
+                            if (threads > 1) {
+                                log.awaitDurable(seq);
+                            }
+                        }
+                    });
+                    workers[t].start();
+                }
+
+                for (Thread w : workers) {
+                    try {
+                        w.join();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            long nanos = System.nanoTime() - start;
+            FileStructure recovered = WriteAheadLog.recover(dir);
+            System.out.printf("%-5s x%d %8d adds %8.1f ms %12.0f adds/s, longest add %6.2f ms%s%n",
+                    name, threads, n, nanos / 1e6, n * 1e9 / nanos, Arrays.stream(longest).max().getAsLong() / 1e6,
+                    recovered.nFiles() == files.nFiles() ? "" : "  recovered " + recovered.nFiles() + "!");
+        } finally {
+            try (Stream<Path> all = Files.walk(dir)) {
+                all.sorted(Comparator.reverseOrder()).forEach((Path p) -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Sends queries to a QueryServer at a fixed rate, without waiting for the
+     * answers (open loop), and reports the latency percentiles. The latency
+     * of every query counts from when it should have been sent, so a server
+     * falling behind isn't hidden by a client waiting for it. With "-" as
+     * address a made up structure is served in this JVM.
+     */
+    private static void query(String address, int qps, int seconds, int connections) throws IOException {
+        QueryServer local = null;
+        SocketAddress at;
+
+        if (address.equals("-")) {
+            local = new QueryServer(synthetic(200000), null, new InetSocketAddress("localhost", 0));
+            at = local.getAddress();
+        } else {
+            at = Serve.address(address);
+        }
+
+        QueryClient[] clients = new QueryClient[connections];
+        for (int i = 0; i < connections; ++i) {
+            clients[i] = new QueryClient(at);
+        }
+
+        //take the keys of the queries from the served structure
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String> exts = new ArrayList<>();
+        ArrayList<String> users = new ArrayList<>();
+        ArrayList<String> folders = new ArrayList<>();
+        for (QueryClient.Entry e : clients[0].bySubtree("", 5000).join()) {
+            String path = e.getPath();
+            if (e.isFolder()) {
+                folders.add(path);
+                continue;
+            }
+
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            names.add(name);
+            users.add(e.getUser());
+            if (name.lastIndexOf('.') > 0) {
+                exts.add(name.substring(name.lastIndexOf('.') + 1));
+            }
+        }
+        folders.add("");
+        exts.add("");
+
+        //the first second warms up the JIT and the lazy indexes, it isn't measured
+        int warmup = qps;
+        int total = qps * seconds;
+        long[] latencies = new long[total];
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        Random random = new Random(7);
+        long period = 1000000000L / qps;
+        long start = System.nanoTime();
+
+        for (int i = -warmup; i < total; ++i) {
+            int k = i + warmup;
+            long intended = start + k * period;
+            while (System.nanoTime() < intended) {
+                LockSupport.parkNanos(Math.max(1000, intended - System.nanoTime() - 20000));
+            }
+
+            QueryClient c = clients[k % connections];
+            CompletableFuture<List<QueryClient.Entry>> answer;
+            switch (k % 6) {
+                case 0:
+                    answer = c.byName(names.get(random.nextInt(names.size())), 20);
+                    break;
+                case 1:
+                    long min = random.nextInt(1 << 20);
+                    answer = c.bySize(min, min + 1024, 20);
+                    break;
+                case 2:
+                    answer = c.byExt(exts.get(random.nextInt(exts.size())), 20);
+                    break;
+                case 3:
+                    answer = c.byUser(users.get(random.nextInt(users.size())), 20);
+                    break;
+                case 4:
+                    answer = c.byFolder(folders.get(random.nextInt(folders.size())), 20);
+                    break;
+                default:
+                    answer = c.bySubtree(folders.get(random.nextInt(folders.size())), 20);
+            }
+
+            int slot = i;
+            if (slot < 0) {
+                continue;
+            }
+
+            answer.whenComplete((List<QueryClient.Entry> r, Throwable t) -> {
+                latencies[slot] = System.nanoTime() - intended;
+                if (t != null) {
+                    errors.incrementAndGet();
+                }
+                done.incrementAndGet();
+            });
+        }
+
+        long sent = System.nanoTime();
+        while (done.get() < total && System.nanoTime() - sent < 10000000000L) {
+            LockSupport.parkNanos(1000000);
+        }
+        long nanos = System.nanoTime() - start - warmup * period;
+
+        for (QueryClient c : clients) {
+            c.close();
+        }
+        if (local != null) {
+            local.close();
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, done.get() == total ? total : 0);
+        Arrays.sort(sorted);
+        System.out.printf("%d queries at %d qps over %d connections: %.0f answers/s, %d errors%n",
+                total, qps, connections, done.get() * 1e9 / nanos, errors.get() + total - done.get());
+        if (sorted.length > 0) {
+            System.out.printf("p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                    sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6,
+                    sorted[(int) (sorted.length * 0.999)] / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Adds made up Files to a structure with many StandingQueries registered
+     * (by extension, user, Folder and size range, some with two criteria) and
+     * compares the time the matching adds to them against checking every
+     * query for every File, which must find the same matches.
+     */
+    private static void standing(int n, int adds) {
+        Random random = new Random(3);
+        String[] exts = {"txt", "jpg", "java", "class", "pdf", "mp4", "gz", "core"};
+        ArrayList<StandingQuery> queries = new ArrayList<>();
+
+        for (int i = 0; i < n; ++i) {
+            long min = random.nextInt(1 << 20);
+            switch (i % 5) {
+                case 0:
+                    queries.add(new StandingQuery(0, Long.MAX_VALUE, null, exts[random.nextInt(exts.length)] + random.nextInt(n / 10 + 1), null));
+                    break;
+                case 1:
+                    queries.add(new StandingQuery(min, Long.MAX_VALUE, "user" + random.nextInt(n / 10 + 1), null, null));
+                    break;
+                case 2:
+                    queries.add(new StandingQuery(0, Long.MAX_VALUE, null, null, "dir" + random.nextInt(100) + "/"));
+                    break;
+                case 3:
+                    queries.add(new StandingQuery(min, min + random.nextInt(1 << 12), null, null, null));
+                    break;
+                default:
+                    queries.add(new StandingQuery(min, min + random.nextInt(1 << 14), null, exts[random.nextInt(exts.length)], null));
+            }
+        }
+
+        //the Files are made first so both runs add the same
+        Folder[] folders = new Folder[100];
+        for (int i = 0; i < folders.length; ++i) {
+            folders[i] = new Folder("dir" + i, i < 10 ? null : folders[i % 10], "root");
+        }
+        File[] made = new File[adds];
+        for (int i = 0; i < adds; ++i) {
+            made[i] = new File("file" + i + "." + exts[random.nextInt(exts.length)] + (i % 3 == 0 ? random.nextInt(n / 10 + 1) : ""),
+                    folders[random.nextInt(folders.length)], random.nextInt(1 << 20), "user" + random.nextInt(n / 10 + 1));
+        }
+
+        //without queries, it's the cost of the adds themselves
+        FileStructure plain = new FileStructure(0);
+        long plainStart = System.nanoTime();
+        for (File f : made) {
+            plain.add(f);
+        }
+        long plainNanos = System.nanoTime() - plainStart;
+
+        FileStructure indexed = new FileStructure(0);
+        StandingQueries standing = new StandingQueries(indexed);
+        for (StandingQuery q : queries) {
+            standing.register(q);
+        }
+
+        long start = System.nanoTime();
+        for (File f : made) {
+            indexed.add(f);
+        }
+        long nanos = System.nanoTime() - start;
+        long matched = 0;
+        for (StandingQuery q : queries) {
+            matched += q.getMatched();
+        }
+        standing.close();
+
+        FileStructure brute = new FileStructure(0);
+        long[] bruteMatched = {0};
+        brute.addListener((File f) -> {
+            String parent = f.getParent() == null ? "" : f.getParent().getPath();
+            String ext = f.getName().substring(f.getName().lastIndexOf('.') + 1);
+            for (StandingQuery q : queries) {
+                if (f.getSize() >= q.getMinSize() && f.getSize() <= q.getMaxSize()
+                        && (q.getUser() == null || q.getUser().equals(f.getUser()))
+                        && (q.getExt() == null || q.getExt().equals(ext))
+                        && (q.getFolder() == null || parent.startsWith(q.getFolder()))) {
+                    ++bruteMatched[0];
+                }
+            }
+        });
+
+        long bruteStart = System.nanoTime();
+        for (File f : made) {
+            brute.add(f);
+        }
+        long bruteNanos = System.nanoTime() - bruteStart;
+
+        System.out.printf("%d queries, %d adds taking %.1f ms without queries%n", n, adds, plainNanos / 1e6);
+        System.out.printf("indexed:     +%.1f ms, %d matches%n", (nanos - plainNanos) / 1e6, matched);
+        System.out.printf("every query: +%.1f ms, %d matches%n", (bruteNanos - plainNanos) / 1e6, bruteMatched[0]);
+    }
+
+    /**
+     * Adds made up Files, with a few names repeated many times and most of
+     * them only a few, with and without Sketches, and checks every estimate
+     * against the exact trees: the distinct names and users under every
+     * Folder, the frequency of every name and extension, and the heavy
+     * hitters.
+     */
+    private static void sketch(int n) {
+        Random random = new Random(5);
+        String[] exts = {"txt", "jpg", "java", "class", "pdf", "mp4", "gz", ""};
+        Folder[] folders = new Folder[11110];
+        for (int i = 0; i < folders.length; ++i) {
+            folders[i] = new Folder("dir" + i, i < 10 ? null : folders[i / 10 - 1], "user" + (i % 7));
+        }
+
+        File[] made = new File[n];
+        for (int i = 0; i < n; ++i) {
+            //log-uniform, so name k is about 1/k as frequent as name 1
+            int name = (int) Math.exp(random.nextDouble() * Math.log(n));
+            String ext = exts[random.nextInt(exts.length)];
+            made[i] = new File("file" + name + (ext.isEmpty() ? "" : "." + ext), folders[random.nextInt(folders.length)],
+                    random.nextInt(1 << 20), "user" + (int) Math.exp(random.nextDouble() * Math.log(5000)));
+        }
+
+        FileStructure plain = new FileStructure();
+        long plainStart = System.nanoTime();
+        for (Folder f : folders) {
+            plain.add(f);
+        }
+        for (File f : made) {
+            plain.add(f);
+        }
+        long plainNanos = System.nanoTime() - plainStart;
+
+        FileStructure files = new FileStructure();
+        Sketches sketches = new Sketches(files);
+        long start = System.nanoTime();
+        for (Folder f : folders) {
+            files.add(f);
+        }
+        for (File f : made) {
+            files.add(f);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%d adds taking %.1f ms without sketches, +%.1f ms with them%n",
+                n, plainNanos / 1e6, (nanos - plainNanos) / 1e6);
+
+        //distinct counts, beyond 3 standard errors should almost never happen
+        //(below 100 values, a single collision is already a few percent)
+        double worstNames = 0;
+        double worstUsers = 0;
+        int beyond = 0;
+        int checked = 0;
+        ArrayList<String> paths = new ArrayList<>();
+        paths.add("");
+        for (Folder f : folders) {
+            paths.add(f.getPath());
+        }
+        for (String path : paths) {
+            HashSet<String> names = new HashSet<>();
+            HashSet<String> users = new HashSet<>();
+            for (File f : files.getBySubtree(path)) {
+                names.add(f.getName());
+                users.add(f.getUser());
+            }
+
+            if (names.size() < 100) {
+                continue;
+            }
+
+            ++checked;
+            double nameError = Math.abs(sketches.getDistinctNamesUnder(path) - names.size()) / (double) names.size();
+            double userError = Math.abs(sketches.getDistinctUsersUnder(path) - users.size()) / (double) users.size();
+            worstNames = Math.max(worstNames, nameError);
+            worstUsers = Math.max(worstUsers, userError);
+            if (nameError > 3 * sketches.getDistinctError() || userError > 3 * sketches.getDistinctError()) {
+                ++beyond;
+            }
+        }
+        System.out.printf("distinct under %d Folders: worst error %.2f%% names, %.2f%% users, %d of twice as many beyond 3 x %.2f%% (0.3%% expected)%n",
+                checked, worstNames * 100, worstUsers * 100, beyond, sketches.getDistinctError() * 100);
+
+        //frequencies, never below the exact count and rarely above the bound
+        HashSet<String> names = new HashSet<>();
+        for (File f : made) {
+            names.add(f.getName());
+        }
+        int below = 0;
+        int above = 0;
+        long worst = 0;
+        for (String name : names) {
+            long exact = files.getByName(name).size();
+            long estimate = sketches.getNameFrequency(name);
+            worst = Math.max(worst, estimate - exact);
+            if (estimate < exact) {
+                ++below;
+            } else if (estimate - exact > sketches.getFrequencyError()) {
+                ++above;
+            }
+        }
+        for (String ext : exts) {
+            long estimate = sketches.getExtFrequency(ext);
+            long exact = files.getByExt(ext).size();
+            if (estimate < exact) {
+                ++below;
+            } else if (estimate - exact > sketches.getFrequencyError()) {
+                ++above;
+            }
+        }
+        System.out.printf("frequency of %d names: worst +%d, %d below, %d above %d (%.2f%% allowed)%n",
+                names.size(), worst, below, above, sketches.getFrequencyError(),
+                sketches.getFrequencyFailure() * 100);
+
+        //heavy hitters, each one with its exact count within its error, and
+        //every name above the bound reported
+        int wrong = 0;
+        HashSet<String> reported = new HashSet<>();
+        for (Sketches.Frequency f : sketches.getTopNames(Integer.MAX_VALUE)) {
+            long exact = files.getByName(f.getValue()).size();
+            if (exact > f.getCount() || exact < f.getCount() - f.getError()) {
+                ++wrong;
+            }
+            reported.add(f.getValue());
+        }
+        int missing = 0;
+        for (String name : names) {
+            if (files.getByName(name).size() > sketches.getTopError() && !reported.contains(name)) {
+                ++missing;
+            }
+        }
+        System.out.printf("top names: %s, %d counts wrong, %d above %d missing%n",
+                sketches.getTopNames(5), wrong, missing, sketches.getTopError());
+        System.out.printf("top exts: %s%n", sketches.getTopExts(exts.length));
+    }
+
+    /**
+     * Searches misspelled names (one or two random edits of an existing name)
+     * with getSimilarNames and with the distance to every distinct name, which
+     * must find the same names.
+     */
+    private static void fuzzy(int n, int queries) {
+        Random random = new Random(11);
+        String[] syllables = {"ba", "co", "de", "fi", "gu", "ja", "ke", "lo", "mu", "ni", "po", "ra", "se", "ti", "vu", "xa"};
+        String[] exts = {".txt", ".jpg", ".java", ".class", ".pdf", ".mp4", ".gz", ""};
+        FileStructure files = new FileStructure(0);
+        Folder folder = new Folder("names", null, "root");
+        files.add(folder);
+
+        long start = System.nanoTime();
+        while (files.nFiles() < n) {
+            StringBuilder name = new StringBuilder();
+            for (int j = 3 + random.nextInt(5); j > 0; --j) {
+                name.append(syllables[random.nextInt(syllables.length)]);
+            }
+            if (random.nextBoolean()) {
+                name.append('_').append(random.nextInt(100));
+            }
+            files.add(new File(name.append(exts[random.nextInt(exts.length)]).toString(), folder, 0, "root"));
+        }
+        System.out.printf("%d names made in %.1f ms%n", n, (System.nanoTime() - start) / 1e6);
+
+        List<File> all = new ArrayList<>(files.getByFolder(folder));
+        String[] keys = new String[all.size()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = all.get(i).getName();
+        }
+
+        String[] typos = new String[queries];
+        for (int i = 0; i < queries; ++i) {
+            StringBuilder typo = new StringBuilder(keys[random.nextInt(keys.length)]);
+            for (int j = 1 + random.nextInt(2); j > 0; --j) {
+                int at = random.nextInt(typo.length());
+                char c = (char) ('a' + random.nextInt(26));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        typo.setCharAt(at, c);
+                        break;
+                    case 1:
+                        typo.insert(at, c);
+                        break;
+                    default:
+                        typo.deleteCharAt(at);
+                }
+            }
+            typos[i] = typo.toString();
+        }
+
+        //the searches walk the index until they did the work of copying the names
+        start = System.nanoTime();
+        for (String typo : typos) {
+            files.getSimilarNames(typo, 2, 1);
+        }
+        System.out.printf("warm up in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        for (int k = 1; k <= 2; ++k) {
+            long found = 0;
+            long[] nanos = new long[queries];
+            ArrayList<List<String>> results = new ArrayList<>();
+
+            for (int i = 0; i < queries; ++i) {
+                long t = System.nanoTime();
+                List<String> similar = files.getSimilarNames(typos[i], k, Integer.MAX_VALUE);
+                nanos[i] = System.nanoTime() - t;
+                found += similar.size();
+                results.add(similar);
+            }
+            Arrays.sort(nanos);
+
+            long bruteStart = System.nanoTime();
+            int different = 0;
+            for (int i = 0; i < queries; ++i) {
+                HashSet<String> brute = new HashSet<>();
+                for (String key : keys) {
+                    if (Math.abs(key.length() - typos[i].length()) <= k && levenshtein(typos[i], key) <= k) {
+                        brute.add(key);
+                    }
+                }
+                if (!brute.equals(new HashSet<>(results.get(i)))) {
+                    ++different;
+                }
+            }
+            long bruteNanos = System.nanoTime() - bruteStart;
+
+            System.out.printf("k=%d: automaton p50 %.2f ms p99 %.2f ms, every name %.2f ms per query, %d found, %d different%n",
+                    k, nanos[queries / 2] / 1e6, nanos[queries * 99 / 100] / 1e6, bruteNanos / 1e6 / queries,
+                    found, different);
+        }
+    }
+
+    /**
+     * Runs prefixes and globs over a made up home tree (home/userN/ with
+     * projects, caches and documents) with getByPathPrefix and getByGlob, and
+     * with every path built and checked, which must find the same Files.
+     */
+    private static void paths(int n) {
+        Random random = new Random(13);
+        String[] kinds = {"cache", "docs", "src", "build"};
+        String[] exts = {".tmp", ".txt", ".java", ".class", ".log", ""};
+        FileStructure files = new FileStructure(0);
+        Folder home = new Folder("home", null, "root");
+        files.add(home);
+        ArrayList<Folder> folders = new ArrayList<>();
+
+        for (int u = 0; u < 200; ++u) {
+            Folder user = new Folder("user" + u, home, "user" + u);
+            files.add(user);
+            for (String kind : kinds) {
+                Folder f = new Folder(kind, user, "user" + u);
+                files.add(f);
+                folders.add(f);
+                for (int d = 0; d < 5; ++d) {
+                    Folder sub = new Folder(kind + d, f, "user" + u);
+                    files.add(sub);
+                    folders.add(sub);
+                }
+            }
+        }
+
+        while (files.nFiles() < n) {
+            files.add(new File("f" + random.nextInt(n) + exts[random.nextInt(exts.length)],
+                    folders.get(random.nextInt(folders.size())), 1, "root"));
+        }
+
+        String[] prefixes = {"home/user7/", "home/user1", "home/user42/cache/cache3/f1", "home/nobody/"};
+        String[] globs = {"/home/*/cache/**/*.tmp", "home/user1?/src/*", "home/**/build?/", "**/f12*.log", "home/user3/docs/**"};
+        String[] regexes = {"home/[^/]*/cache/(.*/)?[^/]*\\.tmp", "home/user1./src/[^/]+/?", "home/(.*/)?build./", ".*/f12[^/]*\\.log",
+            "home/user3/docs/.+"};
+
+        long start = System.nanoTime();
+        files.getByPathPrefix("");
+        System.out.printf("%d entries indexed by path in %.1f ms%n", files.nFiles() + files.nFolders(),
+                (System.nanoTime() - start) / 1e6);
+
+        for (int q = 0; q < prefixes.length + globs.length; ++q) {
+            boolean isPrefix = q < prefixes.length;
+            String query = isPrefix ? prefixes[q] : globs[q - prefixes.length];
+            Pattern regex = isPrefix ? null : Pattern.compile(regexes[q - prefixes.length]);
+
+            start = System.nanoTime();
+            List<File> found = isPrefix ? files.getByPathPrefix(query) : files.getByGlob(query);
+            long nanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ArrayList<File> scanned = new ArrayList<>();
+            files.stream().forEach((File f) -> {
+                String path = f.getPath();
+                if (isPrefix ? path.startsWith(query) : regex.matcher(path).matches()) {
+                    scanned.add(f);
+                }
+            });
+            scanned.sort(Comparator.comparing(File::getPath));
+            long scanNanos = System.nanoTime() - start;
+
+            System.out.printf("%-28s %7d found in %8.3f ms, every path %8.1f ms, %s%n", query, found.size(),
+                    nanos / 1e6, scanNanos / 1e6, found.equals(scanned) ? "same" : "DIFFERENT " + scanned.size());
+        }
+    }
+
+    /**
+     * Asks for the Files modified in the last hour and the newest Files under
+     * some Folders of a made up structure, with getModifiedBetween and
+     * getNewestUnder, and scanning and sorting every File, which must find
+     * the same Files.
+     */
+    private static void recent(int n) {
+        Random random = new Random(17);
+        FileStructure files = new FileStructure(0);
+        long now = System.currentTimeMillis() / 1000;
+        Folder[] folders = new Folder[111];
+
+        for (int i = 0; i < folders.length; ++i) {
+            folders[i] = new Folder("dir" + i, i < 10 ? null : folders[i / 10 - 1], "root", now - random.nextInt(1 << 26));
+            files.add(folders[i]);
+        }
+        for (int i = 0; i < n; ++i) {
+            //a few Files of the last days, most of them from the last two years
+            long mtime = now - (i % 100 == 0 ? random.nextInt(1 << 18) : random.nextInt(1 << 26));
+            files.add(new File("file" + i, folders[random.nextInt(folders.length)], 1, "root", mtime));
+        }
+
+        Comparator<File> newest = Comparator.comparingLong(File::getMtime).reversed();
+        long start = System.nanoTime();
+        List<File> hour = files.getModifiedBetween(now - 3600, now);
+        long nanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        ArrayList<File> scanned = new ArrayList<>();
+        files.stream().filter((File f) -> f.getMtime() >= now - 3600 && f.getMtime() <= now).forEach(scanned::add);
+        long scanNanos = System.nanoTime() - start;
+        System.out.printf("last hour: %d Files in %.3f ms, every File %.1f ms, %s%n", hour.size(), nanos / 1e6,
+                scanNanos / 1e6, new HashSet<>(hour).equals(new HashSet<>(scanned)) ? "same" : "DIFFERENT");
+
+        start = System.nanoTime();
+        files.getNewestUnder("", 1);
+        System.out.printf("time tree built in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        for (String path : new String[]{"", "dir3/", "dir3/dir40/", "dir3/dir40/dir410/"}) {
+            start = System.nanoTime();
+            List<File> found = files.getNewestUnder(path, 10);
+            nanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ArrayList<File> all = new ArrayList<>(files.getBySubtree(path));
+            all.sort(newest);
+            List<File> expected = all.subList(0, Math.min(10, all.size()));
+            scanNanos = System.nanoTime() - start;
+
+            //ties may come in another order, the times must be the same
+            boolean same = found.size() == expected.size();
+            for (int i = 0; same && i < found.size(); ++i) {
+                same = found.get(i).getMtime() == expected.get(i).getMtime();
+            }
+            System.out.printf("newest 10 under %-20s %8.3f ms, sorting the subtree %8.1f ms, %s%n", "\"" + path + "\"",
+                    nanos / 1e6, scanNanos / 1e6, same ? "same" : "DIFFERENT");
+        }
+    }
+
+    /**
+     * Adds the Files of a made up structure to an LsmStructure with a small
+     * memtable, so they end in many runs and compactions, and searches it by
+     * name (half of the names missing, to see the bloom filters skip runs),
+     * extension, user, size and range of sizes, before and after opening it
+     * again. Every search must find the same paths than the FileStructure.
+     */
+    private static void lsm(int n) throws IOException {
+        Path dir = Files.createTempDirectory("lsm");
+        FileStructure files = synthetic(n);
+        ArrayList<File> all = new ArrayList<>();
+        files.stream().forEach(all::add);
+
+        try {
+            LsmStructure lsm = LsmStructure.open(dir, Math.max(1, n / 20), LsmStructure.DEFAULT_FPP);
+            long start = System.nanoTime();
+            for (File f : all) {
+                lsm.add(f);
+            }
+            lsm.flush();
+            long nanos = System.nanoTime() - start;
+            long[] merges = lsm.merges();
+            System.out.printf("%d entries added in %.1f ms (%.0f/s), %d flushes, %d compactions, %d runs, %d KiB in memory%n",
+                    all.size(), nanos / 1e6, all.size() * 1e9 / nanos, merges[0], merges[1], lsm.nRuns(),
+                    lsm.indexMemory() / 1024);
+
+            lsmQueries(lsm, files, n);
+            lsm.close();
+
+            lsm = LsmStructure.open(dir);
+            System.out.println("opened again:");
+            lsmQueries(lsm, files, n);
+            lsm.close();
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach((Path p) -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static void lsmQueries(LsmStructure lsm, FileStructure files, int n) throws IOException {
+        Random random = new Random(5);
+        int same = 0;
+        int queries = 0;
+        long skips = lsm.bloomSkips();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 1000; ++i) {
+            //synthetic names are file<k>.<ext> with k < n / 4, and a misspelled half
+            String name = "file" + random.nextInt(n / 4) + (i % 2 == 0 ? ".txt" : ".tx");
+            same += samePaths(lsm.getByName(name), files.getByName(name)) ? 1 : 0;
+            ++queries;
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%d getByName in %.1f ms, %d runs skipped by their bloom filter%n", queries, nanos / 1e6,
+                lsm.bloomSkips() - skips);
+
+        start = System.nanoTime();
+        for (String ext : new String[]{"txt", "java", "nope"}) {
+            same += samePaths(lsm.getByExt(ext), files.getByExt(ext)) ? 1 : 0;
+            ++queries;
+        }
+        for (int u = 0; u < 13; u += 4) {
+            same += samePaths(lsm.getByUser("user" + u), files.getByUser("user" + u)) ? 1 : 0;
+            ++queries;
+        }
+        for (int i = 0; i < 100; ++i) {
+            long size = random.nextInt(1 << 20);
+            same += samePaths(lsm.getBySize(size), files.getBySize(size)) ? 1 : 0;
+            ++queries;
+        }
+        for (int i = 0; i < 10; ++i) {
+            long min = random.nextInt(1 << 20);
+            ArrayList<File> expected = new ArrayList<>();
+            files.getHigherThan(min).headMap(min + 1000).values().forEach(expected::addAll);
+            same += samePaths(lsm.getBySizeBetween(min, min + 999), expected) ? 1 : 0;
+            ++queries;
+        }
+        nanos = System.nanoTime() - start;
+
+        System.out.printf("%d other searches in %.1f ms, %d of %d queries %s%n", queries - 1000, nanos / 1e6, same,
+                queries, same == queries ? "same" : "DIFFERENT");
+    }
+
+    private static boolean samePaths(List<File> found, List<File> expected) {
+        HashSet<String> a = new HashSet<>();
+        found.forEach((File f) -> a.add(f.getPath()));
+        HashSet<String> b = new HashSet<>();
+        if (expected != null) {
+            expected.forEach((File f) -> b.add(f.getPath()));
+        }
+        return found.size() == b.size() && a.equals(b);
+    }
+
+    /**
+     * Searches names, extensions and users of a made up structure with long
+     * names sharing a prefix, nine of every ten of them missing, without and
+     * with bloom filters, which must find the same Files, and reports the
+     * memory of the filters and their false positives.
+     */
+    private static void bloom(int n, double fpp) {
+        Random random = new Random(23);
+        FileStructure files = new FileStructure(0);
+        Folder[] folders = new Folder[1000];
+
+        for (int i = 0; i < folders.length; ++i) {
+            folders[i] = new Folder("dir" + i, i < 10 ? null : folders[i / 10 - 1], "root");
+            files.add(folders[i]);
+        }
+        for (int i = 0; i < n; ++i) {
+            files.add(new File("IMG_2024_camera_upload_" + random.nextInt(n) + ".jpg",
+                    folders[random.nextInt(folders.length)], 1, "user" + random.nextInt(100)));
+        }
+
+        String[] names = new String[1000000];
+        String[] keys = new String[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            //a tenth are names of the structure, the rest are searched in vain
+            int k = random.nextInt(n);
+            names[i] = "IMG_2024_camera_upload_" + (i % 10 == 0 ? k : n + k) + ".jpg";
+            keys[i] = i % 3 == 0 ? "user" + random.nextInt(1000) : "e" + random.nextInt(1000);
+        }
+
+        long[] found = new long[2];
+        for (int round = 0; round < 3; ++round) {
+            for (int filtered = 0; filtered < 2; ++filtered) {
+                files.setBloomFilters(filtered == 0 ? 0 : fpp);
+                long skips = files.getBloomFilterSkips();
+                long hits = 0;
+                long misses = 0;
+                long start = System.nanoTime();
+
+                for (int i = 0; i < names.length; ++i) {
+                    List<File> byName = files.getByName(names[i]);
+                    List<File> byKey = i % 3 == 0 ? files.getByUser(keys[i]) : files.getByExt(keys[i]);
+                    hits += (byName == null ? 0 : byName.size()) + (byKey == null ? 0 : byKey.size());
+                    misses += (byName == null ? 1 : 0) + (byKey == null ? 1 : 0);
+                }
+
+                long nanos = System.nanoTime() - start;
+                found[filtered] = hits;
+                if (round == 2) {
+                    //every miss not skipped is a false positive
+                    long skipped = files.getBloomFilterSkips() - skips;
+                    System.out.printf("%-13s %d searches in %7.1f ms, %d Files found%s%n",
+                            filtered == 0 ? "trees only" : "bloom filters", names.length * 2, nanos / 1e6, hits,
+                            filtered == 0 ? "" : String.format(", %d KiB, expected fpp %.4f, measured %.4f",
+                                    files.getBloomFilterBytes() / 1024, files.getBloomFilterFpp(),
+                                    (double) (misses - skipped) / misses));
+                }
+            }
+        }
+
+        System.out.println(found[0] == found[1] ? "same" : "DIFFERENT");
+    }
+
+    /**
+     * Walks a tree of Folders down and up like a disk usage browser, showing
+     * the biggest children of every Folder with getByFolderBySize, against
+     * adding up every child's subtree with getBySubtree and sorting them. Then
+     * adds more Files, which keep the totals up to date, and walks again.
+     */
+    private static void du(int n) {
+        Random random = new Random(29);
+        FileStructure files = new FileStructure(0);
+        ArrayList<Folder> folders = new ArrayList<>();
+        folders.add(null);
+
+        for (int i = 0; i < n; ++i) {
+            Folder parent = folders.get(random.nextInt(folders.size()));
+            if (i % 20 == 0) {
+                Folder f = new Folder("dir" + i, parent, "root");
+                files.add(f);
+                folders.add(f);
+            } else {
+                files.add(new File("file" + i, parent, (long) (Math.exp(random.nextDouble() * 20)), "root"));
+            }
+        }
+
+        long start = System.nanoTime();
+        FolderStats home = files.getFolderStats("");
+        System.out.printf("totals built in %.1f ms: %s%n", (System.nanoTime() - start) / 1e6, home);
+
+        for (int round = 0; round < 2; ++round) {
+            int steps = 0;
+            long nanos = 0;
+            String path = "";
+
+            for (int i = 0; i < 10000; ++i) {
+                long t = System.nanoTime();
+                List<File> childs = files.getByFolderBySize(path, 50);
+                FolderStats stats = files.getFolderStats(path);
+                nanos += System.nanoTime() - t;
+                steps++;
+
+                ArrayList<Folder> down = new ArrayList<>();
+                if (childs != null) {
+                    for (File f : childs) {
+                        if (f instanceof Folder) {
+                            down.add((Folder) f);
+                        }
+                    }
+                }
+
+                if (down.isEmpty() || stats.getDepth() > 6) {
+                    path = "";
+                } else {
+                    path = down.get(random.nextInt(Math.min(down.size(), 5))).getPath();
+                }
+            }
+
+            long naive = 0;
+            int naiveSteps = 0;
+            for (int i = 0; i < 20; ++i) {
+                String p = i == 0 ? "" : folders.get(1 + random.nextInt(folders.size() - 1)).getPath();
+                long t = System.nanoTime();
+                Collection<File> in = files.getByFolder(p);//null for an empty Folder
+                ArrayList<File> childs = in == null ? new ArrayList<>() : new ArrayList<>(in);
+                HashMap<File, Long> sizes = new HashMap<>();
+                for (File f : childs) {
+                    long bytes = f.getSize();
+                    if (f instanceof Folder) {
+                        for (File g : files.getBySubtree(f.getPath())) {
+                            bytes += g.getSize();
+                        }
+                    }
+                    sizes.put(f, bytes);
+                }
+                childs.sort((File a, File b) -> Long.compare(sizes.get(b), sizes.get(a)));
+                naive += System.nanoTime() - t;
+                naiveSteps++;
+            }
+
+            System.out.printf("%d Files: %d steps, %.1f us each; summing subtrees %.1f ms each%n",
+                    files.nFiles() + files.nFolders(), steps, nanos / 1e3 / steps, naive / 1e6 / naiveSteps);
+
+            if (round == 0) {
+                start = System.nanoTime();
+                for (int i = 0; i < n / 10; ++i) {
+                    files.add(new File("new" + i, folders.get(random.nextInt(folders.size())),
+                            (long) (Math.exp(random.nextDouble() * 20)), "root"));
+                }
+                System.out.printf("%d more Files added in %.1f ms%n", n / 10, (System.nanoTime() - start) / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Finds the duplicate candidates of made up Files, a third of them copies
+     * of others, with every refinement, and checks the groups by size against
+     * counting the Files of every size.
+     */
+    private static void dups(int n) {
+        Random random = new Random(31);
+        FileStructure files = new FileStructure(0);
+        Folder[] folders = new Folder[1000];
+        String[] exts = {"txt", "jpg", "pdf", "mp4", ""};
+
+        for (int i = 0; i < folders.length; ++i) {
+            folders[i] = new Folder("dir" + i, i < 10 ? null : folders[i / 10 - 1], "root");
+            files.add(folders[i]);
+        }
+
+        File[] made = new File[n];
+        for (int i = 0; i < n; ++i) {
+            Folder parent = folders[random.nextInt(folders.length)];
+            if (i > 0 && random.nextInt(3) == 0) {
+                File original = made[random.nextInt(i)];
+                String name = original.getName();
+                int dot = name.lastIndexOf('.');
+                String copy = dot < 0 ? name + " (1)" : name.substring(0, dot) + " (1)" + name.substring(dot);
+                made[i] = new File(random.nextBoolean() ? name : copy, parent, original.getSize(), "root");
+            } else {
+                String ext = exts[random.nextInt(exts.length)];
+                made[i] = new File("file" + i + (ext.isEmpty() ? "" : "." + ext), parent,
+                        1 + (long) (Math.exp(random.nextDouble() * 20)), "root");
+            }
+        }
+
+        HashMap<Long, Integer> bySize = new HashMap<>();
+        for (File f : made) {
+            if (files.add(f)) {
+                bySize.merge(f.getSize(), 1, Integer::sum);
+            }
+        }
+        long groups = 0;
+        long reclaimable = 0;
+        for (java.util.Map.Entry<Long, Integer> e : bySize.entrySet()) {
+            if (e.getValue() > 1) {
+                groups++;
+                reclaimable += e.getKey() * (e.getValue() - 1);
+            }
+        }
+
+        for (DuplicateFinder.Refinement r : DuplicateFinder.Refinement.values()) {
+            DuplicateFinder finder = new DuplicateFinder(files, r, 1);
+            long[] found = new long[2];
+            long nanos = 0;
+
+            for (int round = 0; round < 3; ++round) {
+                long start = System.nanoTime();
+                found = finder.stream().collect(() -> new long[2],
+                        (long[] acc, DuplicateFinder.Group g) -> {
+                            acc[0]++;
+                            acc[1] += g.getReclaimable();
+                        },
+                        (long[] a, long[] b) -> {
+                            a[0] += b[0];
+                            a[1] += b[1];
+                        });
+                nanos = System.nanoTime() - start;
+            }
+
+            List<DuplicateFinder.Group> top = finder.top(10);
+            System.out.printf("%-5s %8d groups, %.1f MiB reclaimable, in %7.1f ms, biggest %s%n", r, found[0],
+                    found[1] / 1048576.0, nanos / 1e6, top.isEmpty() ? "-" : top.get(0).getReclaimable());
+            if (r == DuplicateFinder.Refinement.SIZE) {
+                System.out.println(found[0] == groups && found[1] == reclaimable ? "same as counting" : "DIFFERENT");
+            }
+        }
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] curr = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); ++j) {
+            prev[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); ++i) {
+            curr[0] = i;
+            for (int j = 1; j <= b.length(); ++j) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1], prev[j]) + 1, prev[j - 1] + cost);
+            }
+            int[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+
+        return prev[b.length()];
+    }
+
+    /**
+     * A made up FileStructure with n Files spread in two levels of Folders.
+     */
+    private static FileStructure synthetic(int n) {
+        FileStructure ret = new FileStructure();
+        Random random = new Random(42);
+        String[] exts = {"txt", "jpg", "java", "class", "pdf", "mp4", "gz", ""};
+        Folder[] folders = new Folder[100];
+
+        for (int i = 0; i < folders.length; ++i) {
+            Folder parent = i < 10 ? null : folders[i % 10];
+            folders[i] = new Folder("dir" + i, parent, "user" + (i % 13));
+            ret.add(folders[i]);
+        }
+
+        for (int i = 0; i < n; ++i) {
+            String ext = exts[random.nextInt(exts.length)];
+            ret.add(new File("file" + random.nextInt(n / 4) + (ext.isEmpty() ? "" : "." + ext),
+                    folders[random.nextInt(folders.length)], random.nextInt(1 << 20), "user" + random.nextInt(13)));
+        }
+
+        return ret;
+    }
+
+    private static void report(String name, FileStructure files, long nanos) {
+        long entries = files.nFiles() + files.nFolders();
+        System.out.printf("%-14s %9d entries %8.1f ms %12.0f entries/s%n",
+                name, entries, nanos / 1e6, entries * 1e9 / nanos);
+    }
+
+    private static FileStructure walk(Path root) throws IOException {
+        FileStructure ret = new FileStructure();
+        ArrayDeque<Folder> parents = new ArrayDeque<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Folder f = new Folder(dir.getFileName().toString(), parents.peek(), attrs.size(), owner(dir));
+                ret.add(f);
+                parents.push(f);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isSymbolicLink()) {
+                    ret.add(new File(file.getFileName().toString(), parents.peek(), attrs.size(), owner(file)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                parents.pop();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return ret;
+    }
+
+    private static String owner(Path path) throws IOException {
+        return Files.readAttributes(path, PosixFileAttributes.class).owner().getName();
+    }
+
+    private static void makeTree(Path dir, int depth, int folders, int files) throws IOException {
+        for (int i = 0; i < files; ++i) {
+            Files.write(dir.resolve("file" + i + ".txt"), new byte[i]);
+        }
+
+        if (depth > 0) {
+            for (int i = 0; i < folders; ++i) {
+                makeTree(Files.createDirectory(dir.resolve("dir" + i)), depth - 1, folders, files);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The class CountingInputStream counts the bytes read from a stream, so a
+ * Loader can tell how far it is. The count is written by the thread which
+ * reads (e.g. the decompressor of a PipelinedInputStream) and can be read from
+ * any other.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private volatile long count;
+
+    /**
+     * Creates a new CountingInputStream over the given stream.
+     *
+     * @param in The stream read.
+     */
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int ret = in.read();
+        if (ret >= 0) {
+            count++;
+        }
+        return ret;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int ret = in.read(b, off, len);
+        if (ret > 0) {
+            count += ret;
+        }
+        return ret;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long ret = in.skip(n);
+        count += ret;
+        return ret;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * The number of bytes read so far.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return count;
+    }
+}
@@ -0,0 +1,243 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class Crawler builds a FileStructure reading a real directory tree,
+ * without writing a listing first. Every directory is a task of a work
+ * stealing ForkJoinPool, so many threads list directories and read attributes
+ * at the same time, and the Files of every directory are added to the
+ * FileStructure together, holding its lock only once per directory.
+ *
+ * Directories which can't be read are skipped and counted in errors().
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Crawler {
+
+    /**
+     * What to do with symbolic links.
+     */
+    public enum Links {
+        /**
+         * Symbolic links are ignored.
+         */
+        SKIP,
+        /**
+         * Symbolic links are added as Files, with the attributes of the link.
+         */
+        AS_FILE,
+        /**
+         * Symbolic links are followed, each directory is visited only once.
+         */
+        FOLLOW
+    }
+
+    private final int parallelism;
+    private final Links links;
+    private final boolean crossMounts;
+    private final AtomicLong errors;
+    private final Set<Object> visited;
+    private boolean posix;
+    private boolean unix;
+    private Object rootDevice;
+
+    /**
+     * Builds a new Crawler.
+     *
+     * @param parallelism The number of threads used.
+     * @param links What to do with symbolic links.
+     * @param crossMounts false to stay in the file system of the root, the
+     * mount points are added as Folders but not read.
+     */
+    public Crawler(int parallelism, Links links, boolean crossMounts) {
+        this.parallelism = parallelism;
+        this.links = links;
+        this.crossMounts = crossMounts;
+        errors = new AtomicLong();
+        visited = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Reads the tree under the given directory into a new FileStructure, the
+     * directory is a Folder directly inside HOME.
+     *
+     * @param root The directory read.
+     * @return The new FileStructure.
+     * @throws IOException if the root can't be read.
+     */
+    public FileStructure crawl(Path root) throws IOException {
+        FileStructure ret = new FileStructure();
+        crawl(root, ret);
+        return ret;
+    }
+
+    /**
+     * Reads the tree under the given directory into the given FileStructure,
+     * the directory is a Folder directly inside HOME.
+     *
+     * @param root The directory read.
+     * @param files Where the Files are added, locked while adding.
+     * @throws IOException if the root can't be read.
+     */
+    public void crawl(Path root, FileStructure files) throws IOException {
+        root = root.toAbsolutePath().normalize();
+        posix = root.getFileSystem().supportedFileAttributeViews().contains("posix");
+        unix = root.getFileSystem().supportedFileAttributeViews().contains("unix");
+        rootDevice = deviceOf(root);
+        errors.set(0);
+        visited.clear();
+
+        BasicFileAttributes attrs = attributes(root, true);
+        String name = root.getFileName() == null ? root.toString() : root.getFileName().toString();
+        Folder home = new Folder(name, null, attrs.size(), userOf(attrs), mtimeOf(attrs));
+        visited.add(key(root, attrs));
+
+        synchronized (files) {
+            files.add(home);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Visit(root, home, files));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The number of directories and Files which couldn't be read in the last
+     * crawl.
+     *
+     * @return How many errors happened.
+     */
+    public long errors() {
+        return errors.get();
+    }
+
+    private BasicFileAttributes attributes(Path path, boolean follow) throws IOException {
+        LinkOption[] options = follow ? new LinkOption[0] : new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
+
+        if (posix) {
+            return Files.readAttributes(path, PosixFileAttributes.class, options);
+        }
+
+        return Files.readAttributes(path, BasicFileAttributes.class, options);
+    }
+
+    /**
+     * Identifies the file system of a directory, the "unix:dev" attribute
+     * costs a single stat, the FileStore is used where it isn't supported.
+     */
+    private Object deviceOf(Path dir) throws IOException {
+        if (unix) {
+            return Files.getAttribute(dir, "unix:dev");
+        }
+
+        return Files.getFileStore(dir);
+    }
+
+    private static String userOf(BasicFileAttributes attrs) {
+        if (attrs instanceof PosixFileAttributes) {
+            return ((PosixFileAttributes) attrs).owner().getName();
+        }
+
+        return "";
+    }
+
+    private static long mtimeOf(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.SECONDS);
+    }
+
+    private static Object key(Path path, BasicFileAttributes attrs) {
+        Object ret = attrs.fileKey();
+        return ret == null ? path : ret;
+    }
+
+    /**
+     * Lists one directory, adds its Files and forks a Visit for every child
+     * directory.
+     */
+    private class Visit extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Folder folder;
+        private final FileStructure files;
+
+        Visit(Path dir, Folder folder, FileStructure files) {
+            this.dir = dir;
+            this.folder = folder;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<File> childs = new ArrayList<>();
+            ArrayList<Visit> subdirs = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    read(child, childs, subdirs);
+                }
+            } catch (IOException | RuntimeException ex) {
+                errors.incrementAndGet();
+            }
+
+            synchronized (files) {
+                for (File f : childs) {
+                    files.add(f);
+                }
+            }
+
+            invokeAll(subdirs);
+        }
+
+        private void read(Path child, ArrayList<File> childs, ArrayList<Visit> subdirs) {
+            try {
+                BasicFileAttributes attrs = attributes(child, false);
+                String name = child.getFileName().toString();
+
+                if (attrs.isSymbolicLink()) {
+                    if (links == Links.SKIP) {
+                        return;
+                    } else if (links == Links.FOLLOW) {
+                        attrs = attributes(child, true);
+                    }
+                }
+
+                if (attrs.isDirectory() && (!attrs.isSymbolicLink() || links == Links.FOLLOW)) {
+                    if (links == Links.FOLLOW && !visited.add(key(child, attrs))) {
+                        return;//already visited through another link
+                    }
+
+                    Folder sub = new Folder(name, folder, attrs.size(), userOf(attrs), mtimeOf(attrs));
+                    childs.add(sub);
+
+                    //a mount point is added, but not read
+                    if (crossMounts || rootDevice.equals(deviceOf(child))) {
+                        subdirs.add(new Visit(child, sub, files));
+                    }
+                } else {
+                    childs.add(new File(name, folder, attrs.size(), userOf(attrs), mtimeOf(attrs)));
+                }
+            } catch (IOException | RuntimeException ex) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The class DuParser reads the output of
+ * <pre>du -ab DIR</pre>
+ * that is, for every File its size in bytes, a tab and its full path. du
+ * writes the contents of a directory before the directory itself, so the
+ * Folders are made when their first File is read, and the line of the
+ * directory (which has the size of its whole subtree) is ignored. du doesn't
+ * say who owns the Files, every File gets the same given user, and an empty
+ * directory can't be told apart from a File.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class DuParser implements ListingParser {
+
+    private final String user;
+
+    /**
+     * Builds a new DuParser.
+     *
+     * @param user The user given to every File.
+     */
+    public DuParser(String user) {
+        this.user = user;
+    }
+
+    @Override
+    public void parse(InputStream in, FileStructure files) throws IOException {
+        RecordReader reader = new RecordReader(in, (byte) '\n');
+        PathCache cache = new PathCache(files, user);
+
+        while (reader.next()) {
+            if (reader.length == 0) {
+                continue;
+            }
+
+            int sizeEnd = reader.skipToken(0);
+            long size = reader.number(0, sizeEnd);
+            String path = PathCache.normalize(reader.string(sizeEnd + 1, reader.length));
+
+            if (!cache.contains(path)) {
+                files.add(new File(PathCache.nameOf(path), cache.folder(PathCache.parentOf(path)), size, user));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The class FindParser reads the output of
+ * <pre>find DIR -printf '%s %u %p\0'</pre>
+ * that is, for every File its size, user and full path, ended by a NUL (or by
+ * any other delimiter, e.g. '\n' for -printf '%s %u %p\n').
+ *
+ * find doesn't say which entries are directories, but it writes every
+ * directory just before its contents, so an entry is taken as a Folder when the
+ * next entry is inside it. If a File comes before its directory (e.g. find
+ * -depth) the Folder is made when the File is read, with an unknown user "", and
+ * the directory entry is ignored afterwards.
+ *
+ * With times, every entry also has its modification time before the path:
+ * <pre>find DIR -printf '%s %u %T@ %p\0'</pre>
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class FindParser implements ListingParser {
+
+    private final byte delimiter;
+    private final boolean times;
+
+    /**
+     * Builds a new FindParser for NUL delimited entries.
+     */
+    public FindParser() {
+        this((byte) 0);
+    }
+
+    /**
+     * Builds a new FindParser for entries ended by the given byte.
+     *
+     * @param delimiter The byte at the end of every entry.
+     */
+    public FindParser(byte delimiter) {
+        this(delimiter, false);
+    }
+
+    /**
+     * Builds a new FindParser for entries ended by the given byte, which may
+     * have the modification time (%T@) between the user and the path.
+     *
+     * @param delimiter The byte at the end of every entry.
+     * @param times true if the entries have the modification time.
+     */
+    public FindParser(byte delimiter, boolean times) {
+        this.delimiter = delimiter;
+        this.times = times;
+    }
+
+    @Override
+    public void parse(InputStream in, FileStructure files) throws IOException {
+        RecordReader reader = new RecordReader(in, delimiter);
+        PathCache cache = new PathCache(files, "");
+        String pendingPath = null;
+        String pendingUser = null;
+        long pendingSize = 0;
+        long pendingMtime = File.NO_MTIME;
+
+        while (reader.next()) {
+            if (reader.length == 0) {
+                continue;
+            }
+
+            int sizeEnd = reader.skipToken(0);
+            long size = reader.number(0, sizeEnd);
+            int userFrom = reader.skipBlanks(sizeEnd);
+            int userEnd = reader.skipToken(userFrom);
+            int pathFrom = userEnd + 1;
+            long mtime = File.NO_MTIME;
+
+            if (times) {
+                //seconds and fraction, e.g. 1700000000.1234567890
+                int timeFrom = reader.skipBlanks(userEnd);
+                int timeEnd = reader.skipToken(timeFrom);
+                int dot = timeFrom;
+                while (dot < timeEnd && reader.record[dot] != '.') {
+                    ++dot;
+                }
+                mtime = reader.number(timeFrom, dot);
+                pathFrom = timeEnd + 1;
+            }
+
+            String path = PathCache.normalize(reader.string(pathFrom, reader.length));
+
+            if (pendingPath != null) {
+                flush(cache, files, pendingPath, pendingSize, pendingUser, pendingMtime,
+                        PathCache.parentOf(path).equals(pendingPath));
+            }
+
+            if (path.length() == 0 || cache.contains(path)) {
+                pendingPath = null;//HOME or a directory already made by its Files
+            } else {
+                pendingPath = path;
+                pendingSize = size;
+                pendingUser = reader.string(userFrom, userEnd);
+                pendingMtime = mtime;
+            }
+        }
+
+        if (pendingPath != null) {
+            flush(cache, files, pendingPath, pendingSize, pendingUser, pendingMtime, false);
+        }
+    }
+
+    private static void flush(PathCache cache, FileStructure files, String path, long size, String user, long mtime,
+            boolean folder) {
+        if (folder) {
+            cache.declare(path, size, user, mtime);
+        } else {
+            files.add(new File(PathCache.nameOf(path), cache.folder(PathCache.parentOf(path)), size, user, mtime));
+        }
+    }
+}
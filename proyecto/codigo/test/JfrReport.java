@@ -0,0 +1,133 @@
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * The class JfrReport summarizes a Flight Recorder recording made with
+ * fplogn.jfc: the time of every phase of the loads, how much of the add phase
+ * was inside FileStructure.add and where it was spent (from the method samples
+ * taken inside it), every kind of search recorded and the garbage
+ * collections. Run as:
+ * <pre>java JfrReport recording.jfr</pre>
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class JfrReport {
+
+    private static final String ADD = "fplogn.FileStructure.add";
+
+    private long entries;
+    private long bytes;
+    private long wall;
+    private final long[] phases = new long[3];
+    private long addCalls;
+    private final TreeMap<String, Long> addSamples = new TreeMap<>();
+    private long samples;
+    private final TreeMap<String, long[]> queries = new TreeMap<>();//{count, nanos, max, results}
+    private long gcs;
+    private long gcNanos;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java JfrReport recording.jfr");
+            return;
+        }
+
+        JfrReport report = new JfrReport();
+        try (RecordingFile recording = new RecordingFile(Paths.get(args[0]))) {
+            while (recording.hasMoreEvents()) {
+                report.accept(recording.readEvent());
+            }
+        }
+        report.print();
+    }
+
+    private void accept(RecordedEvent e) {
+        switch (e.getEventType().getName()) {
+            case "fplogn.Load":
+                entries += e.getLong("entries");
+                bytes += e.getLong("bytes");
+                wall += e.getDuration().toNanos();
+                phases[0] += e.getLong("scan");
+                phases[1] += e.getLong("parse");
+                phases[2] += e.getLong("add");
+                addCalls += e.getLong("addCalls");
+                break;
+            case "fplogn.Query":
+                long[] q = queries.computeIfAbsent(e.getString("query"), (String k) -> new long[4]);
+                long nanos = e.getDuration().toNanos();
+                q[0]++;
+                q[1] += nanos;
+                q[2] = Math.max(q[2], nanos);
+                q[3] += e.getLong("results");
+                break;
+            case "jdk.ExecutionSample":
+                sample(e.getStackTrace());
+                break;
+            case "jdk.GarbageCollection":
+                gcs++;
+                gcNanos += e.getDuration().toNanos();
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Counts a sample inside FileStructure.add by the method add was calling.
+     */
+    private void sample(RecordedStackTrace stack) {
+        if (stack == null) {
+            return;
+        }
+
+        List<RecordedFrame> frames = stack.getFrames();
+        for (int i = 0; i < frames.size(); ++i) {
+            if (name(frames.get(i)).equals(ADD)) {
+                String callee = i == 0 ? "(add itself)" : name(frames.get(i - 1));
+                addSamples.merge(callee.substring(callee.lastIndexOf('.') + 1), 1L, Long::sum);
+                samples++;
+                return;
+            }
+        }
+    }
+
+    private static String name(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+    }
+
+    private void print() {
+        if (entries > 0) {
+            long timed = phases[0] + phases[1] + phases[2];
+            System.out.printf("load: %d entries, %.1f MiB in %.2f s, %.0f entries/s%n", entries,
+                    bytes / 1048576.0, wall / 1e9, entries * 1e9 / wall);
+            String[] names = {"scan", "parse", "add"};
+            for (int i = 0; i < names.length; ++i) {
+                System.out.printf("  %-6s %10.1f ms %5.1f%%%n", names[i], phases[i] / 1e6, 100.0 * phases[i] / timed);
+            }
+            System.out.printf("    %-18s %6.1f ms %5.1f%% of add%n", "inside add", addCalls / 1e6,
+                    100.0 * addCalls / phases[2]);
+            for (Map.Entry<String, Long> s : addSamples.entrySet()) {
+                System.out.printf("    %-18s %6d samples %5.1f%% of add%n", s.getKey(), s.getValue(),
+                        100.0 * s.getValue() / samples);
+            }
+        }
+
+        if (!queries.isEmpty()) {
+            System.out.printf("%-22s %8s %10s %10s %10s%n", "query", "count", "mean ms", "max ms", "results");
+            for (Map.Entry<String, long[]> q : queries.entrySet()) {
+                long[] v = q.getValue();
+                System.out.printf("%-22s %8d %10.3f %10.3f %10.1f%n", q.getKey(), v[0], v[1] / 1e6 / v[0],
+                        v[2] / 1e6, (double) v[3] / v[0]);
+            }
+        }
+
+        System.out.printf("gc: %d collections, %.1f ms%n", gcs, gcNanos / 1e6);
+    }
+}
@@ -0,0 +1,470 @@
+
+import fplogn.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The class LazyLoader reads the same files than Loader, but instead of
+ * loading the whole tree at once, it first makes a fast scan which only
+ * records, for every Folder, the byte offsets where its subtree starts and
+ * ends in the file. The children of a Folder are read from the file the first
+ * time they are asked, jumping over the subtrees of its child Folders, and are
+ * kept in a cache which forgets the least recently used Folders when more than
+ * a given number of Files are cached.
+ *
+ * The file must be UTF-8, the level of every line is the number of characters
+ * before its '['.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class LazyLoader implements Closeable {
+
+    /**
+     * Where the subtree of a Folder is in the file, from the first line of its
+     * first child to the line after its last descendant.
+     */
+    private static class Extent {
+
+        private final Folder folder;
+        private final long start;
+        private long end;
+
+        private Extent(Folder folder, long start) {
+            this.folder = folder;
+            this.start = start;
+        }
+    }
+
+    private final FileChannel channel;
+    private final LineReader reader;
+    private final HashMap<String, Extent> extents;
+    private final LinkedHashMap<String, TreeSet<File>> cache;
+    private final SizeParser sizes;
+    private final long maxCachedFiles;
+    private long cachedFiles;
+    private Folder home;
+
+    /**
+     * Creates a new LazyLoader and scans the given file.
+     *
+     * @param filename The name of the file which contains the data.
+     * @param maxCachedFiles The maximum number of Files kept in the cache,
+     * the Folder being read is always kept even if it has more.
+     * @throws IOException if an IO error occurs.
+     */
+    public LazyLoader(String filename, long maxCachedFiles) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        reader = new LineReader(channel);
+        extents = new HashMap<>();
+        cache = new LinkedHashMap<>(16, 0.75f, true);//access order
+        sizes = new SizeParser();
+        this.maxCachedFiles = maxCachedFiles;
+        cachedFiles = 0;
+        scan();
+    }
+
+    private void scan() throws IOException {
+        reader.seek(0);
+
+        while (reader.next()) {//HOME is the first line with a letter
+            int from = 0;
+            while (from < reader.length && !isLetter(reader.line[from])) {
+                ++from;
+            }
+
+            if (from < reader.length) {
+                int to = from;
+                while (to < reader.length && reader.line[to] != '/') {
+                    ++to;
+                }
+
+                home = new Folder(new String(reader.line, from, to - from, StandardCharsets.UTF_8), null, "");
+                break;
+            }
+        }
+
+        if (home == null) {
+            throw new IOException("The file has no HOME");
+        }
+
+        Extent[] stack = new Extent[64];
+        int[] levels = new int[64];
+        int depth = 1;
+        stack[0] = new Extent(home, reader.offset());
+        levels[0] = -1;
+        extents.put(home.getPath(), stack[0]);
+
+        byte[] prev = new byte[256];
+        int prevLength = 0;
+        int prevLevel = Integer.MAX_VALUE;
+
+        while (reader.next()) {
+            int level = levelOf(reader.line, reader.length);
+
+            if (level < 0) {
+                continue;//not an entry
+            }
+
+            long offset = reader.lineOffset();
+
+            if (level > prevLevel) {//the previous entry is a Folder
+                Folder parent = stack[depth - 1].folder;
+                Folder folder = new Folder(nameOf(prev, prevLength), parent, userOf(prev, prevLength),
+                        mtimeOf(prev, prevLength));
+
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                    levels = Arrays.copyOf(levels, depth * 2);
+                }
+
+                stack[depth] = new Extent(folder, offset);
+                levels[depth++] = prevLevel;
+                extents.put(folder.getPath(), stack[depth - 1]);
+            }
+
+            while (levels[depth - 1] >= level) {
+                stack[--depth].end = offset;
+            }
+
+            if (prev.length < reader.length) {
+                prev = new byte[reader.length * 2];
+            }
+
+            System.arraycopy(reader.line, 0, prev, 0, reader.length);
+            prevLength = reader.length;
+            prevLevel = level;
+        }
+
+        while (depth > 0) {
+            stack[--depth].end = reader.offset();
+        }
+    }
+
+    /**
+     * The HOME Folder of the file.
+     *
+     * @return The only Folder without a parent.
+     */
+    public Folder getHome() {
+        return home;
+    }
+
+    /**
+     * Searches the Folder with the given path, every Folder is known after
+     * the scan.
+     *
+     * @param path The path of the Folder.
+     * @return The Folder, null if it doesn't exist.
+     */
+    public Folder getFolder(String path) {
+        Extent ret = extents.get(path);
+        return ret == null ? null : ret.folder;
+    }
+
+    /**
+     * The number of Folders of the file, without counting HOME.
+     *
+     * @return How many Folders were found by the scan.
+     */
+    public long nFolders() {
+        return extents.size() - 1;
+    }
+
+    /**
+     * The number of Files currently cached.
+     *
+     * @return How many Files are in memory.
+     */
+    public long nCachedFiles() {
+        return cachedFiles;
+    }
+
+    /**
+     * Searches all the Files with the given Folder as their parent, see
+     * getByFolder(String).
+     *
+     * @param folder The searched Folder.
+     * @return All the files with the given Folder as it's parent.
+     * @throws IOException if an IO error occurs.
+     */
+    public SortedSet<File> getByFolder(Folder folder) throws IOException {
+        return getByFolder(folder.getPath());
+    }
+
+    /**
+     * Searches all the Files inside the Folder with the given path, like
+     * FileStructure.getByFolder(String). If the Folder isn't cached its
+     * children are read from the file, reading only their lines.
+     *
+     * @param path The path for the searched Folder, HOME path is "".
+     * @return An unmodifiable SortedSet with all the files in the Folder with
+     * the given path, returns null if there's no Folder with that path or it's
+     * empty.
+     * @throws IOException if an IO error occurs.
+     */
+    public SortedSet<File> getByFolder(String path) throws IOException {
+        TreeSet<File> ret = cache.get(path);
+
+        if (ret == null) {
+            ret = read(path);
+
+            if (ret != null) {
+                cache.put(path, ret);
+                cachedFiles += ret.size();
+                evict();
+            }
+        }
+
+        return ret == null ? null : Collections.unmodifiableSortedSet(ret);
+    }
+
+    private TreeSet<File> read(String path) throws IOException {
+        TreeSet<File> ret = new TreeSet<>((File o1, File o2) -> o1.getName().compareTo(o2.getName()));
+
+        if (path.length() == 0) {
+            ret.add(home);
+            return ret;
+        }
+
+        Extent extent = extents.get(path);
+        if (extent == null) {
+            return null;
+        }
+
+        reader.seek(extent.start);
+        while (reader.next() && reader.lineOffset() < extent.end) {
+            if (levelOf(reader.line, reader.length) < 0) {
+                continue;
+            }
+
+            String name = nameOf(reader.line, reader.length);
+            Extent child = extents.get(path + name + "/");
+
+            if (child != null) {
+                ret.add(child.folder);
+                reader.seek(child.end);//jump over its subtree
+            } else {
+                ret.add(new File(name, extent.folder, sizeOf(reader.line, reader.length), userOf(reader.line, reader.length),
+                        mtimeOf(reader.line, reader.length)));
+            }
+        }
+
+        return ret.isEmpty() ? null : ret;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, TreeSet<File>>> it = cache.entrySet().iterator();
+
+        //the last entry is the one just read, it's never evicted
+        while (cachedFiles > maxCachedFiles && cache.size() > 1) {
+            cachedFiles -= it.next().getValue().size();
+            it.remove();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static boolean isLetter(int curr) {
+        return (curr >= 'A' && curr <= 'Z') || (curr >= 'a' && curr <= 'z');
+    }
+
+    private static boolean isBlank(int curr) {
+        return curr == ' ' || curr == '\t' || curr == '\r';
+    }
+
+    /**
+     * Counts the characters before the '[' of the line, without counting the
+     * continuation bytes of UTF-8.
+     */
+    private static int levelOf(byte[] line, int length) {
+        int level = 0;
+
+        for (int i = 0; i < length; ++i) {
+            if (line[i] == '[') {
+                return level;
+            } else if ((line[i] & 0xC0) != 0x80) {
+                ++level;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(byte[] line, int length, int from, char c) {
+        while (from < length && line[from] != c) {
+            ++from;
+        }
+
+        return from;
+    }
+
+    private static String userOf(byte[] line, int length) {
+        int from = indexOf(line, length, 0, '[') + 1;
+        while (from < length && isBlank(line[from])) {
+            ++from;
+        }
+
+        int to = from;
+        while (to < length && !isBlank(line[to]) && line[to] != ']') {
+            ++to;
+        }
+
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The modification time after the size (tree -D --timefmt=%s), the third
+     * token between '[' and ']'.
+     */
+    private static long mtimeOf(byte[] line, int length) {
+        int at = indexOf(line, length, 0, '[') + 1;
+        int end = indexOf(line, length, at, ']');
+
+        for (int token = 0; token < 2; ++token) {
+            while (at < end && isBlank(line[at])) {
+                ++at;
+            }
+            while (at < end && !isBlank(line[at])) {
+                ++at;
+            }
+        }
+        while (at < end && isBlank(line[at])) {
+            ++at;
+        }
+
+        if (at == end || line[at] < '0' || line[at] > '9') {
+            return File.NO_MTIME;
+        }
+
+        long ret = 0;
+        while (at < end && line[at] >= '0' && line[at] <= '9') {
+            ret = ret * 10 + (line[at++] - '0');
+        }
+
+        return ret;
+    }
+
+    private static String nameOf(byte[] line, int length) {
+        int from = indexOf(line, length, indexOf(line, length, 0, '['), ']') + 1;
+        while (from < length && isBlank(line[from])) {
+            ++from;
+        }
+
+        int to = length;
+        while (to > from && line[to - 1] == '\r') {
+            --to;
+        }
+
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private long sizeOf(byte[] line, int length) {
+        int from = indexOf(line, length, 0, '[') + 1;
+        while (from < length && isBlank(line[from])) {//before the user
+            ++from;
+        }
+
+        while (from < length && !isBlank(line[from])) {//the user
+            ++from;
+        }
+
+        while (from < length && isBlank(line[from])) {
+            ++from;
+        }
+
+        sizes.reset();
+        while (from < length && sizes.accept(line[from])) {
+            ++from;
+        }
+
+        return sizes.size(from < length ? line[from] : ']');
+    }
+
+    /**
+     * Reads the lines of a FileChannel from any offset, the bytes of the
+     * current line (without the '\n') are in line[0, length).
+     */
+    private static class LineReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long bufferOffset;
+        private long lineOffset;
+        private byte[] line;
+        private int length;
+
+        private LineReader(FileChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocate(1 << 16);
+            line = new byte[256];
+        }
+
+        private void seek(long offset) {
+            buffer.clear().flip();
+            bufferOffset = offset;
+            lineOffset = offset;
+            length = 0;
+        }
+
+        /**
+         * The offset of the byte after the current line.
+         */
+        private long offset() {
+            return bufferOffset + buffer.position();
+        }
+
+        /**
+         * The offset of the first byte of the current line.
+         */
+        private long lineOffset() {
+            return lineOffset;
+        }
+
+        private boolean next() throws IOException {
+            lineOffset = offset();
+            length = 0;
+            boolean read = false;
+
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    bufferOffset += buffer.limit();
+                    buffer.clear();
+                    if (channel.read(buffer, bufferOffset) <= 0) {
+                        buffer.flip();
+                        return read;
+                    }
+                    buffer.flip();
+                }
+
+                read = true;
+                byte b = buffer.get();
+
+                if (b == '\n') {
+                    return true;
+                }
+
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+
+                line[length++] = b;
+            }
+        }
+    }
+}
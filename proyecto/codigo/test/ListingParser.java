@@ -0,0 +1,24 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A ListingParser reads a listing of some format and adds every File and
+ * Folder in it to a FileStructure. The listings with flat paths make the
+ * Folders with a PathCache, so there's only one Folder object for every path.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public interface ListingParser {
+
+    /**
+     * Reads the whole listing and adds its Files to the given FileStructure.
+     * The stream isn't closed.
+     *
+     * @param in The listing.
+     * @param files Where the Files are added.
+     * @throws IOException if an IO error occurs or the listing is malformed.
+     */
+    void parse(InputStream in, FileStructure files) throws IOException;
+}
@@ -0,0 +1,64 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The class LoadEvent is the Flight Recorder event of a Loader, one for every
+ * CHUNK lines loaded (and one for the rest), with the time it spent in each
+ * phase: scanning the indentation of the lines, parsing the user, size, time
+ * and name, and adding the Files to the FileStructure, and of that last one
+ * the time inside FileStructure.add alone, timed around every add. The phases
+ * are timed only while the event is enabled, see JfrReport for a summary.
+ *
+ * @author anietog1, ditrefftzr
+ */
+@Name("fplogn.Load")
+@Label("Load Chunk")
+@Category({"fplogn", "Loader"})
+@Description("A chunk of lines read by a Loader, with the time of every phase")
+@StackTrace(false)
+class LoadEvent extends Event {
+
+    /**
+     * The number of lines of a chunk.
+     */
+    static final int CHUNK = 1 << 16;
+
+    @Label("Source")
+    String source;
+
+    @Label("Entries")
+    @Description("The Files and Folders parsed")
+    long entries;
+
+    @Label("Bytes")
+    @Description("The bytes read from the source, compressed if it is")
+    @DataAmount
+    long bytes;
+
+    @Label("Scan")
+    @Description("Reading blanks and the indentation of the lines")
+    @Timespan
+    long scan;
+
+    @Label("Parse")
+    @Description("Parsing the user, size, time and name")
+    @Timespan
+    long parse;
+
+    @Label("Add")
+    @Description("Adding the Files to the FileStructure")
+    @Timespan
+    long add;
+
+    @Label("Add Calls")
+    @Description("The time inside FileStructure.add alone, timed around every add")
+    @Timespan
+    long addCalls;
+}
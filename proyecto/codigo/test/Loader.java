@@ -1,14 +1,24 @@
 
 import fplogn.*;
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.Stack;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * The class Loader is the class that reads the file which contains the file's
- * tree and makes a Folder with the same specifications.
+ * tree and makes a Folder with the same specifications. If the tree was made
+ * with -D --timefmt=%s, every line has the modification time after the size,
+ * e.g. [user 4.0K 1700000000], and the Files keep it.
+ *
+ * Every CHUNK lines a LoadEvent is recorded by Flight Recorder, with the time
+ * spent scanning, parsing and adding (two System.nanoTime() per line, only
+ * while the event is enabled), and the time inside FileStructure.add alone,
+ * with two more around every add.
  *
  * @author anietog1, kaparrah
  */
@@ -19,20 +29,144 @@ public class Loader {
     private int curr;
     private int currLvl;
     private final FileStructure files;
+    private final SizeParser sizes;
+    private final PipelinedInputStream pipeline;
+    private final CountingInputStream counted;
+    private final String source;
+    private final long[] phases;
+    private LoadEvent event;
+    private boolean timed;
+    private long lap;
+    private long adds;
+    private long chunkEntries;
+    private long chunkBytes;
+    private final long totalBytes;
+    private volatile long entries;
+    private ReadWriteLock lock;
+    private Runnable progressListener;
+
+    private static final int SCAN = 0;
+    private static final int PARSE = 1;
+    private static final int ADD = 2;
 
     /**
      * Creates a new Loader reads a file and returns a Folder $HOME from it.
+     * Files ending in .gz or .zst are decompressed in another thread while
+     * they are parsed, see PipelinedInputStream.
      *
      * @param filename The name of the file which contains the data - e.g.
-     * ejemplito.txt
+     * ejemplito.txt or ejemplito.txt.gz
      * @throws FileNotFoundException if a file with filename doesn't exist.
      */
     public Loader(String filename) throws FileNotFoundException {
-        br = new BufferedReader(new FileReader(filename));
+        counted = new CountingInputStream(new FileInputStream(filename));
+
+        if (filename.endsWith(".gz") || filename.endsWith(".zst")) {
+            pipeline = new PipelinedInputStream(counted);
+            br = new BufferedReader(new InputStreamReader(pipeline), 1 << 16);
+        } else {
+            pipeline = null;
+            br = new BufferedReader(new InputStreamReader(counted));
+        }
+
+        source = filename;
+        totalBytes = new java.io.File(filename).length();
         files = new FileStructure();
+        sizes = new SizeParser();
+        phases = new long[3];
         calls = 0;
     }
 
+    /**
+     * Creates a new Loader which reads the data from the given stream, if it's
+     * a PipelinedInputStream its report is available from pipelineReport().
+     * load() closes the stream.
+     *
+     * @param in The stream which contains the data.
+     */
+    public Loader(InputStream in) {
+        pipeline = in instanceof PipelinedInputStream ? (PipelinedInputStream) in : null;
+        counted = new CountingInputStream(in);
+        br = new BufferedReader(new InputStreamReader(counted), 1 << 16);
+        source = in.getClass().getSimpleName();
+        totalBytes = -1;
+        files = new FileStructure();
+        sizes = new SizeParser();
+        phases = new long[3];
+        calls = 0;
+    }
+
+    /**
+     * Describes the throughput of decompressing and parsing, if the data is
+     * compressed.
+     *
+     * @return The report of the PipelinedInputStream, null if the data isn't
+     * compressed.
+     */
+    public String pipelineReport() {
+        return pipeline == null ? null : pipeline.report();
+    }
+
+    /**
+     * Makes the Loader hold the write lock of the given lock while it adds
+     * Files, so other threads can search getFiles() holding the read lock
+     * while it loads. Files are added by Folder, when the last line under the
+     * Folder is read, so a Folder shows up with all its children at once.
+     *
+     * @param lock The lock, null to add without locking (the default).
+     */
+    public void setLock(ReadWriteLock lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * Sets what is called by the loading thread every CHUNK lines, e.g. to
+     * report the progress with bytesRead() and entriesRead().
+     *
+     * @param listener The listener, null for none.
+     */
+    public void setProgressListener(Runnable listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * The FileStructure being loaded, see setLock(ReadWriteLock).
+     *
+     * @return The FileStructure load() returns.
+     */
+    public FileStructure getFiles() {
+        return files;
+    }
+
+    /**
+     * The number of bytes read so far from the file (compressed, if it is),
+     * it can be called from any thread.
+     *
+     * @return The bytes read.
+     */
+    public long bytesRead() {
+        return counted.count();
+    }
+
+    /**
+     * The size of the file, to compare with bytesRead().
+     *
+     * @return The size in bytes, -1 if reading a stream.
+     */
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * The number of lines (Files and Folders) parsed so far, it can be called
+     * from any thread.
+     *
+     * @return The lines parsed.
+     */
+    public long entriesRead() {
+        return entries;
+    }
+
     /**
      * Loads the File and returns a FileStructure from it, if called more than
      * once, then returns null.
@@ -41,22 +175,116 @@ public class Loader {
      * @throws IOException if an IO error occurs.
      */
     public FileStructure load() throws IOException {
+        return load(null);
+    }
+
+    /**
+     * Loads the File and returns a FileStructure from it, with the HOME of the
+     * file inside the given Folder (e.g. a Folder named after the host the
+     * file comes from), if called more than once, then returns null. The file
+     * is closed at the end, which also stops the decompressor of a
+     * PipelinedInputStream if the listing ends before the file does.
+     *
+     * @param parent The Folder where HOME is put, it's added too, null to put
+     * HOME directly inside the HOME of the FileStructure.
+     * @return a new FileStructure from the given text file.
+     * @throws IOException if an IO error occurs.
+     */
+    public FileStructure load(Folder parent) throws IOException {
         if (calls++ > 0) {
             return null;
         }
 
-        jumpBlanks();
-        while (!isLetter(curr = br.read()));
-        Folder home = new Folder((char) curr + br.readLine().split("/")[0], null, "");
-        files.add(home);
+        try {
+            startChunk();
 
-        jumpBlanks();
-        calcLvl();
-        loadTo(home, currLvl);
+            jumpBlanks();
+            while (!isLetter(curr = br.read()));
+            Folder home = new Folder((char) curr + br.readLine().split("/")[0], parent, "");
+            lock();
+            try {
+                if (parent != null) {
+                    add(parent);
+                }
+                add(home);
+            } finally {
+                unlock();
+            }
+
+            jumpBlanks();
+            calcLvl();
+            loadTo(home, currLvl);
+            endChunk();
+        } finally {
+            br.close();
+        }
 
         return files;
     }
 
+    private void startChunk() {
+        event = new LoadEvent();
+        event.begin();
+        timed = event.isEnabled();
+        lap = timed ? System.nanoTime() : 0;
+        chunkEntries = 0;
+        chunkBytes = counted.count();
+        phases[SCAN] = 0;
+        phases[PARSE] = 0;
+        phases[ADD] = 0;
+        adds = 0;
+    }
+
+    private void endChunk() {
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.entries = chunkEntries;
+            event.bytes = counted.count() - chunkBytes;
+            event.scan = phases[SCAN];
+            event.parse = phases[PARSE];
+            event.add = phases[ADD];
+            event.addCalls = adds;
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds the time since the last lap to the given phase.
+     */
+    private void lap(int phase) {
+        if (timed) {
+            long now = System.nanoTime();
+            phases[phase] += now - lap;
+            lap = now;
+        }
+    }
+
+    /**
+     * Adds the File, adding the time inside FileStructure.add to adds.
+     */
+    private void add(File file) {
+        if (timed) {
+            long start = System.nanoTime();
+            files.add(file);
+            adds += System.nanoTime() - start;
+        } else {
+            files.add(file);
+        }
+    }
+
+    private void lock() {
+        if (lock != null) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlock() {
+        if (lock != null) {
+            lock.writeLock().unlock();
+        }
+    }
+
     private void calcLvl() throws IOException {
         if (curr == '[') {//Si el actual es '[', el nivel ya fue calculado
             return;
@@ -92,13 +320,26 @@ public class Loader {
 
         while (!isDouble(curr) && curr != -1) {
             calcLvl();
+            lap(SCAN);
 
             if (currLvl == fLvl) {
                 inners.push(makeFor(fold));
+                lap(PARSE);
+
+                ++entries;
+                if (++chunkEntries == LoadEvent.CHUNK) {
+                    endChunk();
+                    startChunk();
+
+                    if (progressListener != null) {
+                        progressListener.run();
+                    }
+                }
+
                 jumpBlanks();
             } else if (currLvl > fLvl) {
                 File temp = inners.pop();
-                Folder child = new Folder(temp.getName(), temp.getParent(), temp.getUser());
+                Folder child = new Folder(temp.getName(), temp.getParent(), temp.getUser(), temp.getMtime());
                 loadTo(child, currLvl);
                 inners.push(child);
             } else {//<
@@ -106,32 +347,19 @@ public class Loader {
             }
         }
 
-        while (!inners.isEmpty()) {
-            //long startTime = System.nanoTime();
-            files.add(inners.pop());
-            //long endTime = System.nanoTime();
-            //System.out.println(endTime - startTime);
+        lock();
+        try {
+            while (!inners.isEmpty()) {
+                add(inners.pop());
+            }
+        } finally {
+            unlock();
         }
+        lap(ADD);
 
         //files.add(fold); if uncommented, added twice
     }
 
-    private long calcSize(String numbers, int modifier) {
-        double num = Double.parseDouble(numbers);
-        long ret = (long) num;
-
-        switch (modifier) {
-            case 'M':
-                ret *= 1024 * 1024;
-                break;
-            case 'K':
-                ret *= 1024;
-                break;
-        }
-
-        return ret;
-    }
-
     private File makeFor(Folder fold) throws IOException {
         //doesn't need to go to '[' because it's already there
         StringBuilder temp = new StringBuilder();
@@ -143,16 +371,29 @@ public class Loader {
 
         jumpBlanks();
 
-        temp = new StringBuilder();
-        //next, get the size
-        while (isDouble(curr = br.read())) {
-            temp.append((char) curr);
+        //next, get the size, without building a String
+        sizes.reset();
+        while (sizes.accept(curr = br.read()));
+
+        long size = sizes.size(curr /*modifier*/);
+        if (curr != ']' && curr != ' ') {
+            curr = br.read();
         }
 
-        long size = calcSize(temp.toString()/*digits + '.'*/, curr /*modifier*/);
-        br.read();//']'
+        //tree -D --timefmt=%s writes the modification time after the size
+        long mtime = File.NO_MTIME;
+        while (curr == ' ') {
+            curr = br.read();
+        }
+        if (curr >= '0' && curr <= '9') {
+            mtime = 0;
+            while (curr >= '0' && curr <= '9') {
+                mtime = mtime * 10 + (curr - '0');
+                curr = br.read();
+            }
+        }
         jumpBlanks();
 
-        return new File(br.readLine(), fold, size, user);
+        return new File(br.readLine(), fold, size, user, mtime);
     }
 }
@@ -0,0 +1,175 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * The class LsParser reads the output of
+ * <pre>ls -lR DIR</pre>
+ * which lists every directory after a "path:" line, one File per line:
+ * <pre>-rw-r--r-- 1 user group 123 Jan  1 00:00 name</pre>
+ * Directories (lines starting with 'd') are made Folders with their user when
+ * they are listed in their parent, so the "path:" line of their own listing
+ * finds them in the PathCache. Symbolic links are added as Files with the name
+ * before " -> ", and device Files are ignored.
+ *
+ * The date is the modification time, in the local time zone: "Jan  1 00:00"
+ * for recent Files (of the last year, or of the year before if that would be
+ * in the future) and "Jan  1  2020" for the rest, to the minute or the day.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class LsParser implements ListingParser {
+
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    @Override
+    public void parse(InputStream in, FileStructure files) throws IOException {
+        RecordReader reader = new RecordReader(in, (byte) '\n');
+        PathCache cache = new PathCache(files, "");
+        String dir = "";
+        Folder parent = null;
+        LocalDateTime now = LocalDateTime.now();
+
+        while (reader.next()) {
+            int n = reader.length;
+
+            if (n == 0 || startsWith(reader, "total ")) {
+                continue;
+            }
+
+            if (reader.record[n - 1] == ':' && !isMode(reader)) {
+                dir = PathCache.normalize(reader.string(0, n - 1));
+                parent = cache.folder(dir);
+                continue;
+            }
+
+            byte type = reader.record[0];
+            if (type == 'c' || type == 'b') {
+                continue;
+            }
+
+            //mode, links, user, group, size, 3 fields of date and the name
+            int at = reader.skipToken(0);
+            at = reader.skipToken(reader.skipBlanks(at));
+            int userFrom = reader.skipBlanks(at);
+            int userEnd = reader.skipToken(userFrom);
+            at = reader.skipToken(reader.skipBlanks(userEnd));
+            int sizeFrom = reader.skipBlanks(at);
+            int sizeEnd = reader.skipToken(sizeFrom);
+            long size = reader.number(sizeFrom, sizeEnd);
+            int dateFrom = reader.skipBlanks(sizeEnd);
+            at = sizeEnd;
+            for (int i = 0; i < 3; ++i) {
+                at = reader.skipToken(reader.skipBlanks(at));
+            }
+            long mtime = mtimeOf(reader, dateFrom, now);
+
+            String name = reader.string(at + 1, n);
+            String user = reader.string(userFrom, userEnd);
+
+            if (type == 'd') {
+                if (!name.equals(".") && !name.equals("..")) {
+                    cache.declare(dir.length() == 0 ? name : dir + "/" + name, size, user, mtime);
+                }
+            } else {
+                if (type == 'l') {
+                    int arrow = name.indexOf(" -> ");
+                    if (arrow >= 0) {
+                        name = name.substring(0, arrow);
+                    }
+                }
+
+                files.add(new File(name, parent, size, user, mtime));
+            }
+        }
+    }
+
+    /**
+     * Reads the date of ls from the given position: month, day and either
+     * hours:minutes or the year.
+     */
+    private static long mtimeOf(RecordReader reader, int from, LocalDateTime now) {
+        byte[] r = reader.record;
+        if (from + 3 > reader.length) {
+            return File.NO_MTIME;
+        }
+
+        int month = MONTHS.indexOf(new String(r, from, 3, StandardCharsets.US_ASCII));
+        if (month < 0 || month % 3 != 0) {
+            return File.NO_MTIME;
+        }
+        month = month / 3 + 1;
+
+        int at = reader.skipBlanks(from + 3);
+        int day = 0;
+        while (at < reader.length && r[at] >= '0' && r[at] <= '9') {
+            day = day * 10 + (r[at++] - '0');
+        }
+
+        at = reader.skipBlanks(at);
+        int first = 0;
+        int second = -1;
+        while (at < reader.length && r[at] >= '0' && r[at] <= '9') {
+            first = first * 10 + (r[at++] - '0');
+        }
+        if (at < reader.length && r[at] == ':') {
+            second = 0;
+            while (++at < reader.length && r[at] >= '0' && r[at] <= '9') {
+                second = second * 10 + (r[at] - '0');
+            }
+        }
+
+        if (day < 1 || day > 31 || (second < 0 && first == 0)) {
+            return File.NO_MTIME;
+        }
+
+        try {
+            LocalDateTime date;
+            if (second < 0) {
+                date = LocalDateTime.of(first, month, day, 0, 0);
+            } else {
+                date = LocalDateTime.of(now.getYear(), month, day, first, second);
+                if (date.isAfter(now.plusDays(1))) {
+                    date = date.minusYears(1);
+                }
+            }
+
+            return date.atZone(ZoneId.systemDefault()).toEpochSecond();
+        } catch (RuntimeException ex) {
+            return File.NO_MTIME;//e.g. Feb 30
+        }
+    }
+
+    private static boolean startsWith(RecordReader reader, String prefix) {
+        if (reader.length < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (reader.record[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isMode(RecordReader reader) {
+        //a mode is 10 characters, e.g. drwxr-xr-x, followed by a blank
+        if (reader.length < 11 || "-dlcbps".indexOf(reader.record[0]) < 0) {
+            return false;
+        }
+
+        for (int i = 1; i < 10; ++i) {
+            if ("rwxsStT-".indexOf(reader.record[i]) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
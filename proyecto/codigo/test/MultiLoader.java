@@ -0,0 +1,137 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The class MultiLoader loads many listings (e.g. one per host) into a single
+ * FileStructure. Every listing is loaded by its own Loader in a pool of
+ * threads, with its HOME inside a Folder named after the file (its name
+ * without extensions), and every loaded structure is merged into the result
+ * as soon as it's ready, while the others are still loading. Since the host
+ * Folders are different, FileStructure.merge only joins lists.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class MultiLoader {
+
+    /**
+     * The FileStructure of a single listing and how long it took.
+     */
+    private static class Part {
+
+        private final String host;
+        private final FileStructure files;
+        private final long nanos;
+
+        private Part(String host, FileStructure files, long nanos) {
+            this.host = host;
+            this.files = files;
+            this.nanos = nanos;
+        }
+    }
+
+    private final List<String> filenames;
+    private final int threads;
+    private final LinkedHashMap<String, Long> timings;
+
+    /**
+     * Creates a new MultiLoader.
+     *
+     * @param filenames The listings, any name Loader accepts.
+     * @param threads The number of listings loaded at the same time.
+     */
+    public MultiLoader(List<String> filenames, int threads) {
+        this.filenames = filenames;
+        this.threads = threads;
+        timings = new LinkedHashMap<>();
+    }
+
+    /**
+     * The host Folder of a listing: its file name without extensions.
+     *
+     * @param filename The name of a listing.
+     * @return The name of its host Folder.
+     */
+    static String hostOf(String filename) {
+        String ret = Paths.get(filename).getFileName().toString();
+        int dot = ret.indexOf('.');
+        return dot > 0 ? ret.substring(0, dot) : ret;
+    }
+
+    /**
+     * Loads every listing and merges them.
+     *
+     * @param progress Where a line is written after every listing is merged,
+     * null to write nothing.
+     * @return A FileStructure with the Files of every listing.
+     * @throws IOException if a listing can't be loaded.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public FileStructure load(PrintStream progress) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ExecutorCompletionService<Part> done = new ExecutorCompletionService<>(pool);
+        FileStructure ret = new FileStructure();
+        long start = System.nanoTime();
+
+        try {
+            for (String filename : filenames) {
+                done.submit(() -> {
+                    long begin = System.nanoTime();
+                    String host = hostOf(filename);
+                    FileStructure files = new Loader(filename).load(new Folder(host, null, ""));
+                    return new Part(host, files, System.nanoTime() - begin);
+                });
+            }
+
+            for (int i = 1; i <= filenames.size(); ++i) {
+                Future<Part> next = done.take();
+                Part part;
+
+                try {
+                    part = next.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+
+                    throw new IOException(ex.getCause());
+                }
+
+                long entries = part.files.nFiles() + part.files.nFolders();
+                long begin = System.nanoTime();
+                ret.merge(part.files);
+                long merge = System.nanoTime() - begin;
+                timings.put(part.host, part.nanos);
+
+                if (progress != null) {
+                    progress.printf("[%d/%d] %s: %d entries, loaded in %.1f ms, merged in %.1f ms, %.1f s elapsed%n",
+                            i, filenames.size(), part.host, entries, part.nanos / 1e6, merge / 1e6,
+                            (System.nanoTime() - start) / 1e9);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return ret;
+    }
+
+    /**
+     * How long loading every listing took, in the order they finished.
+     *
+     * @return The nanoseconds every host took to load, not counting the merge.
+     */
+    public Map<String, Long> getTimings() {
+        return timings;
+    }
+}
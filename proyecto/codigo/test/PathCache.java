@@ -0,0 +1,153 @@
+
+import fplogn.*;
+import java.util.HashMap;
+
+/**
+ * The class PathCache keeps the Folder of every path seen in a flat listing,
+ * so the Files of the same directory share the same parent Folder. Paths are
+ * written like "/home/agus/docs" or "./docs", the leading "/" or "./" and the
+ * trailing "/" are ignored, and "", "." and "/" are HOME, whose Folder is null
+ * (Folders with a null parent are directly inside HOME).
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class PathCache {
+
+    private final FileStructure files;
+    private final String user;
+    private final HashMap<String, Folder> folders;
+
+    /**
+     * Builds a new empty PathCache, the Folders it makes are added to the
+     * given FileStructure.
+     *
+     * @param files Where the Folders are added.
+     * @param user The user of the Folders made before their entry is read.
+     */
+    PathCache(FileStructure files, String user) {
+        this.files = files;
+        this.user = user;
+        folders = new HashMap<>();
+    }
+
+    /**
+     * Removes the leading "/" or "./" and the trailing "/" of a path.
+     *
+     * @param path A path of the listing.
+     * @return The path in the form used as key of the cache.
+     */
+    static String normalize(String path) {
+        int from = 0;
+        int to = path.length();
+
+        if (path.startsWith("./")) {
+            from = 2;
+        } else if (path.equals(".")) {
+            from = 1;
+        }
+
+        while (from < to && path.charAt(from) == '/') {
+            ++from;
+        }
+
+        while (to > from && path.charAt(to - 1) == '/') {
+            --to;
+        }
+
+        return from == 0 && to == path.length() ? path : path.substring(from, to);
+    }
+
+    /**
+     * The path of the Folder which contains the given normalized path.
+     *
+     * @param path A normalized path.
+     * @return Its parent's path, "" if it's directly inside HOME.
+     */
+    static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+    /**
+     * The last component of the given normalized path.
+     *
+     * @param path A normalized path.
+     * @return The name of the File or Folder.
+     */
+    static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Indicates if there's a Folder for the given normalized path.
+     *
+     * @param path A normalized path.
+     * @return true if the Folder was already made.
+     */
+    boolean contains(String path) {
+        return path.length() == 0 || folders.containsKey(path);
+    }
+
+    /**
+     * The Folder with the given normalized path, if it doesn't exist it's made
+     * (and its parents too) with the user of the cache and added.
+     *
+     * @param path A normalized path.
+     * @return The Folder, null for HOME.
+     */
+    Folder folder(String path) {
+        if (path.length() == 0) {
+            return null;
+        }
+
+        Folder ret = folders.get(path);
+
+        if (ret == null) {
+            ret = new Folder(nameOf(path), folder(parentOf(path)), user);
+            folders.put(path, ret);
+            files.add(ret);
+        }
+
+        return ret;
+    }
+
+    /**
+     * The Folder with the given normalized path, if it doesn't exist it's made
+     * with the given user and size and added.
+     *
+     * @param path A normalized path.
+     * @param size The size of the Folder.
+     * @param user The user of the Folder.
+     * @return The Folder, null for HOME.
+     */
+    Folder declare(String path, long size, String user) {
+        return declare(path, size, user, File.NO_MTIME);
+    }
+
+    /**
+     * The Folder with the given normalized path, if it doesn't exist it's made
+     * with the given user, size and modification time and added.
+     *
+     * @param path A normalized path.
+     * @param size The size of the Folder.
+     * @param user The user of the Folder.
+     * @param mtime The seconds since the Unix epoch when the Folder was last
+     * modified, File.NO_MTIME if unknown.
+     * @return The Folder, null for HOME.
+     */
+    Folder declare(String path, long size, String user, long mtime) {
+        if (path.length() == 0) {
+            return null;
+        }
+
+        Folder ret = folders.get(path);
+
+        if (ret == null) {
+            ret = new Folder(nameOf(path), folder(parentOf(path)), size, user, mtime);
+            folders.put(path, ret);
+            files.add(ret);
+        }
+
+        return ret;
+    }
+}
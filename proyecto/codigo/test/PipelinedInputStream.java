@@ -0,0 +1,251 @@
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The class PipelinedInputStream decompresses a gzip (or zstd) stream in its
+ * own thread while the reader of this stream parses, so both things happen at
+ * the same time. The thread fills buffers taken from a fixed ring of reusable
+ * buffers and hands them to the reader, who gives them back once read, so the
+ * memory used never grows.
+ *
+ * Both sides measure how long they wait for the other: if the decompressor
+ * waits for empty buffers the parser is the bottleneck, and if the reader
+ * waits for full buffers the decompressor is. See report().
+ *
+ * zstd is read with com.github.luben.zstd.ZstdInputStream, which must be in
+ * the classpath, the JDK only knows gzip.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class PipelinedInputStream extends InputStream {
+
+    private static final int GZIP_MAGIC = 0x1f8b;
+    private static final int ZSTD_MAGIC = 0x28b52ffd;
+
+    /**
+     * A buffer of the ring, length is -1 for the end of the stream.
+     */
+    private static class Chunk {
+
+        private final byte[] bytes;
+        private int length;
+
+        private Chunk(int size) {
+            bytes = new byte[size];
+        }
+    }
+
+    private final InputStream source;
+    private final ArrayBlockingQueue<Chunk> empty;
+    private final ArrayBlockingQueue<Chunk> full;
+    private final Thread decompressor;
+    private volatile IOException failure;
+    private volatile long decompressed;
+    private volatile long decompressNanos;
+    private volatile long producerWaitNanos;
+    private long consumerWaitNanos;
+    private long consumed;
+    private long startNanos;
+    private long endNanos;
+    private Chunk current;
+    private int position;
+    private boolean closed;
+
+    /**
+     * Builds a new PipelinedInputStream with 4 buffers of 1 MB.
+     *
+     * @param source The compressed stream.
+     */
+    public PipelinedInputStream(InputStream source) {
+        this(source, 4, 1 << 20);
+    }
+
+    /**
+     * Builds a new PipelinedInputStream and starts decompressing.
+     *
+     * @param source The compressed stream, gzip or zstd, told apart by their
+     * first bytes.
+     * @param buffers The number of buffers in the ring, at least 2.
+     * @param bufferSize The size of every buffer.
+     */
+    public PipelinedInputStream(InputStream source, int buffers, int bufferSize) {
+        this.source = source;
+        empty = new ArrayBlockingQueue<>(buffers);
+        full = new ArrayBlockingQueue<>(buffers + 1);//+1 for the end
+
+        for (int i = 0; i < buffers; ++i) {
+            empty.add(new Chunk(bufferSize));
+        }
+
+        startNanos = System.nanoTime();
+        decompressor = new Thread(this::decompress, "decompressor");
+        decompressor.setDaemon(true);
+        decompressor.start();
+    }
+
+    /**
+     * Opens a decompressing stream for the given compressed stream, looking
+     * at its first bytes.
+     *
+     * @param raw The compressed stream.
+     * @return A stream with the decompressed bytes.
+     * @throws IOException if the format isn't gzip nor zstd, or zstd isn't
+     * available.
+     */
+    static InputStream decompressing(InputStream raw) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(raw, 1 << 16);
+        in.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; ++i) {
+            magic = (magic << 8) | (in.read() & 0xff);
+        }
+        in.reset();
+
+        if ((magic >>> 16) == GZIP_MAGIC) {
+            return new GZIPInputStream(in, 1 << 16);
+        } else if (magic == ZSTD_MAGIC) {
+            try {
+                return (InputStream) Class.forName("com.github.luben.zstd.ZstdInputStream")
+                        .getConstructor(InputStream.class).newInstance(in);
+            } catch (ReflectiveOperationException ex) {
+                throw new IOException("zstd needs com.github.luben.zstd in the classpath", ex);
+            }
+        }
+
+        throw new IOException("Unknown compression format");
+    }
+
+    private void decompress() {
+        boolean done = false;
+
+        try (InputStream in = decompressing(source)) {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Chunk chunk = empty.take();
+                long readStart = System.nanoTime();
+                producerWaitNanos += readStart - waitStart;
+
+                chunk.length = 0;
+                int read = 0;
+                while (chunk.length < chunk.bytes.length
+                        && (read = in.read(chunk.bytes, chunk.length, chunk.bytes.length - chunk.length)) >= 0) {
+                    chunk.length += read;
+                }
+
+                decompressNanos += System.nanoTime() - readStart;
+                decompressed += chunk.length;
+
+                if (chunk.length > 0) {
+                    full.put(chunk);
+                }
+
+                if (read < 0) {
+                    break;
+                }
+            }
+            done = true;
+        } catch (IOException ex) {
+            failure = ex;
+        } catch (InterruptedException ex) {
+            done = true;//closed
+        } catch (RuntimeException ex) {
+            failure = new IOException("The decompressor failed", ex);
+        } finally {
+            //the reader always gets the end, or it would wait for ever
+            if (!done && failure == null) {
+                failure = new IOException("The decompressor stopped");
+            }
+
+            Chunk end = new Chunk(0);
+            end.length = -1;
+            full.offer(end);//there's always room for it
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (current != null) {
+            if (current.length < 0) {
+                return false;
+            }
+
+            empty.offer(current);
+            current = null;
+        }
+
+        long waitStart = System.nanoTime();
+        try {
+            current = full.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the decompressor", ex);
+        }
+        consumerWaitNanos += System.nanoTime() - waitStart;
+        position = 0;
+
+        if (current.length < 0) {
+            endNanos = System.nanoTime();
+            if (failure != null) {
+                throw failure;
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ((current == null || position == current.length) && !fill()) {
+            return -1;
+        }
+
+        ++consumed;
+        return current.bytes[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if ((current == null || position == current.length) && !fill()) {
+            return -1;
+        }
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, n);
+        position += n;
+        consumed += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            decompressor.interrupt();
+            source.close();
+        }
+    }
+
+    /**
+     * Describes the throughput of both stages: the decompressed MB/s while
+     * decompressing and the time each side spent waiting for the other.
+     *
+     * @return A one line report.
+     */
+    public String report() {
+        long total = (endNanos == 0 ? System.nanoTime() : endNanos) - startNanos;
+        double busy = decompressNanos / 1e9;
+        return String.format("decompress: %d bytes, %.1f MB/s busy, waited %.1f ms for the parser | "
+                + "parse: %d bytes, waited %.1f ms for the decompressor | total %.1f ms",
+                decompressed, busy > 0 ? decompressed / busy / 1e6 : 0.0, producerWaitNanos / 1e6,
+                consumed, consumerWaitNanos / 1e6, total / 1e6);
+    }
+}
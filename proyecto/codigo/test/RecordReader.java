@@ -0,0 +1,154 @@
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The class RecordReader splits a stream in records ended by a delimiter byte
+ * (e.g. '\n' or '\0'). The bytes of the current record are in
+ * record[0, length), the same arrays are reused for every record.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class RecordReader {
+
+    private final InputStream in;
+    private final byte delimiter;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    byte[] record;
+    int length;
+
+    /**
+     * Builds a new RecordReader.
+     *
+     * @param in The stream read.
+     * @param delimiter The byte at the end of every record.
+     */
+    RecordReader(InputStream in, byte delimiter) {
+        this.in = in;
+        this.delimiter = delimiter;
+        buffer = new byte[1 << 16];
+        record = new byte[256];
+    }
+
+    /**
+     * Reads the next record, the last one may not have a delimiter.
+     *
+     * @return false if there are no more records.
+     * @throws IOException if an IO error occurs.
+     */
+    boolean next() throws IOException {
+        length = 0;
+        boolean read = false;
+
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+
+                if (limit <= 0) {
+                    limit = 0;
+                    return read;
+                }
+            }
+
+            read = true;
+            int from = position;
+            while (position < limit && buffer[position] != delimiter) {
+                ++position;
+            }
+
+            append(from, position);
+
+            if (position < limit) {
+                ++position;//the delimiter
+                if (length > 0 && record[length - 1] == '\r') {
+                    --length;
+                }
+
+                return true;
+            }
+        }
+    }
+
+    private void append(int from, int to) {
+        int n = to - from;
+
+        if (length + n > record.length) {
+            record = Arrays.copyOf(record, Math.max(record.length * 2, length + n));
+        }
+
+        System.arraycopy(buffer, from, record, length, n);
+        length += n;
+    }
+
+    /**
+     * The position of the first non blank byte of the record from the given
+     * one.
+     *
+     * @param from A position of the record.
+     * @return The first non blank position, length if there's none.
+     */
+    int skipBlanks(int from) {
+        while (from < length && (record[from] == ' ' || record[from] == '\t')) {
+            ++from;
+        }
+
+        return from;
+    }
+
+    /**
+     * The position of the first blank byte of the record from the given one.
+     *
+     * @param from A position of the record.
+     * @return The end of the token, length if there's no blank.
+     */
+    int skipToken(int from) {
+        while (from < length && record[from] != ' ' && record[from] != '\t') {
+            ++from;
+        }
+
+        return from;
+    }
+
+    /**
+     * Reads the digits of the record from the given position.
+     *
+     * @param from The first digit.
+     * @param to The position after the last digit.
+     * @return The number.
+     * @throws IOException if there's a non digit byte.
+     */
+    long number(int from, int to) throws IOException {
+        if (from >= to) {
+            throw new IOException("Expected a number in: " + string(0, length));
+        }
+
+        long ret = 0;
+        for (int i = from; i < to; ++i) {
+            int digit = record[i] - '0';
+
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Expected a number in: " + string(0, length));
+            }
+
+            ret = ret * 10 + digit;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Decodes a part of the record as UTF-8.
+     *
+     * @param from The first byte.
+     * @param to The position after the last byte.
+     * @return The String.
+     */
+    String string(int from, int to) {
+        return new String(record, from, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,97 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs a primary or a Replica in its own JVM, to try the replication with
+ * several processes in the same machine:
+ * <pre>java Replication primary dir address [listing] [adds per second]
+ *java Replication replica dir address</pre>
+ * address is a port of localhost, host:port, or the path of a Unix domain
+ * socket. The primary recovers dir (or loads the listing when dir is empty)
+ * and keeps adding made up Files, every second both print their sequence
+ * numbers, the replicas also their lag and the answer of a query.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Replication {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Usage: java Replication primary dir address [listing] [adds per second]");
+            System.out.println("       java Replication replica dir address");
+            return;
+        }
+
+        SocketAddress address = Serve.address(args[2]);
+
+        switch (args[0]) {
+            case "primary":
+                primary(args, address);
+                break;
+            case "replica":
+                replica(args, address);
+                break;
+            default:
+                System.out.println("Unknown role: " + args[0]);
+        }
+    }
+
+    private static void primary(String[] args, SocketAddress address) throws IOException, InterruptedException {
+        FileStructure files = WriteAheadLog.recover(Paths.get(args[1]));
+        int rate = 1000;
+
+        for (int i = 3; i < args.length; ++i) {
+            if (args[i].matches("\\d+")) {
+                rate = Integer.parseInt(args[i]);
+            } else if (files.nFiles() + files.nFolders() == 0) {
+                files = new Loader(args[i]).load();
+            }
+        }
+
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        WriteAheadLog log = WriteAheadLog.open(Paths.get(args[1]), files, WriteAheadLog.Durability.BATCH, 5, 1000000);
+        ReplicationServer server = new ReplicationServer(files, log, lock, address, 16 << 20);
+
+        Folder made = new Folder("replication", null, "primary");
+        lock.writeLock().lock();
+        try {
+            files.add(made);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        long pause = 1000000000L / rate;
+        long next = System.currentTimeMillis() + 1000;
+        for (long i = log.sequence(); ; ++i) {
+            lock.writeLock().lock();
+            try {
+                files.add(new File("file" + i + ".txt", made, i % 100000, "user" + (i % 7)));
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            Thread.sleep(pause / 1000000, (int) (pause % 1000000));
+            if (System.currentTimeMillis() >= next) {
+                next += 1000;
+                System.out.printf("sequence %d, durable %d, %d replicas%n",
+                        log.sequence(), log.durable(), server.followers());
+            }
+        }
+    }
+
+    private static void replica(String[] args, SocketAddress address) throws IOException, InterruptedException {
+        Replica replica = new Replica(Paths.get(args[1]), address);
+
+        while (true) {
+            Thread.sleep(1000);
+            int under = replica.read((FileStructure files) -> files.getBySubtree("replication/").size());
+            System.out.printf("%s applied %d, lag %d entries %d ms, %d Files under replication/%n",
+                    replica.isConnected() ? "connected" : "disconnected",
+                    replica.applied(), replica.lagEntries(), replica.lagMillis(), under);
+        }
+    }
+}
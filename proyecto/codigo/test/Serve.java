@@ -0,0 +1,62 @@
+
+import fplogn.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+
+/**
+ * Loads a listing and serves it with a QueryServer until killed:
+ * <pre>java Serve listing address</pre>
+ * address is a port, host:port or the path of a Unix domain socket. It serves
+ * from the start, while loading with an AsyncLoader the answers are PARTIAL.
+ * Every 10 seconds it prints the requests answered, and the progress while
+ * loading.
+ *
+ * @author anietog1, ditrefftzr
+ */
+public class Serve {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: java Serve listing address");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        AsyncLoader loader = new AsyncLoader(args[0]);
+        QueryServer server = new QueryServer(loader.getFiles(), loader.getLock(), address(args[1]));
+        server.setPartial(loader::isPartial);
+        loader.start().whenComplete((FileStructure files, Throwable ex) -> {
+            if (ex != null) {
+                System.out.println("Load failed: " + ex);
+            } else {
+                System.out.println("Loaded " + files.nFiles() + " Files and " + files.nFolders()
+                        + " Folders in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        });
+        System.out.println("Serving at " + server.getAddress());
+
+        long last = 0;
+        while (true) {
+            Thread.sleep(10000);
+            long now = server.getRequests();
+            System.out.println((now - last) / 10 + " requests/s"
+                    + (loader.isPartial() ? ", loading: " + loader.getProgress() : ""));
+            last = now;
+        }
+    }
+
+    static SocketAddress address(String s) {
+        if (s.matches("\\d+")) {
+            return new InetSocketAddress("localhost", Integer.parseInt(s));
+        }
+
+        int colon = s.lastIndexOf(':');
+        if (colon > 0 && s.substring(colon + 1).matches("\\d+")) {
+            return new InetSocketAddress(s.substring(0, colon), Integer.parseInt(s.substring(colon + 1)));
+        }
+
+        return UnixDomainSocketAddress.of(s);
+    }
+}
@@ -0,0 +1,100 @@
+
+/**
+ * The class SizeParser reads a size like "120", "4.0K" or "1.5M" one character
+ * at a time, straight from the input, so it doesn't need to build a String nor
+ * a double for every line. The number is kept in fixed point with up to
+ * MAX_DECIMALS decimals and the unit is applied before rounding, so "1.5M" is
+ * exactly 1572864 bytes. The units are K, M, G and T (powers of 1024), any
+ * other character after the number means bytes.
+ *
+ * A SizeParser is reused for every line, it allocates nothing.
+ *
+ * @author anietog1, ditrefftzr
+ */
+final class SizeParser {
+
+    /**
+     * The decimals kept, any other decimal is ignored. With 6 decimals the
+     * biggest unit (2^40) times the decimals still fits in a long.
+     */
+    static final int MAX_DECIMALS = 6;
+
+    private long integer;
+    private long decimals;
+    private long scale;
+    private boolean dot;
+
+    /**
+     * Builds a new SizeParser, ready to read a size.
+     */
+    SizeParser() {
+        reset();
+    }
+
+    /**
+     * Forgets the size read, to start reading a new one.
+     */
+    void reset() {
+        integer = 0;
+        decimals = 0;
+        scale = 1;
+        dot = false;
+    }
+
+    /**
+     * Reads the given character if it's part of the number.
+     *
+     * @param curr The next character (or byte) of the input.
+     * @return true if it was a digit or the first '.', false if the number
+     * ended before it.
+     */
+    boolean accept(int curr) {
+        if (curr >= '0' && curr <= '9') {
+            if (!dot) {
+                integer = Math.addExact(Math.multiplyExact(integer, 10L), curr - '0');
+            } else if (scale < 1000000L) {//10^MAX_DECIMALS
+                decimals = decimals * 10 + (curr - '0');
+                scale *= 10;
+            }
+
+            return true;
+        } else if (curr == '.' && !dot) {
+            dot = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The size read in bytes, rounding half up.
+     *
+     * @param unit The character after the number.
+     * @return The size read times the unit.
+     */
+    long size(int unit) {
+        long mult = multiplier(unit);
+        return Math.addExact(Math.multiplyExact(integer, mult), (decimals * mult + scale / 2) / scale);
+    }
+
+    /**
+     * The number of bytes of the given unit.
+     *
+     * @param unit A character.
+     * @return 1024^n for K, M, G and T, 1 for any other character.
+     */
+    static long multiplier(int unit) {
+        switch (unit) {
+            case 'K':
+                return 1L << 10;
+            case 'M':
+                return 1L << 20;
+            case 'G':
+                return 1L << 30;
+            case 'T':
+                return 1L << 40;
+            default:
+                return 1L;
+        }
+    }
+}
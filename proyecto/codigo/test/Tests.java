@@ -1,7 +1,7 @@
 
 import fplogn.*;
-import java.util.AbstractCollection;
-import java.util.TreeSet;
+import java.util.Collection;
+import java.util.SortedSet;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -20,7 +20,7 @@ public class Tests {
         //tree("");
     }
 
-    public static void list(AbstractCollection<File> list) {
+    public static void list(Collection<File> list) {
         if (list == null) {
             System.out.println("Empty list.");
         } else {
@@ -39,7 +39,7 @@ public class Tests {
     }
 
     private static void treeAux(String bars, String path) {
-        TreeSet<File> childs = files.getByFolder(path);
+        SortedSet<File> childs = files.getByFolder(path);
         if (childs == null) {
             System.out.println("Folder doesn't exist or is empty.");
         } else {